@@ -0,0 +1,81 @@
+package de.nschwalbe.postoffice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+/**
+ * The messages the benchmarks post and send: a short plain text mail, an html newsletter with a text alternative and a
+ * mail with a pdf sized attachment.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public final class BenchmarkMessages {
+
+    public enum Type {
+        SMALL,
+        HTML,
+        MULTIPART
+    }
+
+    private static final MailAddress FROM = MailAddress.of("sender@example.com");
+    private static final MailAddress TO = MailAddress.of("recipient@example.com");
+
+    private BenchmarkMessages() {
+    }
+
+    public static MimeMessage create(Type type) throws MessagingException {
+        JavaMailSender mailSender = new JavaMailSenderImpl();
+        PostOffice postOffice = new PostOffice(null, mailSender);
+
+        switch (type) {
+            case SMALL:
+                return postOffice.createMimeMessage("Your code", FROM, Collections.singletonList(TO), "Your code is 123456.", false);
+            case HTML:
+                return postOffice.createMimeMessage("Newsletter", FROM, Collections.singletonList(TO), html(), text());
+            default:
+                MimeMessage mimeMessage = mailSender.createMimeMessage();
+                MimeMessageHelper message = new MimeMessageHelper(mimeMessage, true, "UTF-8");
+                message.setSubject("Your invoice");
+                message.setFrom(FROM.getAddress());
+                message.setTo(TO.getAddress());
+                message.setText(text(), html());
+                byte[] attachment = new byte[200 * 1024];
+                Arrays.fill(attachment, (byte) 'x');
+                message.addAttachment("invoice.pdf", new ByteArrayResource(attachment), "application/pdf");
+                return mimeMessage;
+        }
+    }
+
+    public static byte[] serialize(MimeMessage mimeMessage) throws IOException, MessagingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mimeMessage.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static String html() {
+        StringBuilder html = new StringBuilder("<html><body><h1>News</h1>");
+        for (int i = 0; i < 200; i++) {
+            html.append("<p>Paragraph ").append(i).append(" with <a href=\"https://example.com/").append(i).append("\">a link</a> and some text.</p>\n");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static String text() {
+        StringBuilder text = new StringBuilder("News\n\n");
+        for (int i = 0; i < 200; i++) {
+            text.append("Paragraph ").append(i).append(" with a link https://example.com/").append(i).append(" and some text.\n");
+        }
+        return text.toString();
+    }
+}
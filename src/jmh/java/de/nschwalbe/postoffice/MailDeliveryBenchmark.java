@@ -0,0 +1,166 @@
+package de.nschwalbe.postoffice;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * Parsing stored mails and sending them to a local GreenMail server, with and without reusing the smtp connection.
+ * The raw benchmarks send the stored mails as they are, see {@link RawMimeMessage}.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailDeliveryBenchmark {
+
+    @Param({"SMALL", "HTML", "MULTIPART"})
+    private BenchmarkMessages.Type type;
+
+    @Param({"true", "false"})
+    private boolean reuseConnections;
+
+    private GreenMail greenMail;
+    private JavaMailSenderImpl javaMailSender;
+    private MailTransport transport;
+    private byte[] content;
+    private PersistedMail mail;
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(ServerSetupTest.SMTP.getPort());
+        transport = reuseConnections ? new SmtpConnectionPool(javaMailSender, 100, 30) : MailTransport.of(javaMailSender);
+
+        MimeMessage mimeMessage = BenchmarkMessages.create(type);
+        content = BenchmarkMessages.serialize(mimeMessage);
+        mail = new StoredMail(content, MailEnvelope.of(mimeMessage));
+    }
+
+    // received mails are kept in memory by GreenMail
+    @TearDown(Level.Iteration)
+    public void purge() throws Exception {
+        greenMail.purgeEmailFromAllMailboxes();
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+        greenMail.stop();
+    }
+
+    @Benchmark
+    public MimeMessage parse() {
+        return javaMailSender.createMimeMessage(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public void parseAndSend() {
+        send(javaMailSender.createMimeMessage(new ByteArrayInputStream(content)));
+    }
+
+    @Benchmark
+    public MimeMessage raw() throws IOException, MessagingException {
+        return new RawMimeMessage(javaMailSender.getSession(), mail);
+    }
+
+    @Benchmark
+    public void rawAndSend() throws IOException, MessagingException {
+        send(new RawMimeMessage(javaMailSender.getSession(), mail));
+    }
+
+    private void send(MimeMessage mimeMessage) {
+        transport.send(mimeMessage);
+    }
+
+    private static class StoredMail implements PersistedMail {
+
+        private final byte[] content;
+        private final MailEnvelope envelope;
+
+        StoredMail(byte[] content, MailEnvelope envelope) {
+            this.content = content;
+            this.envelope = envelope;
+        }
+
+        @Override
+        public String getId() {
+            return "benchmark";
+        }
+
+        @Override
+        public LocalDateTime getCreatedDate() {
+            return null;
+        }
+
+        @Override
+        public LocalDateTime getLastModifiedDate() {
+            return null;
+        }
+
+        @Override
+        public byte[] getMimeMessageContent() {
+            return content;
+        }
+
+        @Override
+        public String getEnvelopeSender() {
+            return envelope.getSender();
+        }
+
+        @Override
+        public List<String> getEnvelopeRecipients() {
+            return envelope.getRecipients();
+        }
+
+        @Override
+        public MailProcessState getState() {
+            return MailProcessState.IN_PROGRESS;
+        }
+
+        @Override
+        public void setState(MailProcessState state) {
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return null;
+        }
+
+        @Override
+        public void setErrorMessage(String message) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.nschwalbe.postoffice;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+/**
+ * Rendering a personalized newsletter for one recipient, with a mime message per recipient and with a template.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailTemplateBenchmark {
+
+    private static final MailAddress FROM = MailAddress.of("sender@example.com", "Newsletter");
+    private static final MailAddress TO = MailAddress.of("recipient@example.com", "Jane Doe");
+
+    @Param({"false", "true"})
+    private boolean withAttachment;
+
+    private JavaMailSenderImpl mailSender;
+    private MailTemplate template;
+    private MailTemplate.Recipient recipient;
+    private String html;
+    private String text;
+    private byte[] attachment;
+
+    @Setup
+    public void setUp() throws MessagingException {
+        mailSender = new JavaMailSenderImpl();
+        html = html();
+        text = text();
+        attachment = new byte[200 * 1024];
+        Arrays.fill(attachment, (byte) 'x');
+
+        MailTemplate.Part[] parts = withAttachment
+            ? new MailTemplate.Part[] {MailTemplate.Part.attachment("invoice.pdf", attachment, "application/pdf")}
+            : new MailTemplate.Part[0];
+        template = new PostOffice(null, mailSender).compileTemplate("News for ${name}", FROM, html, text, parts);
+        recipient = MailTemplate.Recipient.of(TO, Collections.singletonMap("name", "Jane Doe"));
+    }
+
+    @Benchmark
+    public byte[] mimeMessagePerRecipient() throws IOException, MessagingException {
+        Map<String, String> values = Collections.singletonMap("name", "Jane Doe");
+        MimeMessage mimeMessage = mailSender.createMimeMessage();
+        MimeMessageHelper message = new MimeMessageHelper(mimeMessage, true, "UTF-8");
+        message.setSubject("News for " + values.get("name"));
+        message.setFrom(FROM.getAddress(), FROM.getPersonal());
+        message.setTo(TO.getAddress());
+        message.setText(text.replace("${name}", values.get("name")), html.replace("${name}", values.get("name")));
+        if (withAttachment) {
+            message.addAttachment("invoice.pdf", new ByteArrayResource(attachment), "application/pdf");
+        }
+        return BenchmarkMessages.serialize(mimeMessage);
+    }
+
+    @Benchmark
+    public byte[] template() throws MessagingException {
+        return template.render(recipient);
+    }
+
+    private static String html() {
+        StringBuilder html = new StringBuilder("<html><body><h1>Hello ${name}</h1>");
+        for (int i = 0; i < 200; i++) {
+            html.append("<p>Paragraph ").append(i).append(" with <a href=\"https://example.com/").append(i).append("\">a link</a> and some text.</p>\n");
+        }
+        return html.append("<p>Bye ${name}</p></body></html>").toString();
+    }
+
+    private static String text() {
+        StringBuilder text = new StringBuilder("Hello ${name}\n\n");
+        for (int i = 0; i < 200; i++) {
+            text.append("Paragraph ").append(i).append(" with a link https://example.com/").append(i).append(" and some text.\n");
+        }
+        return text.append("Bye ${name}\n").toString();
+    }
+}
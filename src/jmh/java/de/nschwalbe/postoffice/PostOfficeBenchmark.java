@@ -0,0 +1,134 @@
+package de.nschwalbe.postoffice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+/**
+ * Creating and posting mails without a database, the storage only takes the serialized bytes.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostOfficeBenchmark {
+
+    @Param({"SMALL", "HTML", "MULTIPART"})
+    private BenchmarkMessages.Type type;
+
+    private PostOffice postOffice;
+    private SerializingMailStorage mailStorage;
+    private MimeMessage mimeMessage;
+
+    @Setup
+    public void setUp() throws MessagingException {
+        mailStorage = new SerializingMailStorage();
+        postOffice = new PostOffice(mailStorage, new JavaMailSenderImpl());
+        mimeMessage = BenchmarkMessages.create(type);
+    }
+
+    @Benchmark
+    public MimeMessage createMimeMessage() throws MessagingException {
+        return BenchmarkMessages.create(type);
+    }
+
+    @Benchmark
+    public int postMail() throws MessagingException {
+        postOffice.postMail(mimeMessage);
+        return mailStorage.lastSize;
+    }
+
+    @Benchmark
+    public int createAndPostMail() throws MessagingException {
+        postOffice.postMail(BenchmarkMessages.create(type));
+        return mailStorage.lastSize;
+    }
+
+    // serializes like a real storage but keeps nothing, so only the post office is measured
+    private static class SerializingMailStorage implements MailStorage {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int lastSize;
+
+        @Override
+        public PersistedMail create(byte[] mimeMessageContent) {
+            lastSize = mimeMessageContent.length;
+            return null;
+        }
+
+        @Override
+        public PersistedMail create(MimeMessageWriter writer, MailEnvelope envelope) throws IOException, MessagingException {
+            out.reset();
+            writer.writeTo(out);
+            lastSize = out.size();
+            return null;
+        }
+
+        @Override
+        public List<? extends PersistedMail> createAll(List<byte[]> mimeMessageContents) {
+            return Collections.emptyList();
+        }
+
+        @Deprecated
+        @Override
+        public List<String> findNotSentIds() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Deprecated
+        @Override
+        public PersistedMail findNotSentAndStartProgress(String mailId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<? extends PersistedMail> claimBatch(int maxSize, String owner, Duration lease) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void renewLeases(Collection<String> mailIds, String owner, Duration lease) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int releaseExpiredLeases() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void update(PersistedMail mail) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
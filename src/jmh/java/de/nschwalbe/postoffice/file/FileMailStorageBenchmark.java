@@ -0,0 +1,112 @@
+package de.nschwalbe.postoffice.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.mail.MessagingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.nschwalbe.postoffice.BenchmarkMessages;
+import de.nschwalbe.postoffice.MailProcessState;
+import de.nschwalbe.postoffice.PriorityShares;
+
+/**
+ * The same operations as {@code MongoMailStorageBenchmark} against the file journal, with every sync policy. Posting
+ * runs on four threads, so group commit can share syncs.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileMailStorageBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
+    @Param({"SMALL", "HTML"})
+    private BenchmarkMessages.Type type;
+
+    @Param({"GROUP", "INTERVAL", "NONE"})
+    private SyncPolicy sync;
+
+    private Path directory;
+    private FileMailStorage fileMailStorage;
+    private byte[] content;
+    private List<byte[]> batch;
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        content = BenchmarkMessages.serialize(BenchmarkMessages.create(type));
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(content);
+        }
+    }
+
+    // every iteration starts with an empty journal
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        directory = Files.createTempDirectory("postoffice-benchmark");
+        Journal journal = new Journal(directory, 64 * 1024 * 1024, sync, Duration.ofSeconds(1));
+        fileMailStorage = new FileMailStorage(journal, PriorityShares.defaults(), Duration.ofDays(3), Duration.ofDays(3), 0.5);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        fileMailStorage.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public FileMail create() {
+        return fileMailStorage.create(content);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<FileMail> createAll() {
+        return fileMailStorage.createAll(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int createClaimAndUpdate() {
+        fileMailStorage.createAll(batch);
+        List<FileMail> claimed = fileMailStorage.claimBatch(BATCH_SIZE, "benchmark", LEASE);
+        for (FileMail mail : claimed) {
+            mail.setState(MailProcessState.SENT);
+            fileMailStorage.update(mail);
+        }
+        return claimed.size();
+    }
+}
@@ -0,0 +1,117 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.convert.CustomConversions;
+import org.springframework.data.mongodb.core.convert.DbRefProxyHandler;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.DbRefResolverCallback;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+
+import de.nschwalbe.postoffice.BenchmarkMessages;
+import de.nschwalbe.postoffice.MailContentCodec;
+
+/**
+ * Mapping mail documents to mongo objects and back, as done for every insert and claim. No database is needed.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailDocumentBenchmark {
+
+    @Param({"SMALL", "HTML", "MULTIPART"})
+    private BenchmarkMessages.Type type;
+
+    @Param({"NONE", "DEFLATE"})
+    private MailContentCodec codec;
+
+    private MappingMongoConverter converter;
+    private MailDocument mailDocument;
+    private DBObject dbObject;
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        CustomConversions conversions = new CustomConversions(Collections.emptyList());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+
+        converter = new MappingMongoConverter(new NoDbRefResolver(), mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+
+        byte[] content = BenchmarkMessages.serialize(BenchmarkMessages.create(type));
+        mailDocument = new MailDocument(null, codec.encode(content), codec);
+        dbObject = write();
+    }
+
+    @Benchmark
+    public DBObject write() {
+        DBObject dbObject = new BasicDBObject();
+        converter.write(mailDocument, dbObject);
+        return dbObject;
+    }
+
+    @Benchmark
+    public MailDocument read() {
+        return converter.read(MailDocument.class, dbObject);
+    }
+
+    @Benchmark
+    public byte[] readAndDecode() {
+        return converter.read(MailDocument.class, dbObject).getMimeMessageContent();
+    }
+
+    // mail documents have no db refs, so the converter needs no database
+    private static class NoDbRefResolver implements DbRefResolver {
+
+        @Override
+        public Object resolveDbRef(MongoPersistentProperty property, DBRef dbref, DbRefResolverCallback callback, DbRefProxyHandler proxyHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DBRef createDbRef(org.springframework.data.mongodb.core.mapping.DBRef annotation, MongoPersistentEntity<?> entity, Object id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DBObject fetch(DBRef dbRef) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<DBObject> bulkFetch(List<DBRef> dbRefs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import de.nschwalbe.postoffice.BenchmarkMessages;
+import de.nschwalbe.postoffice.MailProcessState;
+
+/**
+ * Throughput of the mongo storage against an embedded mongodb: posting mails one by one and in bulk, and claiming
+ * mails and storing the outcome as a worker does.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MongoMailStorageBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
+    @Param({"SMALL", "HTML"})
+    private BenchmarkMessages.Type type;
+
+    @Param({"none", "deflate"})
+    private String compression;
+
+    private ConfigurableApplicationContext context;
+    private MongoMailStorage mongoMailStorage;
+    private MongoOperations mongoOperations;
+    private byte[] content;
+    private List<byte[]> batch;
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        context = new SpringApplicationBuilder(BenchmarkConfiguration.class)
+            .web(false)
+            .properties(
+                "spring.mail.host=localhost",
+                "postoffice.worker.mode=none",
+                "postoffice.mongodb.compression=" + compression)
+            .run();
+        mongoMailStorage = context.getBean(MongoMailStorage.class);
+        mongoOperations = context.getBean(MongoOperations.class);
+
+        content = BenchmarkMessages.serialize(BenchmarkMessages.create(type));
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(content);
+        }
+    }
+
+    // every iteration starts with an empty collection, claims would get slower with the mails left behind
+    @TearDown(Level.Iteration)
+    public void clear() {
+        mongoOperations.remove(new Query(), MailDocument.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MailDocument create() {
+        return mongoMailStorage.create(content);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<MailDocument> createAll() {
+        return mongoMailStorage.createAll(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int createClaimAndUpdate() {
+        mongoMailStorage.createAll(batch);
+        List<MailDocument> claimed = mongoMailStorage.claimBatch(BATCH_SIZE, "benchmark", LEASE);
+        for (MailDocument mailDocument : claimed) {
+            mailDocument.setState(MailProcessState.SENT);
+            mongoMailStorage.update(mailDocument);
+        }
+        return claimed.size();
+    }
+
+    // embedded mongodb and the post office, without a worker claiming mails on its own. Not scanning, the package
+    // holds the test configurations as well
+    @EnableAutoConfiguration
+    @Configuration
+    static class BenchmarkConfiguration {
+    }
+}
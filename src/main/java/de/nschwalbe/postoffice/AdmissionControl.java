@@ -0,0 +1,201 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Limits how many mails may wait to be sent. If the mail server is down the backlog would otherwise grow until the
+ * storage suffers. Once the backlog reaches the high watermark posting is held back until it dropped below the low
+ * watermark again.
+ * <p>
+ * The backlog is the number of mails to be sent or in progress as of the last count plus the mails admitted since.
+ * The mails are counted in the background once per refresh interval, so posting never waits for the storage. Mails
+ * sent in the meantime are only noticed with the next count.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class AdmissionControl implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControl.class);
+
+    private static final long RECHECK_MILLIS = 100;
+
+    /**
+     * Admits every mail.
+     */
+    static final AdmissionControl UNLIMITED = new AdmissionControl(null, Duration.ZERO, 0, 0, Mode.REJECT, Duration.ZERO);
+
+    enum Mode {
+
+        /**
+         * Posting waits until the backlog dropped below the low watermark, and is rejected if it does not in time.
+         */
+        BLOCK,
+
+        /**
+         * Posting is rejected right away.
+         */
+        REJECT,
+
+        /**
+         * Normal and low priority mails are rejected right away, high priority mails are still admitted.
+         */
+        SHED
+    }
+
+    private final MailStorage mailStorage;
+    private final Duration refreshInterval;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final Mode mode;
+    private final long blockTimeoutNanos;
+
+    private final AtomicLong admittedSinceRefresh = new AtomicLong();
+    private volatile long pending;
+    private volatile boolean overloaded;
+
+    private ScheduledExecutorService counter;
+
+    /**
+     * @param mailStorage counts the mails to be sent or in progress.
+     * @param refreshInterval how often the mails are counted, how fast a shrinking backlog is noticed.
+     * @param highWatermark number of pending mails from which posting is held back, 0 to admit every mail.
+     * @param lowWatermark number of pending mails below which posting is admitted again.
+     * @param mode what happens to mails posted while the backlog is too deep.
+     * @param blockTimeout how long posting waits with {@link Mode#BLOCK}.
+     */
+    AdmissionControl(MailStorage mailStorage, Duration refreshInterval, long highWatermark, long lowWatermark, Mode mode, Duration blockTimeout) {
+        if (highWatermark > 0 && (lowWatermark < 0 || lowWatermark > highWatermark)) {
+            throw new IllegalArgumentException("The low watermark must be between 0 and the high watermark.");
+        }
+        this.mailStorage = mailStorage;
+        this.refreshInterval = refreshInterval;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.mode = mode;
+        this.blockTimeoutNanos = blockTimeout.toNanos();
+    }
+
+    /**
+     * Admits mails to be posted and counts them to the backlog.
+     *
+     * @param mails the number of mails to be posted.
+     * @param priority the lane of the mails.
+     * @throws MailBacklogFullException if the mails are not admitted.
+     */
+    void admit(int mails, MailPriority priority) throws MailBacklogFullException {
+
+        if (highWatermark <= 0) {
+            return;
+        }
+
+        if (isOverloaded(mails) && !(mode == Mode.SHED && priority == MailPriority.HIGH)) {
+            if (mode != Mode.BLOCK) {
+                throw new MailBacklogFullException("Mail rejected because " + backlog() + " mails are waiting to be sent.");
+            }
+            awaitBacklogDrained(mails);
+        }
+        admittedSinceRefresh.addAndGet(mails);
+    }
+
+    private void awaitBacklogDrained(int mails) throws MailBacklogFullException {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        while (isOverloaded(mails)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new MailBacklogFullException("Mail rejected because " + backlog() + " mails are still waiting to be sent after "
+                    + TimeUnit.NANOSECONDS.toMillis(blockTimeoutNanos) + "ms.");
+            }
+            try {
+                Thread.sleep(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, RECHECK_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MailBacklogFullException("Interrupted while waiting for the backlog to drain.");
+            }
+        }
+    }
+
+    private boolean isOverloaded(int mails) {
+        long backlog = backlog();
+        if (!overloaded && backlog >= highWatermark) {
+            overloaded = true;
+            log.warn("{} mails are waiting to be sent, holding back new mails until less than {} are left.", backlog, lowWatermark);
+        }
+        else if (overloaded && backlog < lowWatermark) {
+            overloaded = false;
+            log.info("{} mails are waiting to be sent, admitting new mails again.", backlog);
+        }
+        // the mails may not take the backlog past the high watermark, unless there is nothing else to wait for
+        return overloaded || (backlog > 0 && backlog + mails > highWatermark);
+    }
+
+    /**
+     * @return the pending mails of the last count plus the mails admitted since.
+     */
+    long backlog() {
+        return pending + admittedSinceRefresh.get();
+    }
+
+    /**
+     * Counts the mails to be sent or in progress, called in the background once per refresh interval.
+     */
+    void refresh() {
+        long admitted = admittedSinceRefresh.get();
+        try {
+            pending = mailStorage.countPending();
+            // the mails admitted before the count are part of it
+            admittedSinceRefresh.addAndGet(-admitted);
+        } catch (RuntimeException e) {
+            log.warn("Could not count the mails waiting to be sent! Keeping the last count.", e);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (highWatermark <= 0 || counter != null) {
+            return;
+        }
+        long interval = Math.max(1, refreshInterval.toMillis());
+        counter = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("postoffice-admission-"));
+        counter.scheduleWithFixedDelay(this::refresh, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (counter != null) {
+            counter.shutdownNow();
+            counter = null;
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return counter != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    // count before anything is posted
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,92 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+
+/**
+ * Stops using a mail server after it failed several times in a row. After the open duration a single trial request
+ * is let through, if it succeeds the server is used again, otherwise the breaker opens for another round.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold number of failures in a row which open the breaker.
+     * @param openDuration how long an open breaker lets no request through.
+     */
+    CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return true if a request would be let through, without taking the trial of a half open breaker.
+     */
+    synchronized boolean isAvailable() {
+        return state == State.CLOSED || (state == State.OPEN && System.nanoTime() - openedAt >= openNanos);
+    }
+
+    /**
+     * @return true if the request may be made, its outcome has to be reported then.
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if this success closed the breaker again.
+     */
+    synchronized boolean onSuccess() {
+        boolean reclosed = state != State.CLOSED;
+        failures = 0;
+        state = State.CLOSED;
+        return reclosed;
+    }
+
+    /**
+     * Reports a request which says nothing about the server, a trial request may be made again right away.
+     */
+    synchronized void onCancel() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * @return true if this failure opened the breaker.
+     */
+    synchronized boolean onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,97 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the outcomes of sent mails and stores them with one {@link MailStorage#transitionAll(List, MailProcessState)}
+ * instead of one write per mail. The workers flush after every batch, when they run idle and whenever
+ * {@code maxSize} outcomes or outcomes older than {@code maxDelay} are pending.
+ * <p>
+ * Mails keep their lease until their outcome is stored. If the node dies before, the lease runs out and the mail is
+ * claimed again, so a mail sent shortly before a crash is sent at most once more. The same happens if the outcomes
+ * can not be stored.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class DeliveryResults {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryResults.class);
+
+    private final MailStorage mailStorage;
+    private final LeaseKeeper leaseKeeper;
+    private final PostOfficeMetrics metrics;
+    private final int maxSize;
+    private final long maxDelayNanos;
+
+    private List<PersistedMail> pending = new ArrayList<>();
+    private long oldestPending;
+
+    /**
+     * @param maxSize outcomes to collect before they are stored, 1 to store every outcome right away.
+     */
+    DeliveryResults(MailStorage mailStorage, LeaseKeeper leaseKeeper, PostOfficeMetrics metrics, int maxSize, Duration maxDelay) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1.");
+        }
+        this.mailStorage = mailStorage;
+        this.leaseKeeper = leaseKeeper;
+        this.metrics = metrics;
+        this.maxSize = maxSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    static DeliveryResults immediate(MailStorage mailStorage, LeaseKeeper leaseKeeper, PostOfficeMetrics metrics) {
+        return new DeliveryResults(mailStorage, leaseKeeper, metrics, 1, Duration.ZERO);
+    }
+
+    /**
+     * @param mail a mail in progress which was given its new state.
+     */
+    void add(PersistedMail mail) {
+        boolean due;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                oldestPending = System.nanoTime();
+            }
+            pending.add(mail);
+            due = pending.size() >= maxSize || System.nanoTime() - oldestPending >= maxDelayNanos;
+        }
+        if (due) {
+            flush();
+        }
+    }
+
+    /**
+     * Stores the pending outcomes.
+     */
+    void flush() {
+        List<PersistedMail> mails;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            mails = pending;
+            pending = new ArrayList<>();
+        }
+
+        long start = System.nanoTime();
+        try {
+            int stored = mailStorage.transitionAll(mails, MailProcessState.IN_PROGRESS);
+            if (stored < mails.size()) {
+                log.warn("{} of {} mails were not in progress any more, probably their lease expired. Their outcome is not stored.",
+                    mails.size() - stored, mails.size());
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not store the outcome of {} mails! They are sent again once their lease expired.", mails.size(), e);
+        } finally {
+            metrics.recordStorageUpdate(System.nanoTime() - start);
+            mails.forEach(leaseKeeper::release);
+        }
+    }
+}
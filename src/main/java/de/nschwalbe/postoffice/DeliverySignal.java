@@ -0,0 +1,42 @@
+package de.nschwalbe.postoffice;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Wakes up idle workers as soon as a mail is posted, so they do not have to wait for the next poll.
+ * <p>
+ * Workers of this application are woken up in-process. Storages can register a notifier to pass the signal on to
+ * workers on other nodes, which then call {@link #wakeUp()}. Polling stays as fallback if a signal is lost.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class DeliverySignal {
+
+    private final List<Runnable> workers = new CopyOnWriteArrayList<>();
+    private final List<Runnable> notifiers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Wakes up the workers of this node.
+     */
+    public void wakeUp() {
+        workers.forEach(Runnable::run);
+    }
+
+    /**
+     * Registers a notifier which passes the signal on to other nodes whenever a mail is posted on this node.
+     */
+    public void addNotifier(Runnable notifier) {
+        notifiers.add(notifier);
+    }
+
+    void addWorker(Runnable worker) {
+        workers.add(worker);
+    }
+
+    void mailPosted() {
+        wakeUp();
+        notifiers.forEach(Runnable::run);
+    }
+}
@@ -0,0 +1,189 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the mails sent to each recipient domain. Every domain gets a token bucket refilled at a fixed rate, a cap on
+ * the mails sent to it at the same time and its own backoff if it defers our mails. A throttling domain only holds
+ * up its own mails, all other domains keep their full throughput.
+ * <p>
+ * A domain which ran out of tokens is not claimed for until its bucket is full again, so the workers claim a
+ * bucket of its mails at once instead of one mail per token and giving back the rest every time. The workers wake
+ * up when the bucket is full, see {@link #untilRefilled()}.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class DomainThrottle {
+
+    // mails without a known domain share one bucket
+    private static final String UNKNOWN_DOMAIN = "";
+
+    private final double rate;
+    private final double capacity;
+    private final int maxConcurrency;
+
+    private final Map<String, Domain> domains = new ConcurrentHashMap<>();
+
+    /**
+     * @param rate mails per second per domain, the bucket holds one second of mails. 0 for no limit.
+     * @param maxConcurrency mails sent to one domain at the same time. 0 for no limit.
+     */
+    DomainThrottle(double rate, int maxConcurrency) {
+        this.rate = rate;
+        this.capacity = Math.max(1, rate);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    static DomainThrottle unlimited() {
+        return new DomainThrottle(0, 0);
+    }
+
+    /**
+     * Takes a token and a send slot of the domain.
+     *
+     * @return false if the domain may not be sent to right now.
+     */
+    boolean tryAcquire(String domain) {
+        long now = System.nanoTime();
+        boolean[] acquired = new boolean[1];
+        domains.compute(key(domain), (key, state) -> {
+            Domain d = state != null ? state : new Domain(now);
+            acquired[0] = d.tryAcquire(now);
+            return d;
+        });
+        return acquired[0];
+    }
+
+    /**
+     * Gives the send slot back and backs off if the domain deferred the mail.
+     *
+     * @param result null if the delivery broke off with an unexpected error.
+     */
+    void release(String domain, MailDelivery.Result result) {
+        long now = System.nanoTime();
+        domains.computeIfPresent(key(domain), (key, d) -> {
+            d.release(now, result);
+            return d;
+        });
+    }
+
+    /**
+     * @return the domains which may not be sent to right now, null stands for mails without a known domain.
+     */
+    Set<String> getBlockedDomains() {
+        if (domains.isEmpty()) {
+            return Collections.emptySet();
+        }
+        long now = System.nanoTime();
+        Set<String> blocked = new HashSet<>();
+        for (String key : domains.keySet()) {
+            domains.computeIfPresent(key, (k, d) -> {
+                if (d.isBlocked(now)) {
+                    blocked.add(UNKNOWN_DOMAIN.equals(k) ? null : k);
+                }
+                // forget domains which are back to normal, there might be many of them over time
+                return d.isIdle() ? null : d;
+            });
+        }
+        return blocked;
+    }
+
+    /**
+     * @return how long until the first domain held back by its rate may be sent to again, null if none is. Rounded up
+     * to full milliseconds, waiting that long never wakes up before the bucket is full.
+     */
+    Duration untilRefilled() {
+        if (rate <= 0 || domains.isEmpty()) {
+            return null;
+        }
+        long now = System.nanoTime();
+        long[] earliest = {Long.MAX_VALUE};
+        for (String key : domains.keySet()) {
+            domains.computeIfPresent(key, (k, d) -> {
+                earliest[0] = Math.min(earliest[0], d.nanosUntilRefilled(now));
+                return d;
+            });
+        }
+        return earliest[0] != Long.MAX_VALUE ? Duration.ofMillis(TimeUnit.NANOSECONDS.toMillis(earliest[0] + 999_999)) : null;
+    }
+
+    private static String key(String domain) {
+        return domain != null ? domain : UNKNOWN_DOMAIN;
+    }
+
+    // only used within compute, which locks the entry
+    private class Domain {
+
+        private double tokens;
+        private long lastRefill;
+        private int sending;
+        // ran out of tokens, blocked until the bucket is full again
+        private boolean drained;
+        private int backoffSeconds;
+        private long backoffUntil;
+
+        Domain(long now) {
+            this.tokens = capacity;
+            this.lastRefill = now;
+        }
+
+        boolean tryAcquire(long now) {
+            if (isBlocked(now)) {
+                return false;
+            }
+            if (rate > 0) {
+                tokens -= 1;
+                drained = tokens < 1;
+            }
+            sending++;
+            return true;
+        }
+
+        void release(long now, MailDelivery.Result result) {
+            sending = Math.max(0, sending - 1);
+            if (result == MailDelivery.Result.SENT) {
+                backoffSeconds = 0;
+            }
+            else if (result == MailDelivery.Result.DOMAIN_UNAVAILABLE) {
+                // wait 30s, then 60s, then 90s ... but at most 5 minutes, like the workers
+                backoffSeconds = Math.min(backoffSeconds + 30, 300);
+                backoffUntil = now + TimeUnit.SECONDS.toNanos(backoffSeconds);
+            }
+        }
+
+        boolean isBlocked(long now) {
+            refill(now);
+            return backoffUntil - now > 0
+                || (maxConcurrency > 0 && sending >= maxConcurrency)
+                || (rate > 0 && tokens < (drained ? capacity : 1));
+        }
+
+        // only domains waiting for nothing but tokens, backoffs and send slots end without a refill
+        long nanosUntilRefilled(long now) {
+            refill(now);
+            if (!drained || backoffUntil - now > 0 || (maxConcurrency > 0 && sending >= maxConcurrency)) {
+                return Long.MAX_VALUE;
+            }
+            return (long) Math.ceil((capacity - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+        boolean isIdle() {
+            return sending == 0 && backoffSeconds == 0 && (rate <= 0 || tokens >= capacity);
+        }
+
+        private void refill(long now) {
+            if (rate > 0) {
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+                lastRefill = now;
+                drained &= tokens < capacity;
+            }
+        }
+    }
+}
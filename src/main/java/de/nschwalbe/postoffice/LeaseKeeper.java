@@ -0,0 +1,126 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Claims mails for this node with a lease and keeps the leases alive while the mails are sent. A heartbeat renews the
+ * leases of all mails still held and hands back mails whose lease ran out, e.g. because their node died mid-send.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class LeaseKeeper implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaseKeeper.class);
+
+    private final MailStorage mailStorage;
+    private final String nodeId;
+    private final Duration lease;
+    private final PostOfficeMetrics metrics;
+
+    private final Set<String> heldMailIds = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService heartbeat;
+
+    LeaseKeeper(MailStorage mailStorage, String nodeId, Duration lease) {
+        this(mailStorage, nodeId, lease, PostOfficeMetrics.NOOP);
+    }
+
+    LeaseKeeper(MailStorage mailStorage, String nodeId, Duration lease, PostOfficeMetrics metrics) {
+        this.mailStorage = mailStorage;
+        this.nodeId = nodeId;
+        this.lease = lease;
+        this.metrics = metrics;
+    }
+
+    List<? extends PersistedMail> claim(int maxSize, Collection<String> excludedDomains) {
+        long start = System.nanoTime();
+        List<? extends PersistedMail> mails = excludedDomains.isEmpty()
+            ? mailStorage.claimBatch(maxSize, nodeId, lease)
+            : mailStorage.claimBatch(maxSize, nodeId, lease, excludedDomains);
+        metrics.recordClaim(System.nanoTime() - start, mails.size());
+        mails.forEach(mail -> heldMailIds.add(mail.getId()));
+        return mails;
+    }
+
+    /**
+     * Stops renewing the lease of a mail, called as soon as the mail left the in progress state.
+     */
+    void release(PersistedMail mail) {
+        heldMailIds.remove(mail.getId());
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (heartbeat != null) {
+            return;
+        }
+        long interval = Math.max(1, lease.getSeconds() / 3);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("postoffice-lease-"));
+        heartbeat.scheduleWithFixedDelay(this::beat, interval, interval, TimeUnit.SECONDS);
+        log.info("Claiming mails as node {} with a lease of {} seconds.", nodeId, lease.getSeconds());
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return heartbeat != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    // stop after the workers, they might still hold mails
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 1;
+    }
+
+    private void beat() {
+        try {
+            List<String> mailIds = new ArrayList<>(heldMailIds);
+            if (!mailIds.isEmpty()) {
+                mailStorage.renewLeases(mailIds, nodeId, lease);
+            }
+
+            int released = mailStorage.releaseExpiredLeases();
+            if (released > 0) {
+                log.warn("Handed back {} mails whose lease expired.", released);
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not renew mail leases!", e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package de.nschwalbe.postoffice;
+
+import javax.mail.MessagingException;
+
+/**
+ * Thrown if a mail is not posted because too many mails are waiting to be sent, usually because the mail server is
+ * not reachable. The mail is not stored and may be posted again later.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MailBacklogFullException extends MessagingException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MailBacklogFullException(String message) {
+        super(message);
+    }
+}
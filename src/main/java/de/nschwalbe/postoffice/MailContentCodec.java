@@ -0,0 +1,69 @@
+package de.nschwalbe.postoffice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodings a storage can apply to the mime message content. Storages keep the codec next to the content, so content
+ * stored with another codec stays readable.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public enum MailContentCodec {
+
+    NONE,
+
+    /**
+     * zlib deflate of the jdk. Text and html compress very well, base64 encoded attachments still shrink by about a quarter.
+     */
+    DEFLATE;
+
+    public byte[] encode(byte[] content) {
+        return this == DEFLATE ? deflate(content) : content;
+    }
+
+    public byte[] decode(byte[] encoded) {
+        return this == DEFLATE ? inflate(encoded) : encoded;
+    }
+
+    /**
+     * @param codec the codec stored with the content, may be null for content stored before codecs existed.
+     */
+    public static MailContentCodec orNone(MailContentCodec codec) {
+        return codec != null ? codec : NONE;
+    }
+
+    private static byte[] deflate(byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 8192)) {
+            deflaterOut.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] encoded) {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(encoded))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length * 3);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt deflate content", e);
+        }
+    }
+}
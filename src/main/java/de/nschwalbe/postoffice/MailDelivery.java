@@ -0,0 +1,262 @@
+package de.nschwalbe.postoffice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+/**
+ * Sends a single claimed mail and stores the outcome, right away or together with others, see {@link DeliveryResults}.
+ * Shared by the sequential and the parallel worker.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class MailDelivery {
+
+    private static final Logger log = LoggerFactory.getLogger(MailDelivery.class);
+
+    enum Result {
+        SENT,
+        FAILED,
+        /** The mail server can not be used at the moment, the mail is retried later unless it ran out of attempts. */
+        SERVER_UNAVAILABLE,
+        /** The server deferred the mail because of its recipients, the domain backs off and the mail is retried like above. */
+        DOMAIN_UNAVAILABLE,
+        /** The recipient domain may not be sent to right now, the mail was given back without trying. */
+        THROTTLED
+    }
+
+    private final JavaMailSender javaMailSender;
+    private final MailTransport transport;
+    private final DomainThrottle domainThrottle;
+    private final RetryPolicy retryPolicy;
+    private final PostOfficeMetrics metrics;
+    private final DeliveryResults results;
+
+    // stored mails are sent without parsing them if the mail sender has a session, see RawMimeMessage
+    private final Session rawSession;
+
+    MailDelivery(MailStorage mailStorage, LeaseKeeper leaseKeeper, JavaMailSender javaMailSender) {
+        this(mailStorage, leaseKeeper, javaMailSender, DomainThrottle.unlimited(), RetryPolicy.defaults(), PostOfficeMetrics.NOOP);
+    }
+
+    /**
+     * Sends every mail over a new connection by the java mail sender and stores each outcome right away.
+     *
+     * @param domainThrottle limits the mails sent to each recipient domain.
+     * @param retryPolicy when to try mails again whose sending failed.
+     */
+    MailDelivery(MailStorage mailStorage, LeaseKeeper leaseKeeper, JavaMailSender javaMailSender,
+                 DomainThrottle domainThrottle, RetryPolicy retryPolicy, PostOfficeMetrics metrics) {
+        this(DeliveryResults.immediate(mailStorage, leaseKeeper, metrics), javaMailSender, MailTransport.of(javaMailSender),
+            domainThrottle, retryPolicy, metrics);
+    }
+
+    /**
+     * @param results stores the outcomes of the mails in the storage.
+     * @param javaMailSender creates the messages.
+     * @param transport sends the messages, see {@link SmtpConnectionPool} and {@link SmtpRelays}.
+     */
+    MailDelivery(DeliveryResults results, JavaMailSender javaMailSender, MailTransport transport,
+                 DomainThrottle domainThrottle, RetryPolicy retryPolicy, PostOfficeMetrics metrics) {
+        this.javaMailSender = javaMailSender;
+        this.transport = transport;
+        this.domainThrottle = domainThrottle;
+        this.retryPolicy = retryPolicy;
+        this.metrics = metrics;
+        this.results = results;
+        Session session = javaMailSender instanceof JavaMailSenderImpl ? ((JavaMailSenderImpl) javaMailSender).getSession() : null;
+        this.rawSession = session != null && RawMimeMessage.isSupported(session) ? session : null;
+    }
+
+    Result deliver(PersistedMail mail) {
+
+        String domain = mail.getRecipientDomain();
+        if (!domainThrottle.tryAcquire(domain)) {
+            giveBack(mail);
+            return Result.THROTTLED;
+        }
+
+        Result result = null;
+        try {
+            result = attempt(mail);
+            return result;
+        } finally {
+            // an unexpected error must not keep the send slot of the domain
+            domainThrottle.release(domain, result);
+        }
+    }
+
+    /**
+     * @return the recipient domains not to claim mails for right now, see {@link MailStorage#claimBatch(int, String, Duration, Collection)}.
+     */
+    Set<String> getBlockedDomains() {
+        return domainThrottle.getBlockedDomains();
+    }
+
+    /**
+     * @return how long until mails held back by the rate of their domain may be sent, null if there are none.
+     */
+    Duration untilThrottledDomainsOpen() {
+        return domainThrottle.untilRefilled();
+    }
+
+    private Result attempt(PersistedMail mail) {
+
+        try {
+            sendStored(mail);
+            updateMail(mail, MailProcessState.SENT, null);
+            if (mail.getCreatedDate() != null) {
+                metrics.recordDeliveryLatency(Duration.between(mail.getCreatedDate(), LocalDateTime.now()));
+            }
+            return Result.SENT;
+
+        } catch (IOException | MessagingException e) {
+            metrics.countSendError(PostOfficeMetrics.SendError.UNREADABLE_CONTENT);
+            log.error("Could not create MimeMessage from blob. Email could not be sent!", e);
+            updateMail(mail, MailProcessState.FAILED, e.getMessage());
+            return Result.FAILED;
+
+        } catch (MailAuthenticationException e) {
+            // not the fault of the mail, so it does not count as an attempt
+            metrics.countSendError(PostOfficeMetrics.SendError.AUTHENTICATION);
+            log.error("Could not send mail because of incorrect credentials. __Fix email configuration!__ Trying to send this email again later.", e);
+            updateMail(mail, MailProcessState.NOT_SENT, e.getMessage());
+            return Result.SERVER_UNAVAILABLE;
+
+        } catch (MailSendException e) {
+            if (isRejected(e) && isPermanent(e)) {
+                // the domain itself is fine, only this mail is refused
+                metrics.countSendError(PostOfficeMetrics.SendError.REJECTED);
+                log.error("Mail server rejected mail {} for good! Email is thrown away.", mail.getId(), e);
+                updateMail(mail, MailProcessState.FAILED, e.getMessage());
+                return Result.FAILED;
+            }
+            if (isRejected(e)) {
+                metrics.countSendError(PostOfficeMetrics.SendError.REJECTED);
+                log.warn("Mail server deferred mail to {}! Trying this domain again later.", mail.getRecipientDomain(), e);
+                retryLater(mail, e.getMessage());
+                return Result.DOMAIN_UNAVAILABLE;
+            }
+            metrics.countSendError(PostOfficeMetrics.SendError.CONNECTION);
+            log.error("Could not send mail because of a network error! Trying again later.", e);
+            retryLater(mail, e.getMessage());
+            return Result.SERVER_UNAVAILABLE;
+
+        } catch (MailException e) {
+            metrics.countSendError(PostOfficeMetrics.SendError.OTHER);
+            log.error("Email cannot be send and is thrown away!", e);
+            updateMail(mail, MailProcessState.FAILED, e.getMessage());
+            return Result.FAILED;
+        }
+    }
+
+    /**
+     * Hands a claimed mail back without trying to send it.
+     */
+    void giveBack(PersistedMail mail) {
+        updateMail(mail, MailProcessState.NOT_SENT, null);
+    }
+
+    /**
+     * Hands back a mail whose delivery broke off with an unexpected error. A mail which already got its outcome keeps
+     * it, the outcome is stored with the others.
+     */
+    void giveBackUnfinished(PersistedMail mail) {
+        if (mail.getState() == MailProcessState.IN_PROGRESS) {
+            giveBack(mail);
+        }
+    }
+
+    /**
+     * Stores the outcomes of the mails delivered so far, called after every batch and before the worker goes idle.
+     */
+    void flushResults() {
+        results.flush();
+    }
+
+    /**
+     * Closes pooled smtp connections which were not used for a while.
+     */
+    void closeIdleConnections() {
+        transport.closeIdle();
+    }
+
+    void close() {
+        transport.close();
+    }
+
+    // the server answered but refused the message or its recipients, as opposed to not being reachable at all
+    static boolean isRejected(MailSendException e) {
+        return sendFailures(e).anyMatch(failure -> !SmtpReplies.isConnectionLost(failure));
+    }
+
+    // refused with a 5xx reply and no 4xx reply, sending the mail again would not help
+    private static boolean isPermanent(MailSendException e) {
+        return sendFailures(e).anyMatch(SmtpReplies::isPermanent);
+    }
+
+    private static Stream<SendFailedException> sendFailures(MailSendException e) {
+        return Stream.concat(Stream.of(e.getCause()), e.getFailedMessages().values().stream())
+            .filter(SendFailedException.class::isInstance)
+            .map(SendFailedException.class::cast);
+    }
+
+    private void sendStored(PersistedMail mail) throws IOException, MessagingException {
+        if (rawSession != null) {
+            send(new RawMimeMessage(rawSession, mail));
+            return;
+        }
+        // closed only after sending, the message might still read its content from the stream
+        try (InputStream in = mail.openMimeMessageContent()) {
+            send(javaMailSender.createMimeMessage(in));
+        }
+    }
+
+    private void send(MimeMessage mimeMessage) {
+        long start = System.nanoTime();
+        boolean sent = false;
+        try {
+            transport.send(mimeMessage);
+            sent = true;
+        } finally {
+            metrics.recordSend(System.nanoTime() - start, sent);
+        }
+    }
+
+    // the worker is told about the server or domain problem in any case, only the mail is failed once it ran out of attempts
+    private void retryLater(PersistedMail mail, String message) {
+        int attempts = mail.getAttempts() + 1;
+        if (retryPolicy.isExhausted(attempts)) {
+            log.error("Mail {} could not be sent in {} attempts and is thrown away!", mail.getId(), attempts);
+            mail.recordFailedAttempt(null);
+            updateMail(mail, MailProcessState.FAILED, message);
+            return;
+        }
+        mail.recordFailedAttempt(LocalDateTime.now().plus(retryPolicy.delay(attempts)));
+        updateMail(mail, MailProcessState.NOT_SENT, message);
+    }
+
+    private void updateMail(PersistedMail mail, MailProcessState state, String message) {
+        mail.setState(state);
+        mail.setErrorMessage(message);
+        results.add(mail);
+    }
+}
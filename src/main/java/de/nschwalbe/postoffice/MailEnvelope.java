@@ -0,0 +1,112 @@
+package de.nschwalbe.postoffice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Routing information about a mail which is extracted when the mail is posted and stored next to it, so the workers
+ * can schedule and send mails without parsing them.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MailEnvelope {
+
+    /**
+     * Envelope of mails whose recipients are not known, e.g. mails stored as bytes.
+     */
+    public static final MailEnvelope UNKNOWN = new MailEnvelope(null, MailPriority.NORMAL, null, null);
+
+    private final String recipientDomain;
+    private final MailPriority priority;
+    private final String sender;
+    private final List<String> recipients;
+
+    private MailEnvelope(String recipientDomain, MailPriority priority, String sender, List<String> recipients) {
+        this.recipientDomain = recipientDomain;
+        this.priority = priority;
+        this.sender = sender;
+        this.recipients = recipients;
+    }
+
+    public static MailEnvelope of(String recipientDomain) {
+        return recipientDomain != null ? new MailEnvelope(recipientDomain.toLowerCase(Locale.ROOT), MailPriority.NORMAL, null, null) : UNKNOWN;
+    }
+
+    /**
+     * Uses the domain of the first recipient, mails to several domains are scheduled by that one.
+     *
+     * @param sender the address of the sender, null if not known.
+     * @param recipients the addresses of all recipients.
+     */
+    public static MailEnvelope of(String sender, List<String> recipients) {
+        String recipientDomain = null;
+        for (String address : recipients) {
+            int at = address != null ? address.lastIndexOf('@') : -1;
+            if (at >= 0 && at < address.length() - 1) {
+                recipientDomain = address.substring(at + 1).toLowerCase(Locale.ROOT);
+                break;
+            }
+        }
+        return new MailEnvelope(recipientDomain, MailPriority.NORMAL, sender, Collections.unmodifiableList(new ArrayList<>(recipients)));
+    }
+
+    /**
+     * Takes the sender and the recipients the mail server would be given by java mail: the first from address and all
+     * to, cc and bcc addresses.
+     */
+    public static MailEnvelope of(MimeMessage mimeMessage) throws MessagingException {
+        Address[] recipients = mimeMessage.getAllRecipients();
+        if (recipients == null) {
+            return UNKNOWN;
+        }
+        List<String> addresses = new ArrayList<>(recipients.length);
+        for (Address recipient : recipients) {
+            if (recipient instanceof InternetAddress && ((InternetAddress) recipient).getAddress() != null) {
+                addresses.add(((InternetAddress) recipient).getAddress());
+            }
+        }
+        Address[] from = mimeMessage.getFrom();
+        String sender = from != null && from.length > 0 && from[0] instanceof InternetAddress ? ((InternetAddress) from[0]).getAddress() : null;
+        MailEnvelope envelope = of(sender, addresses);
+        // other kinds of recipients are left to java mail, which reads them from the headers when sending
+        return addresses.size() == recipients.length ? envelope : of(envelope.getRecipientDomain());
+    }
+
+    public MailEnvelope withPriority(MailPriority priority) {
+        return new MailEnvelope(recipientDomain, Objects.requireNonNull(priority), sender, recipients);
+    }
+
+    /**
+     * @return the lower case domain of the recipient, null if not known.
+     */
+    public String getRecipientDomain() {
+        return recipientDomain;
+    }
+
+    public MailPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the address given to the mail server as sender, null if not known.
+     */
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * @return the addresses given to the mail server as recipients, null if not known.
+     */
+    public List<String> getRecipients() {
+        return recipients;
+    }
+}
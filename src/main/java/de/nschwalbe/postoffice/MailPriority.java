@@ -0,0 +1,19 @@
+package de.nschwalbe.postoffice;
+
+/**
+ * Lanes mails are claimed from. Each lane gets a share of every claimed batch, see {@link PriorityShares}, so
+ * transactional mails are sent right away even while a large newsletter is queued.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public enum MailPriority {
+
+    /** Mails a user is waiting for, like one time passwords or password resets. */
+    HIGH,
+
+    NORMAL,
+
+    /** Bulk mails like newsletters. */
+    LOW
+}
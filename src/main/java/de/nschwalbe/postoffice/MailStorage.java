@@ -1,6 +1,15 @@
 package de.nschwalbe.postoffice;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
 
 /**
  * Persists a mail to be send by a scheduled task.
@@ -12,11 +21,170 @@ public interface MailStorage {
 
     PersistedMail create(byte[] mimeMessageContent);
 
+    /**
+     * Stores a mail by streaming the mime message into the storage. Storages which can keep large messages outside
+     * the heap should override this, the default collects the message in memory and calls {@link #create(byte[])}.
+     *
+     * @param writer writes the serialized mime message.
+     * @return the persisted mail.
+     * @throws IOException if the message could not be written.
+     * @throws MessagingException if the message could not be serialized.
+     */
+    default PersistedMail create(MimeMessageWriter writer) throws IOException, MessagingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return create(out.toByteArray());
+    }
+
+    /**
+     * Stores a mail together with its envelope, so workers can schedule it without parsing it. The default ignores
+     * the envelope, mails of such storages are all scheduled as if they had no recipient domain.
+     */
+    default PersistedMail create(MimeMessageWriter writer, MailEnvelope envelope) throws IOException, MessagingException {
+        return create(writer);
+    }
+
+    /**
+     * Stores many mails at once with as few round trips as possible. The default stores them one by one.
+     *
+     * @param mimeMessageContents the serialized mime messages.
+     * @return the persisted mails in the same order.
+     */
+    default List<? extends PersistedMail> createAll(List<byte[]> mimeMessageContents) {
+        List<PersistedMail> mails = new ArrayList<>(mimeMessageContents.size());
+        for (byte[] mimeMessageContent : mimeMessageContents) {
+            mails.add(create(mimeMessageContent));
+        }
+        return mails;
+    }
+
+    /**
+     * Like {@link #createAll(List)}, with the envelope of each mail. The default ignores the envelopes.
+     *
+     * @param envelopes the envelopes in the same order as the contents.
+     */
+    default List<? extends PersistedMail> createAll(List<byte[]> mimeMessageContents, List<MailEnvelope> envelopes) {
+        return createAll(mimeMessageContents);
+    }
+
+    /**
+     * @deprecated loads every unsent id at once, use {@link #claimBatch(int, String, Duration)} instead.
+     */
+    @Deprecated
     List<String> findNotSentIds();
 
+    /**
+     * @deprecated claims a single mail per call without a lease, use {@link #claimBatch(int, String, Duration)} instead.
+     */
+    @Deprecated
     PersistedMail findNotSentAndStartProgress(String mailId);
 
+    /**
+     * Atomically moves up to {@code maxSize} of the oldest not sent mails to {@link MailProcessState#IN_PROGRESS}.
+     * Mails claimed by a concurrent worker are never returned twice.
+     * <p>
+     * The default claims the mails one by one with {@link #findNotSentAndStartProgress(String)}, without an owner or
+     * a lease. Mails of a crashed node are then never released.
+     *
+     * @param maxSize the maximum number of mails to claim.
+     * @param owner the id of the claiming node.
+     * @param lease how long the mails belong to the owner unless the lease is renewed.
+     * @return the claimed mails, oldest first. Empty if there is nothing to send.
+     */
+    @SuppressWarnings("deprecation")
+    default List<? extends PersistedMail> claimBatch(int maxSize, String owner, Duration lease) {
+        List<PersistedMail> mails = new ArrayList<>();
+        for (String mailId : findNotSentIds()) {
+            if (mails.size() >= maxSize) {
+                break;
+            }
+            PersistedMail mail = findNotSentAndStartProgress(mailId);
+            if (mail != null) {
+                mails.add(mail);
+            }
+        }
+        return mails;
+    }
+
+    /**
+     * Like {@link #claimBatch(int, String, Duration)}, but skips mails to domains which are throttled at the moment.
+     * The default does not skip any mail, mails to throttled domains are then given back by the workers.
+     *
+     * @param excludedDomains recipient domains not to claim mails for, null for mails without a known domain.
+     */
+    default List<? extends PersistedMail> claimBatch(int maxSize, String owner, Duration lease, Collection<String> excludedDomains) {
+        return claimBatch(maxSize, owner, lease);
+    }
+
+    /**
+     * Extends the lease of mails which are still in progress and held by the owner. The default does nothing, for
+     * storages without leases.
+     */
+    default void renewLeases(Collection<String> mailIds, String owner, Duration lease) {
+    }
+
+    /**
+     * Moves all mails in progress whose lease has expired back to {@link MailProcessState#NOT_SENT}.
+     * The default releases nothing, for storages without leases.
+     *
+     * @return the number of released mails.
+     */
+    default int releaseExpiredLeases() {
+        return 0;
+    }
+
+    /**
+     * Counts the mails in each state, for monitoring. Called at most once per refresh interval of the
+     * {@link QueueDepth}. The default counts nothing.
+     */
+    default Map<MailProcessState, Long> countByState() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Counts the mails to be sent or in progress, for the {@link AdmissionControl}. Called in the background once per
+     * refresh interval. The default counts every state, storages which can count the waiting mails alone should.
+     */
+    default long countPending() {
+        Map<MailProcessState, Long> counts = countByState();
+        return counts.getOrDefault(MailProcessState.NOT_SENT, 0L) + counts.getOrDefault(MailProcessState.IN_PROGRESS, 0L);
+    }
+
     void delete(String id);
 
     void update(PersistedMail mail);
+
+    /**
+     * Moves a claimed mail on to the state it was given. Only the state, the error message and the retry schedule are
+     * written, never the content. Nothing is written if the mail is not in the expected state any more, e.g. because
+     * its lease expired and another node claimed it meanwhile.
+     * <p>
+     * The default stores the mail with {@link #update(PersistedMail)}, without checking the state.
+     *
+     * @param mail the mail with its new state.
+     * @param expected the state of the mail in the storage, usually {@link MailProcessState#IN_PROGRESS}.
+     * @return false if the mail was not in the expected state and is left as it is.
+     */
+    default boolean transition(PersistedMail mail, MailProcessState expected) {
+        update(mail);
+        return true;
+    }
+
+    /**
+     * Like {@link #transition(PersistedMail, MailProcessState)} for many mails at once, with as few round trips as
+     * possible. The mails are independent, one not in the expected state does not keep the others from moving on.
+     * <p>
+     * The default moves them one by one.
+     *
+     * @return the number of mails which were in the expected state and moved on.
+     */
+    default int transitionAll(List<? extends PersistedMail> mails, MailProcessState expected) {
+        int moved = 0;
+        for (PersistedMail mail : mails) {
+            if (transition(mail, expected)) {
+                moved++;
+            }
+        }
+        return moved;
+    }
 }
@@ -0,0 +1,395 @@
+package de.nschwalbe.postoffice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.ContentDisposition;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeUtility;
+
+/**
+ * A mail which is prepared once and rendered for many recipients, see
+ * {@link PostOffice#compileTemplate(String, MailAddress, String, String, Part...)}.
+ * <p>
+ * Subject, html and text may contain placeholders like {@code ${name}} which are replaced by the values of each
+ * recipient, values are html escaped in the html body. Everything else, the multipart structure, the quoted-printable
+ * encoded bodies between the placeholders and the base64 encoded inline images and attachments, is encoded when the
+ * template is compiled. Rendering a mail only encodes its headers and values and copies the prepared bytes.
+ * <p>
+ * Every piece of a body ends with a soft line break, so the prepared pieces do not depend on the length of the values
+ * before them. Templates are immutable and can be rendered by many threads at once.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MailTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)}");
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] SOFT_LINE_BREAK = {'=', '\r', '\n'};
+    private static final int MAX_LINE_LENGTH = 76;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String subject;
+    private final String from;
+    private final String fromAddress;
+    private final String messageIdDomain;
+    private final List<Object> body = new ArrayList<>();
+    private int bodySize;
+
+    MailTemplate(String subject, MailAddress from, String html, String text, List<Part> parts) throws MessagingException {
+        if (html == null && text == null) {
+            throw new IllegalArgumentException("A template needs a html or a text body.");
+        }
+        this.subject = Objects.requireNonNull(subject);
+        this.fromAddress = from.getAddress();
+        this.messageIdDomain = fromAddress.substring(fromAddress.lastIndexOf('@') + 1);
+        try {
+            this.from = MimeUtility.fold(6, new InternetAddress(from.getAddress(), from.getPersonal(), "UTF-8").toString());
+        } catch (UnsupportedEncodingException e) {
+            throw new MessagingException("Error creating From-Address", e);
+        }
+
+        List<Part> inlines = new ArrayList<>();
+        List<Part> attachments = new ArrayList<>();
+        parts.forEach(part -> (part.contentId != null ? inlines : attachments).add(part));
+
+        Compiler compiler = new Compiler();
+        compiler.ascii("MIME-Version: 1.0\r\n");
+        String boundary = "=_Part_" + UUID.randomUUID().toString().replace("-", "");
+        compiler.mixed(html, text, inlines, attachments, boundary);
+        compiler.finish();
+    }
+
+    /**
+     * Every rendered mail gets a Message-ID of its own, stored mails are sent without saving them again.
+     *
+     * @return the serialized mime message for the recipient.
+     * @throws IllegalArgumentException if a placeholder has no value.
+     */
+    byte[] render(Recipient recipient) throws MessagingException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bodySize + 512);
+        header(out, "Date", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now()));
+        header(out, "Message-ID", "<" + UUID.randomUUID() + "@" + messageIdDomain + ">");
+        header(out, "From", from);
+        try {
+            MailAddress to = recipient.address;
+            header(out, "To", MimeUtility.fold(4, new InternetAddress(to.getAddress(), to.getPersonal(), "UTF-8").toString()));
+            header(out, "Subject", MimeUtility.fold(9, MimeUtility.encodeText(substitute(subject, recipient.values), "UTF-8", null)));
+        } catch (UnsupportedEncodingException e) {
+            throw new MessagingException("Error encoding mail headers", e);
+        }
+
+        for (Object piece : body) {
+            if (piece instanceof byte[]) {
+                byte[] bytes = (byte[]) piece;
+                out.write(bytes, 0, bytes.length);
+            }
+            else {
+                Placeholder placeholder = (Placeholder) piece;
+                String value = value(recipient.values, placeholder.name);
+                byte[] encoded = quotedPrintable(placeholder.html ? escapeHtml(value) : value);
+                out.write(encoded, 0, encoded.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the envelope of the rendered mail.
+     */
+    MailEnvelope envelope(Recipient recipient) {
+        return MailEnvelope.of(fromAddress, Collections.singletonList(recipient.address.getAddress()));
+    }
+
+    private static void header(ByteArrayOutputStream out, String name, String value) {
+        byte[] line = (name + ": " + value + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        out.write(line, 0, line.length);
+    }
+
+    private static String substitute(String template, Map<String, String> values) {
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        StringBuffer result = new StringBuffer(template.length() + 64);
+        while (matcher.find()) {
+            matcher.appendReplacement(result, Matcher.quoteReplacement(value(values, matcher.group(1))));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static String value(Map<String, String> values, String name) {
+        String value = values.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("No value for placeholder " + name + "!");
+        }
+        return value;
+    }
+
+    private static String escapeHtml(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': escaped.append("&amp;"); break;
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '"': escaped.append("&quot;"); break;
+                case '\'': escaped.append("&#39;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Encodes the text as UTF-8 quoted-printable starting at the beginning of a line. Line breaks become CRLF, a text
+     * not ending with a line break ends with a soft line break, so whatever follows starts on a new line as well.
+     */
+    static byte[] quotedPrintable(String text) {
+
+        byte[] bytes = text.replace("\r\n", "\n").replace('\r', '\n').getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + bytes.length / 8 + 8);
+        int column = 0;
+
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b == '\n') {
+                out.write(CRLF, 0, 2);
+                column = 0;
+                continue;
+            }
+
+            // white space at the end of a line would be lost
+            boolean literal = b >= 33 && b <= 126 && b != '='
+                || (b == ' ' || b == '\t') && i + 1 < bytes.length && bytes[i + 1] != '\n';
+            int length = literal ? 1 : 3;
+            if (column + length > MAX_LINE_LENGTH - 1) {
+                out.write(SOFT_LINE_BREAK, 0, 3);
+                column = 0;
+            }
+            if (literal) {
+                out.write(b);
+            }
+            else {
+                out.write('=');
+                out.write(HEX[b >> 4]);
+                out.write(HEX[b & 0xF]);
+            }
+            column += length;
+        }
+
+        if (column > 0) {
+            out.write(SOFT_LINE_BREAK, 0, 3);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A binary part of the template, an inline image referenced by its content id or an attachment.
+     */
+    public static class Part {
+
+        private final String contentId;
+        private final String filename;
+        private final byte[] content;
+        private final String contentType;
+
+        private Part(String contentId, String filename, byte[] content, String contentType) {
+            this.contentId = contentId;
+            this.filename = filename;
+            this.content = Objects.requireNonNull(content);
+            this.contentType = Objects.requireNonNull(contentType);
+        }
+
+        /**
+         * @param contentId the id the html refers to with {@code cid:}.
+         */
+        public static Part inline(String contentId, byte[] content, String contentType) {
+            return new Part(Objects.requireNonNull(contentId), null, content, contentType);
+        }
+
+        public static Part attachment(String filename, byte[] content, String contentType) {
+            return new Part(null, Objects.requireNonNull(filename), content, contentType);
+        }
+    }
+
+    /**
+     * A recipient of a template and the values of the placeholders for this recipient.
+     */
+    public static class Recipient {
+
+        private final MailAddress address;
+        private final Map<String, String> values;
+
+        private Recipient(MailAddress address, Map<String, String> values) {
+            this.address = Objects.requireNonNull(address);
+            this.values = Objects.requireNonNull(values);
+        }
+
+        public static Recipient of(MailAddress address, Map<String, String> values) {
+            return new Recipient(address, values);
+        }
+
+        public static Recipient of(MailAddress address) {
+            return new Recipient(address, Collections.emptyMap());
+        }
+
+        public MailAddress getAddress() {
+            return address;
+        }
+    }
+
+    private static class Placeholder {
+
+        private final String name;
+        private final boolean html;
+
+        Placeholder(String name, boolean html) {
+            this.name = name;
+            this.html = html;
+        }
+    }
+
+    // writes the prepared bytes of the template, merging consecutive bytes into one piece
+    private class Compiler {
+
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        // mixed > related > alternative, like the mime message helper, each level only if needed
+        void mixed(String html, String text, List<Part> inlines, List<Part> attachments, String boundary) throws MessagingException {
+            if (attachments.isEmpty()) {
+                related(html, text, inlines, boundary);
+                return;
+            }
+            String mixed = boundary + "_mixed";
+            multipartHeader("mixed", mixed);
+            delimiter(mixed);
+            related(html, text, inlines, boundary);
+            for (Part attachment : attachments) {
+                delimiter(mixed);
+                binary(attachment);
+            }
+            closeDelimiter(mixed);
+        }
+
+        void related(String html, String text, List<Part> inlines, String boundary) throws MessagingException {
+            if (inlines.isEmpty()) {
+                alternative(html, text, boundary);
+                return;
+            }
+            String related = boundary + "_related";
+            multipartHeader("related", related);
+            delimiter(related);
+            alternative(html, text, boundary);
+            for (Part inline : inlines) {
+                delimiter(related);
+                binary(inline);
+            }
+            closeDelimiter(related);
+        }
+
+        void alternative(String html, String text, String boundary) {
+            if (html == null || text == null) {
+                textPart(html != null ? "html" : "plain", html != null ? html : text, html != null);
+                return;
+            }
+            String alternative = boundary + "_alternative";
+            multipartHeader("alternative", alternative);
+            // the last alternative is the preferred one
+            delimiter(alternative);
+            textPart("plain", text, false);
+            delimiter(alternative);
+            textPart("html", html, true);
+            closeDelimiter(alternative);
+        }
+
+        void textPart(String subtype, String template, boolean html) {
+            ascii("Content-Type: text/" + subtype + "; charset=UTF-8\r\nContent-Transfer-Encoding: quoted-printable\r\n\r\n");
+            Matcher matcher = PLACEHOLDER.matcher(template);
+            int start = 0;
+            while (matcher.find()) {
+                bytes(quotedPrintable(template.substring(start, matcher.start())));
+                piece(new Placeholder(matcher.group(1), html));
+                start = matcher.end();
+            }
+            bytes(quotedPrintable(template.substring(start)));
+        }
+
+        void binary(Part part) throws MessagingException {
+            ContentType contentType = new ContentType(part.contentType);
+            ContentDisposition disposition;
+            if (part.contentId != null) {
+                disposition = new ContentDisposition("inline");
+                ascii("Content-ID: <" + part.contentId + ">\r\n");
+            }
+            else {
+                String filename = encode(part.filename);
+                contentType.setParameter("name", filename);
+                disposition = new ContentDisposition("attachment");
+                disposition.setParameter("filename", filename);
+            }
+            ascii("Content-Type: " + MimeUtility.fold(14, contentType.toString()) + "\r\n");
+            ascii("Content-Disposition: " + MimeUtility.fold(21, disposition.toString()) + "\r\n");
+            ascii("Content-Transfer-Encoding: base64\r\n\r\n");
+            bytes(Base64.getMimeEncoder().encode(part.content));
+            bytes(CRLF);
+        }
+
+        void multipartHeader(String subtype, String boundary) {
+            ascii("Content-Type: multipart/" + subtype + ";\r\n\tboundary=\"" + boundary + "\"\r\n\r\n");
+        }
+
+        // the line break before a delimiter belongs to the delimiter, every body ends with a line break of its own
+        void delimiter(String boundary) {
+            ascii("\r\n--" + boundary + "\r\n");
+        }
+
+        void closeDelimiter(String boundary) {
+            ascii("\r\n--" + boundary + "--\r\n");
+        }
+
+        void ascii(String text) {
+            bytes(text.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void bytes(byte[] bytes) {
+            pending.write(bytes, 0, bytes.length);
+        }
+
+        void piece(Placeholder placeholder) {
+            finish();
+            body.add(placeholder);
+        }
+
+        void finish() {
+            if (pending.size() > 0) {
+                body.add(pending.toByteArray());
+                bodySize += pending.size();
+                pending.reset();
+            }
+        }
+
+        private String encode(String text) throws MessagingException {
+            try {
+                return MimeUtility.encodeText(text, "UTF-8", null);
+            } catch (UnsupportedEncodingException e) {
+                throw new MessagingException("Error encoding " + text, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package de.nschwalbe.postoffice;
+
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.mail.MailException;
+import org.springframework.mail.javamail.JavaMailSender;
+
+/**
+ * Sends messages to the mail server, over a new connection per message, pooled connections, see
+ * {@link SmtpConnectionPool}, or several relays, see {@link SmtpRelays}.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+interface MailTransport {
+
+    /**
+     * @throws MailException like {@link JavaMailSender#send(MimeMessage)} would.
+     */
+    void send(MimeMessage mimeMessage) throws MailException;
+
+    /**
+     * Closes connections which were not used for a while. The default has none.
+     */
+    default void closeIdle() {
+    }
+
+    /**
+     * Closes all connections. The default has none.
+     */
+    default void close() {
+    }
+
+    /**
+     * @return a transport which sends every message with the java mail sender, over a new connection.
+     */
+    static MailTransport of(JavaMailSender javaMailSender) {
+        return mimeMessage -> javaMailSender.send(mimeMessage);
+    }
+}
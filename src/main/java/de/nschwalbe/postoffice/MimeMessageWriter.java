@@ -0,0 +1,18 @@
+package de.nschwalbe.postoffice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.mail.MessagingException;
+
+/**
+ * Writes a serialized mime message into a storage, usually {@link javax.mail.internet.MimeMessage#writeTo(OutputStream)}.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@FunctionalInterface
+public interface MimeMessageWriter {
+
+    void writeTo(OutputStream out) throws IOException, MessagingException;
+}
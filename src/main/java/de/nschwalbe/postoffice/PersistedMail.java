@@ -1,6 +1,10 @@
 package de.nschwalbe.postoffice;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * Defines a mail to be stored in a database.
@@ -17,6 +21,57 @@ public interface PersistedMail {
 
     byte[] getMimeMessageContent();
 
+    /**
+     * Opens the mime message for reading. Storages keeping large messages outside the heap override this to stream
+     * the content, the default reads it from {@link #getMimeMessageContent()}.
+     */
+    default InputStream openMimeMessageContent() throws IOException {
+        return new ByteArrayInputStream(getMimeMessageContent());
+    }
+
+    /**
+     * @return the domain of the recipient as stored with the {@link MailEnvelope}, null if not known.
+     */
+    default String getRecipientDomain() {
+        return null;
+    }
+
+    /**
+     * @return the sender as stored with the {@link MailEnvelope}, null if not known, it is read from the message then.
+     */
+    default String getEnvelopeSender() {
+        return null;
+    }
+
+    /**
+     * @return the recipients as stored with the {@link MailEnvelope}, null if not known, they are read from the
+     * message then.
+     */
+    default List<String> getEnvelopeRecipients() {
+        return null;
+    }
+
+    /**
+     * @return the lane the mail is claimed from, as stored with the {@link MailEnvelope}.
+     */
+    default MailPriority getPriority() {
+        return MailPriority.NORMAL;
+    }
+
+    /**
+     * @return how often sending the mail failed so far.
+     */
+    default int getAttempts() {
+        return 0;
+    }
+
+    /**
+     * Counts a failed attempt and sets when the mail may be claimed again. Storages which do not keep attempts
+     * retry the mail with the next claim.
+     */
+    default void recordFailedAttempt(LocalDateTime nextAttemptAt) {
+    }
+
     MailProcessState getState();
     void setState(MailProcessState state);
 
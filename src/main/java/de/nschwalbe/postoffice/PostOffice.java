@@ -1,10 +1,18 @@
 package de.nschwalbe.postoffice;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
@@ -28,10 +36,33 @@ public class PostOffice {
 
     private final MailStorage mailStorage;
     private final JavaMailSender mailSender;
+    private final DeliverySignal deliverySignal;
+    private final PostOfficeMetrics metrics;
+    private final PostingBuffer postingBuffer;
+    private final AdmissionControl admissionControl;
 
     public PostOffice(MailStorage mailStorage, JavaMailSender mailSender) {
+        this(mailStorage, mailSender, new DeliverySignal(), PostOfficeMetrics.NOOP);
+    }
+
+    PostOffice(MailStorage mailStorage, JavaMailSender mailSender, DeliverySignal deliverySignal, PostOfficeMetrics metrics) {
+        this(mailStorage, mailSender, deliverySignal, metrics,
+            new PostingBuffer(mailStorage, deliverySignal, metrics, 100, Duration.ofMillis(5), 10000, Duration.ofSeconds(5)));
+    }
+
+    PostOffice(MailStorage mailStorage, JavaMailSender mailSender, DeliverySignal deliverySignal, PostOfficeMetrics metrics,
+               PostingBuffer postingBuffer) {
+        this(mailStorage, mailSender, deliverySignal, metrics, postingBuffer, AdmissionControl.UNLIMITED);
+    }
+
+    PostOffice(MailStorage mailStorage, JavaMailSender mailSender, DeliverySignal deliverySignal, PostOfficeMetrics metrics,
+               PostingBuffer postingBuffer, AdmissionControl admissionControl) {
         this.mailStorage = mailStorage;
         this.mailSender = mailSender;
+        this.deliverySignal = deliverySignal;
+        this.metrics = metrics;
+        this.postingBuffer = postingBuffer;
+        this.admissionControl = admissionControl;
     }
 
     /**
@@ -46,8 +77,27 @@ public class PostOffice {
      * @throws MessagingException if message creation failed due to some error.
      */
     public PersistedMail postMail(String subject, MailAddress from, MailAddress to, String content, boolean isHtml) throws MessagingException {
+        return postMail(subject, from, to, content, isHtml, MailPriority.NORMAL);
+    }
+
+    /**
+     * Creates a mail, stores it and sends it out later, mails of a higher priority are sent first.
+     * This method returns immediately and does not wait for the mail server.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipient.
+     * @param content the mail body.
+     * @param isHtml true if mail body is html, if it is plain text set to false.
+     * @param priority the lane to send the mail in, e.g. {@link MailPriority#HIGH} for mails a user is waiting for.
+     * @return the persisted mail
+     * @throws MessagingException if message creation failed due to some error.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, the mail is not stored then.
+     */
+    public PersistedMail postMail(String subject, MailAddress from, MailAddress to, String content, boolean isHtml, MailPriority priority)
+        throws MessagingException {
         MimeMessage mimeMessage = createMimeMessage(subject, from, Collections.singletonList(to), content, isHtml);
-        return postMail(mimeMessage);
+        return postMail(mimeMessage, priority);
     }
 
     /**
@@ -62,8 +112,27 @@ public class PostOffice {
      * @throws MessagingException if message creation failed due to some error.
      */
     public PersistedMail postMail(String subject, MailAddress from, MailAddress to, String html, String text) throws MessagingException {
+        return postMail(subject, from, to, html, text, MailPriority.NORMAL);
+    }
+
+    /**
+     * Creates a mail, stores it and sends it out later, mails of a higher priority are sent first.
+     * This method returns immediately and does not wait for the mail server.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipient.
+     * @param html the mail body html part.
+     * @param text the mail body text part.
+     * @param priority the lane to send the mail in, e.g. {@link MailPriority#HIGH} for mails a user is waiting for.
+     * @return the persisted mail.
+     * @throws MessagingException if message creation failed due to some error.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, the mail is not stored then.
+     */
+    public PersistedMail postMail(String subject, MailAddress from, MailAddress to, String html, String text, MailPriority priority)
+        throws MessagingException {
         MimeMessage mimeMessage = createMimeMessage(subject, from, Collections.singletonList(to), html, text);
-        return postMail(mimeMessage);
+        return postMail(mimeMessage, priority);
     }
 
     /**
@@ -78,8 +147,27 @@ public class PostOffice {
      * @throws MessagingException if message creation failed due to some error.
      */
     public PersistedMail postMail(String subject, MailAddress from, List<MailAddress> to, String content, boolean isHtml) throws MessagingException {
+        return postMail(subject, from, to, content, isHtml, MailPriority.NORMAL);
+    }
+
+    /**
+     * Creates a mail, stores it and sends it out later, mails of a higher priority are sent first.
+     * This method returns immediately and does not wait for the mail server.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipients.
+     * @param content the mail body.
+     * @param isHtml true if mail body is html, if it is plain text set to false.
+     * @param priority the lane to send the mail in, e.g. {@link MailPriority#HIGH} for mails a user is waiting for.
+     * @return the persisted mail
+     * @throws MessagingException if message creation failed due to some error.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, the mail is not stored then.
+     */
+    public PersistedMail postMail(String subject, MailAddress from, List<MailAddress> to, String content, boolean isHtml, MailPriority priority)
+        throws MessagingException {
         MimeMessage mimeMessage = createMimeMessage(subject, from, to, content, isHtml);
-        return postMail(mimeMessage);
+        return postMail(mimeMessage, priority);
     }
 
     /**
@@ -94,38 +182,283 @@ public class PostOffice {
      * @throws MessagingException if message creation failed due to some error.
      */
     public PersistedMail postMail(String subject, MailAddress from, List<MailAddress> to, String html, String text) throws MessagingException {
+        return postMail(subject, from, to, html, text, MailPriority.NORMAL);
+    }
+
+    /**
+     * Creates a mail, stores it and sends it out later, mails of a higher priority are sent first.
+     * This method returns immediately and does not wait for the mail server.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipients.
+     * @param html the mail body html part.
+     * @param text the mail body text part.
+     * @param priority the lane to send the mail in, e.g. {@link MailPriority#HIGH} for mails a user is waiting for.
+     * @return the persisted mail.
+     * @throws MessagingException if message creation failed due to some error.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, the mail is not stored then.
+     */
+    public PersistedMail postMail(String subject, MailAddress from, List<MailAddress> to, String html, String text, MailPriority priority)
+        throws MessagingException {
         MimeMessage mimeMessage = createMimeMessage(subject, from, to, html, text);
-        return postMail(mimeMessage);
+        return postMail(mimeMessage, priority);
     }
 
-    private PersistedMail postMail(MimeMessage mimeMessage) throws MessagingException {
+    /**
+     * Stores the mail and sends it out later. This method returns immediately and does not wait for the mail server.
+     *
+     * @param mimeMessage the mail, see {@link #createMimeMessage(String, MailAddress, List, String, boolean)}.
+     * @return the persisted mail.
+     * @throws MessagingException if the message could not be serialized.
+     */
+    public PersistedMail postMail(MimeMessage mimeMessage) throws MessagingException {
+        return postMail(mimeMessage, MailPriority.NORMAL);
+    }
 
-        byte[] content;
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            mimeMessage.writeTo(out);
-            content = out.toByteArray();
-        } catch (Exception e) {
+    /**
+     * Stores the mail and sends it out later, mails of a higher priority are sent first.
+     * This method returns immediately and does not wait for the mail server.
+     *
+     * @param mimeMessage the mail, see {@link #createMimeMessage(String, MailAddress, List, String, boolean)}.
+     * @param priority the lane to send the mail in, e.g. {@link MailPriority#HIGH} for mails a user is waiting for.
+     * @return the persisted mail.
+     * @throws MessagingException if the message could not be serialized.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, the mail is not stored then.
+     */
+    public PersistedMail postMail(MimeMessage mimeMessage, MailPriority priority) throws MessagingException {
+        admissionControl.admit(1, priority);
+        long start = System.nanoTime();
+        long[] size = new long[1];
+        PersistedMail mail;
+        try {
+            // streamed into the storage, large messages are never held in memory as a whole
+            mail = mailStorage.create(out -> {
+                CountingOutputStream counting = new CountingOutputStream(out);
+                mimeMessage.writeTo(counting);
+                size[0] = counting.count;
+            }, MailEnvelope.of(mimeMessage).withPriority(priority));
+        } catch (IOException e) {
             throw new MessagingException("Error reading mime message content!", e);
         }
+        metrics.recordEnqueue(System.nanoTime() - start, 1);
+        metrics.recordMessageSize(size[0]);
+        deliverySignal.mailPosted();
+        return mail;
+    }
 
-        return mailStorage.create(content);
+    /**
+     * Creates a mail and stores it in the background, see {@link #postMailAsync(MimeMessage, MailPriority)}.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipient.
+     * @param content the mail body.
+     * @param isHtml true if mail body is html, if it is plain text set to false.
+     * @return the persisted mail, once it is stored.
+     * @throws MessagingException if message creation failed due to some error.
+     */
+    public CompletableFuture<PersistedMail> postMailAsync(String subject, MailAddress from, MailAddress to, String content, boolean isHtml)
+        throws MessagingException {
+        return postMailAsync(subject, from, to, content, isHtml, MailPriority.NORMAL);
     }
 
-    private MimeMessage createMimeMessage(String subject, MailAddress from, List<MailAddress> to, String content, boolean isHtml) throws MessagingException {
-        MimeMessageHelper messageHelper = createMimeMessageHelper(subject, from, to);
+    /**
+     * Creates a mail and stores it in the background, see {@link #postMailAsync(MimeMessage, MailPriority)}.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipient.
+     * @param content the mail body.
+     * @param isHtml true if mail body is html, if it is plain text set to false.
+     * @param priority the lane to send the mail in.
+     * @return the persisted mail, once it is stored.
+     * @throws MessagingException if message creation failed due to some error.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, the mail is not stored then.
+     */
+    public CompletableFuture<PersistedMail> postMailAsync(String subject, MailAddress from, MailAddress to, String content, boolean isHtml,
+                                                          MailPriority priority) throws MessagingException {
+        MimeMessage mimeMessage = createMimeMessage(subject, from, Collections.singletonList(to), content, isHtml);
+        return postMailAsync(mimeMessage, priority);
+    }
+
+    /**
+     * Stores the mail in the background, see {@link #postMailAsync(MimeMessage, MailPriority)}.
+     *
+     * @param mimeMessage the mail, see {@link #createMimeMessage(String, MailAddress, List, String, boolean)}.
+     * @return the persisted mail, once it is stored.
+     * @throws MessagingException if the message could not be serialized.
+     */
+    public CompletableFuture<PersistedMail> postMailAsync(MimeMessage mimeMessage) throws MessagingException {
+        return postMailAsync(mimeMessage, MailPriority.NORMAL);
+    }
+
+    /**
+     * Stores the mail in the background and sends it out later. The message is serialized right away, so it may be
+     * changed afterwards, but the caller does not wait for the storage. Mails posted concurrently are stored together
+     * with one bulk write.
+     * <p>
+     * The future completes once the mail is stored as durably as with {@link #postMail(MimeMessage)}, or fails with
+     * the error of the storage. Until then the mail is only held in memory and lost if the process dies. Dependent
+     * actions run on the thread storing the mails and should be quick, or be added with an async method.
+     *
+     * @param mimeMessage the mail, see {@link #createMimeMessage(String, MailAddress, List, String, boolean)}.
+     * @param priority the lane to send the mail in.
+     * @return the persisted mail, once it is stored.
+     * @throws MessagingException if the message could not be serialized.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, the mail is not stored then.
+     */
+    public CompletableFuture<PersistedMail> postMailAsync(MimeMessage mimeMessage, MailPriority priority) throws MessagingException {
+        admissionControl.admit(1, priority);
+        byte[] content = serialize(mimeMessage);
+        metrics.recordMessageSize(content.length);
+        return postingBuffer.add(content, MailEnvelope.of(mimeMessage).withPriority(priority));
+    }
+
+    /**
+     * Stores many mails at once and sends them out later. Much faster than posting the mails one by one, because
+     * the storage can write them in bulk.
+     *
+     * @param mimeMessages the mails, see {@link #createMimeMessage(String, MailAddress, List, String, boolean)}.
+     * @return the persisted mails in the same order.
+     * @throws MessagingException if a message could not be serialized, no mail is stored then.
+     */
+    public List<PersistedMail> postMails(Collection<MimeMessage> mimeMessages) throws MessagingException {
+        return postMails(mimeMessages, MailPriority.NORMAL);
+    }
+
+    /**
+     * Stores many mails at once and sends them out later, see {@link #postMails(Collection)}. Newsletters should be
+     * posted with {@link MailPriority#LOW}, so they do not hold up other mails.
+     *
+     * @param mimeMessages the mails, see {@link #createMimeMessage(String, MailAddress, List, String, boolean)}.
+     * @param priority the lane to send the mails in.
+     * @return the persisted mails in the same order.
+     * @throws MessagingException if a message could not be serialized, no mail is stored then.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, no mail is stored then.
+     */
+    public List<PersistedMail> postMails(Collection<MimeMessage> mimeMessages, MailPriority priority) throws MessagingException {
+
+        admissionControl.admit(mimeMessages.size(), priority);
+        long start = System.nanoTime();
+        List<byte[]> contents = new ArrayList<>(mimeMessages.size());
+        List<MailEnvelope> envelopes = new ArrayList<>(mimeMessages.size());
+        for (MimeMessage mimeMessage : mimeMessages) {
+            contents.add(serialize(mimeMessage));
+            envelopes.add(MailEnvelope.of(mimeMessage).withPriority(priority));
+        }
+
+        List<PersistedMail> mails = new ArrayList<>(mailStorage.createAll(contents, envelopes));
+        metrics.recordEnqueue(System.nanoTime() - start, mails.size());
+        contents.forEach(content -> metrics.recordMessageSize(content.length));
+        deliverySignal.mailPosted();
+        return mails;
+    }
+
+    /**
+     * Prepares a mail for many recipients, see {@link MailTemplate}. Much faster than creating a mime message per
+     * recipient, because the bodies and parts are encoded only once.
+     *
+     * @param subject the mail subject, may contain placeholders like {@code ${name}}.
+     * @param from the sender address.
+     * @param html the mail body html part with placeholders, null for a text only mail.
+     * @param text the mail body text part with placeholders, null for a html only mail.
+     * @param parts inline images and attachments.
+     * @return the template to post with {@link #postMails(MailTemplate, List)}.
+     * @throws MessagingException if the template could not be encoded.
+     */
+    public MailTemplate compileTemplate(String subject, MailAddress from, String html, String text, MailTemplate.Part... parts) throws MessagingException {
+        return new MailTemplate(subject, from, html, text, Arrays.asList(parts));
+    }
+
+    /**
+     * Renders the template for every recipient and stores the mails at once, see {@link #postMails(Collection)}.
+     *
+     * @param template the compiled template.
+     * @param recipients the recipients and their values of the placeholders.
+     * @return the persisted mails in the same order.
+     * @throws MessagingException if a mail could not be rendered, no mail is stored then.
+     */
+    public List<PersistedMail> postMails(MailTemplate template, List<MailTemplate.Recipient> recipients) throws MessagingException {
+        return postMails(template, recipients, MailPriority.NORMAL);
+    }
+
+    /**
+     * Renders the template for every recipient and stores the mails at once, see {@link #postMails(Collection)}.
+     *
+     * @param template the compiled template.
+     * @param recipients the recipients and their values of the placeholders.
+     * @param priority the lane to send the mails in.
+     * @return the persisted mails in the same order.
+     * @throws MessagingException if a mail could not be rendered, no mail is stored then.
+     * @throws MailBacklogFullException if too many mails are waiting to be sent, no mail is stored then.
+     */
+    public List<PersistedMail> postMails(MailTemplate template, List<MailTemplate.Recipient> recipients, MailPriority priority)
+        throws MessagingException {
+
+        admissionControl.admit(recipients.size(), priority);
+        long start = System.nanoTime();
+        List<byte[]> contents = new ArrayList<>(recipients.size());
+        List<MailEnvelope> envelopes = new ArrayList<>(recipients.size());
+        for (MailTemplate.Recipient recipient : recipients) {
+            contents.add(template.render(recipient));
+            envelopes.add(template.envelope(recipient).withPriority(priority));
+        }
+
+        List<PersistedMail> mails = new ArrayList<>(mailStorage.createAll(contents, envelopes));
+        metrics.recordEnqueue(System.nanoTime() - start, mails.size());
+        contents.forEach(content -> metrics.recordMessageSize(content.length));
+        deliverySignal.mailPosted();
+        return mails;
+    }
+
+    /**
+     * Creates a mail to be posted with {@link #postMail(MimeMessage)} or {@link #postMails(Collection)}.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipients.
+     * @param content the mail body.
+     * @param isHtml true if mail body is html, if it is plain text set to false.
+     * @return the mail.
+     * @throws MessagingException if message creation failed due to some error.
+     */
+    public MimeMessage createMimeMessage(String subject, MailAddress from, List<MailAddress> to, String content, boolean isHtml) throws MessagingException {
+        MimeMessageHelper messageHelper = createMimeMessageHelper(subject, from, to, false);
         messageHelper.setText(content, isHtml);
         return messageHelper.getMimeMessage();
     }
 
-    private MimeMessage createMimeMessage(String subject, MailAddress from, List<MailAddress> to, String html, String text) throws MessagingException {
-        MimeMessageHelper messageHelper = createMimeMessageHelper(subject, from, to);
+    /**
+     * Creates a mail to be posted with {@link #postMail(MimeMessage)} or {@link #postMails(Collection)}.
+     *
+     * @param subject the mail subject.
+     * @param from the sender address.
+     * @param to the recipients.
+     * @param html the mail body html part.
+     * @param text the mail body text part.
+     * @return the mail.
+     * @throws MessagingException if message creation failed due to some error.
+     */
+    public MimeMessage createMimeMessage(String subject, MailAddress from, List<MailAddress> to, String html, String text) throws MessagingException {
+        // html with a text alternative needs a multipart message
+        MimeMessageHelper messageHelper = createMimeMessageHelper(subject, from, to, true);
         messageHelper.setText(text, html);
         return messageHelper.getMimeMessage();
     }
 
-    private MimeMessageHelper createMimeMessageHelper(String subject, MailAddress from, List<MailAddress> to) throws MessagingException {
+    private byte[] serialize(MimeMessage mimeMessage) throws MessagingException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            mimeMessage.writeTo(out);
+            return out.toByteArray();
+        } catch (Exception e) {
+            throw new MessagingException("Error reading mime message content!", e);
+        }
+    }
+
+    private MimeMessageHelper createMimeMessageHelper(String subject, MailAddress from, List<MailAddress> to, boolean multipart) throws MessagingException {
         MimeMessage mimeMessage = mailSender.createMimeMessage();
-        MimeMessageHelper message = new MimeMessageHelper(mimeMessage, "UTF-8");
+        MimeMessageHelper message = new MimeMessageHelper(mimeMessage, multipart, "UTF-8");
         message.setSubject(subject);
         try {
             message.setFrom(from.getAddress(), from.getPersonal());
@@ -147,4 +480,26 @@ public class PostOffice {
         message.setTo(internetAddresses);
         return message;
     }
+
+    // the size of streamed messages is only known once written
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 }
@@ -1,10 +1,22 @@
 package de.nschwalbe.postoffice;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.SchedulingConfigurer;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
@@ -26,15 +38,160 @@ public class PostOfficeConfiguration {
     private Environment env;
 
     @Bean
-    public PostOffice postOffice(MailStorage mailStorage) {
-        return new PostOffice(mailStorage, javaMailSender);
+    public DeliverySignal deliverySignal() {
+        return new DeliverySignal();
+    }
+
+    @ConditionalOnMissingBean(PostOfficeMetrics.class)
+    @Bean
+    public PostOfficeMetrics postOfficeMetrics() {
+        return PostOfficeMetrics.NOOP;
+    }
+
+    @Bean
+    public QueueDepth queueDepth(MailStorage mailStorage, PostOfficeMetrics metrics) {
+        QueueDepth queueDepth = new QueueDepth(mailStorage, Duration.ofSeconds(env.getProperty("postoffice.metrics.queue-depth-refresh", Integer.class, 30)));
+        metrics.bindQueueDepth(queueDepth);
+        return queueDepth;
+    }
+
+    @Bean
+    PostingBuffer postingBuffer(MailStorage mailStorage, DeliverySignal deliverySignal, PostOfficeMetrics metrics) {
+        return new PostingBuffer(
+            mailStorage,
+            deliverySignal,
+            metrics,
+            env.getProperty("postoffice.async.max-batch-size", Integer.class, 100),
+            Duration.ofMillis(env.getProperty("postoffice.async.linger", Integer.class, 5)),
+            env.getProperty("postoffice.async.capacity", Integer.class, 10000),
+            Duration.ofMillis(env.getProperty("postoffice.async.offer-timeout", Integer.class, 5000)));
+    }
+
+    @Bean
+    AdmissionControl admissionControl(MailStorage mailStorage) {
+        long highWatermark = env.getProperty("postoffice.admission.high-watermark", Long.class, 0L);
+        if (highWatermark <= 0) {
+            return AdmissionControl.UNLIMITED;
+        }
+        // counted on its own, the backlog has to be noticed sooner than the gauges need to
+        return new AdmissionControl(
+            mailStorage,
+            Duration.ofSeconds(env.getProperty("postoffice.admission.refresh", Integer.class, 1)),
+            highWatermark,
+            env.getProperty("postoffice.admission.low-watermark", Long.class, highWatermark * 8 / 10),
+            AdmissionControl.Mode.valueOf(env.getProperty("postoffice.admission.mode", "block").toUpperCase()),
+            Duration.ofMillis(env.getProperty("postoffice.admission.block-timeout", Integer.class, 5000)));
+    }
+
+    @Bean
+    public PostOffice postOffice(MailStorage mailStorage, DeliverySignal deliverySignal, PostOfficeMetrics metrics, PostingBuffer postingBuffer,
+                                 AdmissionControl admissionControl) {
+        return new PostOffice(mailStorage, javaMailSender, deliverySignal, metrics, postingBuffer, admissionControl);
+    }
+
+    @Bean
+    LeaseKeeper leaseKeeper(MailStorage mailStorage, PostOfficeMetrics metrics) {
+        String nodeId = env.getProperty("postoffice.node-id");
+        if (nodeId == null) {
+            nodeId = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+        return new LeaseKeeper(mailStorage, nodeId, Duration.ofSeconds(env.getProperty("postoffice.worker.lease", Integer.class, 300)), metrics);
+    }
+
+    @Bean
+    MailDelivery mailDelivery(MailStorage mailStorage, LeaseKeeper leaseKeeper, PostOfficeMetrics metrics) {
+        boolean reuseConnections = env.getProperty("postoffice.smtp.reuse-connections", Boolean.class, true);
+        DomainThrottle domainThrottle = new DomainThrottle(
+            env.getProperty("postoffice.domain.rate", Double.class, 0d),
+            env.getProperty("postoffice.domain.max-concurrency", Integer.class, 0));
+        RetryPolicy retryPolicy = new RetryPolicy(
+            env.getProperty("postoffice.retry.max-attempts", Integer.class, 10),
+            Duration.ofSeconds(env.getProperty("postoffice.retry.initial-delay", Integer.class, 30)),
+            Duration.ofSeconds(env.getProperty("postoffice.retry.max-delay", Integer.class, 3600)));
+        DeliveryResults results = new DeliveryResults(
+            mailStorage,
+            leaseKeeper,
+            metrics,
+            env.getProperty("postoffice.worker.result-batch-size", Integer.class, 50),
+            Duration.ofMillis(env.getProperty("postoffice.worker.result-delay", Integer.class, 1000)));
+        MailTransport transport = smtpRelays(reuseConnections);
+        if (transport == null && javaMailSender instanceof JavaMailSenderImpl && reuseConnections) {
+            transport = connectionPool((JavaMailSenderImpl) javaMailSender);
+        }
+        if (transport == null) {
+            transport = MailTransport.of(javaMailSender);
+        }
+        return new MailDelivery(results, javaMailSender, transport, domainThrottle, retryPolicy, metrics);
     }
 
+    // relays are listed as postoffice.smtp.relays[0].host, postoffice.smtp.relays[1].host, ...
+    private SmtpRelays smtpRelays(boolean reuseConnections) {
+        List<SmtpRelays.Relay> relays = new ArrayList<>();
+        for (int i = 0; env.containsProperty("postoffice.smtp.relays[" + i + "].host"); i++) {
+            String prefix = "postoffice.smtp.relays[" + i + "].";
+            JavaMailSenderImpl relaySender = new JavaMailSenderImpl();
+            // protocol and session settings like STARTTLS are the same for all relays
+            if (javaMailSender instanceof JavaMailSenderImpl) {
+                JavaMailSenderImpl mailSender = (JavaMailSenderImpl) javaMailSender;
+                relaySender.setProtocol(mailSender.getProtocol());
+                relaySender.setDefaultEncoding(mailSender.getDefaultEncoding());
+                relaySender.setJavaMailProperties(mailSender.getJavaMailProperties());
+            }
+            relaySender.setHost(env.getProperty(prefix + "host"));
+            relaySender.setPort(env.getProperty(prefix + "port", Integer.class, 25));
+            relaySender.setUsername(env.getProperty(prefix + "username"));
+            relaySender.setPassword(env.getProperty(prefix + "password"));
+            relays.add(new SmtpRelays.Relay(
+                relaySender.getHost() + ":" + relaySender.getPort(),
+                reuseConnections ? connectionPool(relaySender) : MailTransport.of(relaySender),
+                env.getProperty(prefix + "weight", Integer.class, 1),
+                env.getProperty(prefix + "max-connections", Integer.class, 0),
+                new CircuitBreaker(
+                    env.getProperty("postoffice.smtp.failure-threshold", Integer.class, 5),
+                    Duration.ofSeconds(env.getProperty("postoffice.smtp.open-duration", Integer.class, 30)))));
+        }
+        if (relays.isEmpty()) {
+            return null;
+        }
+        return new SmtpRelays(relays, SmtpRelays.Strategy.valueOf(env.getProperty("postoffice.smtp.relay-strategy", "weighted").toUpperCase().replace('-', '_')));
+    }
+
+    private SmtpConnectionPool connectionPool(JavaMailSenderImpl mailSender) {
+        return new SmtpConnectionPool(
+            mailSender,
+            env.getProperty("postoffice.smtp.max-messages-per-connection", Integer.class, 100),
+            env.getProperty("postoffice.smtp.idle-timeout", Integer.class, 30));
+    }
+
+    @ConditionalOnProperty(name = "postoffice.worker.mode", havingValue = "sequential", matchIfMissing = true)
     @Bean("sendMailTask")
-    public SendMailTaskFactory sendMailTaskFactory(MailStorage mailStorage) {
-        return new SendMailTaskFactory(mailStorage, javaMailSender, env);
+    public SendMailTaskFactory sendMailTaskFactory(LeaseKeeper leaseKeeper, MailDelivery mailDelivery) {
+        return new SendMailTaskFactory(leaseKeeper, mailDelivery, env);
+    }
+
+    @ConditionalOnProperty(name = "postoffice.worker.mode", havingValue = "parallel")
+    @Bean
+    public SendMailWorkerPool sendMailWorkerPool(LeaseKeeper leaseKeeper, MailDelivery mailDelivery, DeliverySignal deliverySignal) {
+        int concurrency = env.getProperty("postoffice.worker.concurrency", Integer.class, 4);
+        return new SendMailWorkerPool(
+            leaseKeeper,
+            mailDelivery,
+            deliverySignal,
+            concurrency,
+            env.getProperty("postoffice.worker.queue-capacity", Integer.class, 2 * concurrency),
+            env.getProperty("postoffice.worker.batch-size", Integer.class, 50),
+            env.getProperty("postoffice.worker.delay", Integer.class, 10));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "postoffice";
+        }
     }
 
+    @ConditionalOnProperty(name = "postoffice.worker.mode", havingValue = "sequential", matchIfMissing = true)
     @EnableScheduling
     @Configuration
     static class SchedulerConfiguration implements SchedulingConfigurer {
@@ -42,6 +199,9 @@ public class PostOfficeConfiguration {
         @Autowired
         private TriggerTask sendMailTask;
 
+        @Autowired
+        private DeliverySignal deliverySignal;
+
         @Override
         public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
             try {
@@ -49,6 +209,16 @@ public class PostOfficeConfiguration {
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+
+            // the scheduler is resolved after this method, so look it up when the signal comes
+            SendMailTaskFactory.SendMailTask task = (SendMailTaskFactory.SendMailTask) sendMailTask.getRunnable();
+            task.setScheduler(taskRegistrar::getScheduler);
+            deliverySignal.addWorker(() -> {
+                TaskScheduler scheduler = taskRegistrar.getScheduler();
+                if (scheduler != null) {
+                    task.wakeUp(runnable -> scheduler.schedule(runnable, new Date()));
+                }
+            });
         }
 
     }
@@ -0,0 +1,82 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+
+/**
+ * Instrumentation hooks of the post office. Nothing is recorded by default, declare a bean implementing this interface
+ * to feed the numbers into a metrics library, e.g. a micrometer {@code MeterRegistry} as shown in the readme.
+ * <p>
+ * Implementations are called on the hot path and from many threads, they should only update meters.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public interface PostOfficeMetrics {
+
+    PostOfficeMetrics NOOP = new PostOfficeMetrics() {
+    };
+
+    /**
+     * Why sending a mail failed, one per error branch of the delivery.
+     */
+    enum SendError {
+        /** The stored content could not be read, the mail is failed. */
+        UNREADABLE_CONTENT,
+        /** The mail server did not accept our credentials. */
+        AUTHENTICATION,
+        /** The mail server refused the mail or its recipients. */
+        REJECTED,
+        /** The mail server could not be reached or the connection broke. */
+        CONNECTION,
+        /** Any other error, the mail is failed. */
+        OTHER
+    }
+
+    /**
+     * Called once, lets the implementation register gauges for the number of mails in each state.
+     */
+    default void bindQueueDepth(QueueDepth queueDepth) {
+    }
+
+    /**
+     * @param nanos time it took to serialize and store the mails.
+     * @param mails number of mails posted at once.
+     */
+    default void recordEnqueue(long nanos, int mails) {
+    }
+
+    /**
+     * @param bytes size of a posted mime message.
+     */
+    default void recordMessageSize(long bytes) {
+    }
+
+    /**
+     * @param nanos time it took to claim a batch.
+     * @param mails number of mails claimed.
+     */
+    default void recordClaim(long nanos, int mails) {
+    }
+
+    /**
+     * @param nanos time it took to hand one mail to the mail server, whether it was accepted or not.
+     * @param sent true if the mail server accepted the mail.
+     */
+    default void recordSend(long nanos, boolean sent) {
+    }
+
+    /**
+     * @param nanos time it took to store the outcome of a send.
+     */
+    default void recordStorageUpdate(long nanos) {
+    }
+
+    /**
+     * @param latency time from posting a mail until the mail server accepted it.
+     */
+    default void recordDeliveryLatency(Duration latency) {
+    }
+
+    default void countSendError(SendError error) {
+    }
+}
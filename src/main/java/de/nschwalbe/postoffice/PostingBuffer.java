@@ -0,0 +1,194 @@
+package de.nschwalbe.postoffice;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind buffer of {@link PostOffice#postMailAsync(javax.mail.internet.MimeMessage)}. Mails posted concurrently
+ * are collected by one flusher thread and stored with a single {@link MailStorage#createAll(List, List)}, so a burst
+ * of posts costs a few bulk writes instead of one write each.
+ * <p>
+ * The flusher takes up to {@code maxBatchSize} mails and waits at most {@code linger} for more before it writes. The
+ * futures complete only after the batch is stored, with the durability of the storage, or all fail with the error of
+ * the storage. Once {@code capacity} mails are waiting, posting blocks until the flusher catches up, at most for
+ * {@code offerTimeout}. Then the mail is rejected with a {@link MailBacklogFullException}.
+ * <p>
+ * The flusher starts with the first post. Mails still buffered are stored on {@link #close()}; if the process dies
+ * before that, they are lost, just like mails posted but not yet written synchronously.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class PostingBuffer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PostingBuffer.class);
+
+    private static final long CLOSE_CHECK_MILLIS = 100;
+
+    private final MailStorage mailStorage;
+    private final DeliverySignal deliverySignal;
+    private final PostOfficeMetrics metrics;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final long offerTimeoutNanos;
+
+    private final BlockingQueue<Pending> queue;
+
+    private Thread flusher;
+    private volatile boolean closed;
+
+    PostingBuffer(MailStorage mailStorage, DeliverySignal deliverySignal, PostOfficeMetrics metrics, int maxBatchSize, Duration linger, int capacity,
+                  Duration offerTimeout) {
+        if (maxBatchSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Batch size and capacity must be at least 1.");
+        }
+        this.mailStorage = mailStorage;
+        this.deliverySignal = deliverySignal;
+        this.metrics = metrics;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = linger.toNanos();
+        this.offerTimeoutNanos = offerTimeout.toNanos();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @return the future of the stored mail, completed by the flusher thread.
+     */
+    CompletableFuture<PersistedMail> add(byte[] mimeMessageContent, MailEnvelope envelope) {
+        Pending pending = new Pending(mimeMessageContent, envelope);
+        if (closed) {
+            pending.future.completeExceptionally(new IllegalStateException("Posting buffer is closed."));
+            return pending.future;
+        }
+        startFlusher();
+        try {
+            if (!queue.offer(pending, offerTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                pending.future.completeExceptionally(new MailBacklogFullException("Mail rejected because the posting buffer stayed full for "
+                    + TimeUnit.NANOSECONDS.toMillis(offerTimeoutNanos) + "ms."));
+                return pending.future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(e);
+            return pending.future;
+        }
+        // closed in between, the mail is stored by close only if it drained the queue after the mail was added
+        if (closed && queue.remove(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("Posting buffer is closed."));
+        }
+        return pending.future;
+    }
+
+    /**
+     * Stops taking mails and stores the buffered ones.
+     */
+    @Override
+    public void close() {
+        Thread running;
+        synchronized (this) {
+            closed = true;
+            running = flusher;
+        }
+        if (running != null) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // posts racing with close
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            store(remaining);
+        }
+    }
+
+    private synchronized void startFlusher() {
+        if (flusher == null && !closed) {
+            flusher = new Thread(this::flush, "postoffice-posting");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    private void flush() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == maxBatchSize || remaining <= 0 || closed) {
+                        break;
+                    }
+                    // no longer than the close check, so closing does not wait for the linger
+                    Pending next = queue.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(CLOSE_CHECK_MILLIS)), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.warn("Posting buffer was interrupted, storing the remaining mails on close.");
+                break;
+            } finally {
+                if (!batch.isEmpty()) {
+                    store(batch);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void store(List<Pending> batch) {
+        List<byte[]> contents = new ArrayList<>(batch.size());
+        List<MailEnvelope> envelopes = new ArrayList<>(batch.size());
+        batch.forEach(pending -> {
+            contents.add(pending.content);
+            envelopes.add(pending.envelope);
+        });
+
+        long start = System.nanoTime();
+        List<? extends PersistedMail> mails;
+        try {
+            mails = mailStorage.createAll(contents, envelopes);
+        } catch (RuntimeException e) {
+            log.error("Could not store {} posted mails!", batch.size(), e);
+            batch.forEach(pending -> pending.future.completeExceptionally(e));
+            return;
+        }
+        metrics.recordEnqueue(System.nanoTime() - start, mails.size());
+        deliverySignal.mailPosted();
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(mails.get(i));
+        }
+    }
+
+    private static class Pending {
+
+        private final byte[] content;
+        private final MailEnvelope envelope;
+        private final CompletableFuture<PersistedMail> future = new CompletableFuture<>();
+
+        Pending(byte[] content, MailEnvelope envelope) {
+            this.content = content;
+            this.envelope = envelope;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package de.nschwalbe.postoffice;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Weighted fair sharing of claimed batches between the {@link MailPriority} lanes. Every lane with due mails gets a
+ * share of the batch by its weight, at least one mail, so a busy lane never starves the others. A lane with fewer due
+ * mails than its share leaves the rest to the other lanes.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class PriorityShares {
+
+    private final Map<MailPriority, Integer> weights = new EnumMap<>(MailPriority.class);
+
+    public PriorityShares(int highWeight, int normalWeight, int lowWeight) {
+        if (highWeight < 1 || normalWeight < 1 || lowWeight < 1) {
+            throw new IllegalArgumentException("Every priority needs a weight of at least 1.");
+        }
+        weights.put(MailPriority.HIGH, highWeight);
+        weights.put(MailPriority.NORMAL, normalWeight);
+        weights.put(MailPriority.LOW, lowWeight);
+    }
+
+    public static PriorityShares defaults() {
+        return new PriorityShares(70, 25, 5);
+    }
+
+    /**
+     * @param maxSize the size of the batch.
+     * @param due the number of due mails in each lane, lanes not in the map have none.
+     * @return how many mails to claim from each lane, adding up to at most the batch size.
+     */
+    public Map<MailPriority, Integer> allocate(int maxSize, Map<MailPriority, Integer> due) {
+
+        Map<MailPriority, Integer> allocated = new EnumMap<>(MailPriority.class);
+        int remaining = maxSize;
+
+        while (remaining > 0) {
+            int totalWeight = 0;
+            for (MailPriority priority : MailPriority.values()) {
+                if (open(priority, due, allocated) > 0) {
+                    totalWeight += weights.get(priority);
+                }
+            }
+            if (totalWeight == 0) {
+                break;
+            }
+
+            int round = remaining;
+            // in priority order, so the higher lanes get the rounding
+            for (MailPriority priority : MailPriority.values()) {
+                int open = open(priority, due, allocated);
+                if (open > 0 && remaining > 0) {
+                    int share = Math.max(1, round * weights.get(priority) / totalWeight);
+                    int take = Math.min(Math.min(share, open), remaining);
+                    allocated.merge(priority, take, Integer::sum);
+                    remaining -= take;
+                }
+            }
+        }
+        return allocated;
+    }
+
+    private static int open(MailPriority priority, Map<MailPriority, Integer> due, Map<MailPriority, Integer> allocated) {
+        return due.getOrDefault(priority, 0) - allocated.getOrDefault(priority, 0);
+    }
+}
@@ -0,0 +1,59 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Number of mails in each {@link MailProcessState}. The counts are loaded from the storage at most once per refresh
+ * interval, however often gauges are scraped.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class QueueDepth {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueDepth.class);
+
+    private final MailStorage mailStorage;
+    private final long refreshIntervalNanos;
+
+    private volatile Map<MailProcessState, Long> counts = Collections.emptyMap();
+    private volatile long refreshedAt;
+    private volatile boolean loaded;
+
+    public QueueDepth(MailStorage mailStorage, Duration refreshInterval) {
+        this.mailStorage = mailStorage;
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+    }
+
+    /**
+     * @return the number of mails in the state as of the last refresh.
+     */
+    public long get(MailProcessState state) {
+        refreshIfOutdated();
+        return counts.getOrDefault(state, 0L);
+    }
+
+    private void refreshIfOutdated() {
+        if (loaded && System.nanoTime() - refreshedAt < refreshIntervalNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded && System.nanoTime() - refreshedAt < refreshIntervalNanos) {
+                return;
+            }
+            try {
+                counts = mailStorage.countByState();
+            } catch (RuntimeException e) {
+                // keep the last counts, a broken gauge must not break the scrape
+                log.warn("Could not count mails!", e);
+            }
+            refreshedAt = System.nanoTime();
+            loaded = true;
+        }
+    }
+}
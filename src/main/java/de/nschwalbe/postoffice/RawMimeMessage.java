@@ -0,0 +1,137 @@
+package de.nschwalbe.postoffice;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+
+import com.sun.mail.smtp.SMTPMessage;
+
+/**
+ * A stored mail which is sent as it was posted. Only the header block is read, the body is copied from the storage to
+ * the mail server without being parsed or encoded again. Sender and recipients stored with the {@link MailEnvelope}
+ * are given to the mail server, for mails stored without them java mail takes them from the headers as usual.
+ * <p>
+ * Headers can still be changed, e.g. java mail sets the date and drops the bcc header when sending. The body is read
+ * from the storage again for every write, so a message can be sent again after a broken connection.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class RawMimeMessage extends SMTPMessage {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final PersistedMail mail;
+    private final Address[] envelopeRecipients;
+
+    RawMimeMessage(Session session, PersistedMail mail) throws IOException, MessagingException {
+        super(session);
+        this.mail = mail;
+        try (InputStream in = new BufferedInputStream(mail.openMimeMessageContent())) {
+            headers = createInternetHeaders(in);
+        }
+        // a bounce address configured for the session wins, as it does for parsed messages
+        if (mail.getEnvelopeSender() != null && !hasConfiguredSender(session)) {
+            setEnvelopeFrom(mail.getEnvelopeSender());
+        }
+        envelopeRecipients = addresses(mail.getEnvelopeRecipients());
+        modified = false;
+        saved = true;
+    }
+
+    /**
+     * Converting text parts to 8bit changes the body, which a raw message can not do.
+     *
+     * @return true if mails can be sent as raw messages with the session.
+     */
+    static boolean isSupported(Session session) {
+        return !Boolean.parseBoolean(session.getProperty("mail.smtp.allow8bitmime"))
+            && !Boolean.parseBoolean(session.getProperty("mail.smtps.allow8bitmime"));
+    }
+
+    @Override
+    public Address[] getAllRecipients() throws MessagingException {
+        return envelopeRecipients != null ? envelopeRecipients.clone() : super.getAllRecipients();
+    }
+
+    /**
+     * The message was saved when it was posted, saving again would parse the body. Only a missing Message-ID is added,
+     * e.g. for mails posted as raw bytes without one.
+     */
+    @Override
+    public void saveChanges() throws MessagingException {
+        if (getHeader("Message-ID") == null) {
+            updateMessageID();
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+
+        Enumeration<?> headerLines = getNonMatchingHeaderLines(ignoreList);
+        while (headerLines.hasMoreElements()) {
+            // header lines are read and written as single bytes, like java mail does
+            os.write(((String) headerLines.nextElement()).getBytes(StandardCharsets.ISO_8859_1));
+            os.write(CRLF);
+        }
+        os.write(CRLF);
+
+        try (InputStream body = getContentStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        }
+        os.flush();
+    }
+
+    /**
+     * @return the stored body, without the stored headers.
+     */
+    @Override
+    protected InputStream getContentStream() throws MessagingException {
+        InputStream in;
+        try {
+            in = new BufferedInputStream(mail.openMimeMessageContent());
+        } catch (IOException e) {
+            throw new MessagingException("Error reading mime message content!", e);
+        }
+        try {
+            // skips the stored headers, these are written from the message
+            createInternetHeaders(in);
+            return in;
+        } catch (MessagingException | RuntimeException e) {
+            try {
+                in.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static Address[] addresses(List<String> recipients) throws MessagingException {
+        if (recipients == null) {
+            return null;
+        }
+        Address[] addresses = new Address[recipients.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = new InternetAddress(recipients.get(i), false);
+        }
+        return addresses;
+    }
+
+    private static boolean hasConfiguredSender(Session session) {
+        return session.getProperty("mail.smtp.from") != null || session.getProperty("mail.smtps.from") != null;
+    }
+}
@@ -0,0 +1,53 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When to try a mail again after sending it failed. The delay doubles with every attempt up to a maximum, and a random
+ * jitter of up to half the delay spreads out mails which failed at the same time, e.g. a whole batch to one domain.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class RetryPolicy {
+
+    private final int maxAttempts;
+    private final Duration initialDelay;
+    private final Duration maxDelay;
+
+    /**
+     * @param maxAttempts attempts after which a mail is failed for good.
+     * @param initialDelay delay after the first failed attempt.
+     * @param maxDelay delay at most, before the jitter.
+     */
+    RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("A mail needs at least one attempt.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    static RetryPolicy defaults() {
+        return new RetryPolicy(10, Duration.ofSeconds(30), Duration.ofHours(1));
+    }
+
+    boolean isExhausted(int attempts) {
+        return attempts >= maxAttempts;
+    }
+
+    /**
+     * @param attempts the failed attempts so far, at least 1.
+     */
+    Duration delay(int attempts) {
+        long delayMillis = initialDelay.toMillis();
+        for (int i = 1; i < attempts && delayMillis < maxDelay.toMillis(); i++) {
+            delayMillis *= 2;
+        }
+        delayMillis = Math.min(delayMillis, maxDelay.toMillis());
+        long half = delayMillis / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+}
@@ -1,23 +1,19 @@
 package de.nschwalbe.postoffice;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.List;
-
-import javax.mail.internet.MimeMessage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.config.AbstractFactoryBean;
 import org.springframework.core.env.Environment;
-import org.springframework.mail.MailAuthenticationException;
-import org.springframework.mail.MailException;
-import org.springframework.mail.MailSendException;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.Trigger;
 import org.springframework.scheduling.TriggerContext;
 import org.springframework.scheduling.config.TriggerTask;
@@ -30,13 +26,13 @@ import org.springframework.scheduling.config.TriggerTask;
  */
 class SendMailTaskFactory extends AbstractFactoryBean<TriggerTask> {
 
-    private final MailStorage mailStorage;
-    private final JavaMailSender javaMailSender;
+    private final LeaseKeeper leaseKeeper;
+    private final MailDelivery mailDelivery;
     private final Environment env;
 
-    SendMailTaskFactory(MailStorage mailStorage, JavaMailSender javaMailSender, Environment env) {
-        this.mailStorage = mailStorage;
-        this.javaMailSender = javaMailSender;
+    SendMailTaskFactory(LeaseKeeper leaseKeeper, MailDelivery mailDelivery, Environment env) {
+        this.leaseKeeper = leaseKeeper;
+        this.mailDelivery = mailDelivery;
         this.env = env;
     }
 
@@ -48,14 +44,15 @@ class SendMailTaskFactory extends AbstractFactoryBean<TriggerTask> {
     @Override
     protected TriggerTask createInstance() throws Exception {
         SendMailTrigger trigger = new SendMailTrigger(env.getProperty("postoffice.worker.delay", Integer.class, 10));
-        SendMailTask task = new SendMailTask(mailStorage, javaMailSender, trigger);
+        int batchSize = env.getProperty("postoffice.worker.batch-size", Integer.class, 50);
+        SendMailTask task = new SendMailTask(leaseKeeper, mailDelivery, trigger, batchSize);
         return new TriggerTask(task, trigger);
     }
 
     static class SendMailTrigger implements Trigger {
 
         private int defaultDelay;
-        private int delay;
+        private volatile int delay;
 
 
         SendMailTrigger(int delay) {
@@ -78,6 +75,10 @@ class SendMailTaskFactory extends AbstractFactoryBean<TriggerTask> {
             delay = defaultDelay;
         }
 
+        boolean isDelayIncreased() {
+            return delay > defaultDelay;
+        }
+
         @Override
         public Date nextExecutionTime(TriggerContext triggerContext) {
 
@@ -99,76 +100,119 @@ class SendMailTaskFactory extends AbstractFactoryBean<TriggerTask> {
 
         private Logger log = LoggerFactory.getLogger(SendMailTask.class);
 
-        private final MailStorage mailStorage;
-        private final JavaMailSender javaMailSender;
+        private final LeaseKeeper leaseKeeper;
+        private final MailDelivery mailDelivery;
         private final SendMailTrigger trigger;
+        private final int batchSize;
+
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final AtomicBoolean wakeUpScheduled = new AtomicBoolean();
+        private final AtomicBoolean refillScheduled = new AtomicBoolean();
+        private volatile boolean wokenUp;
+        private volatile Supplier<TaskScheduler> scheduler;
 
-        SendMailTask(MailStorage mailStorage, JavaMailSender javaMailSender,  SendMailTrigger trigger) {
-            this.mailStorage = mailStorage;
-            this.javaMailSender = javaMailSender;
+        SendMailTask(LeaseKeeper leaseKeeper, MailDelivery mailDelivery, SendMailTrigger trigger, int batchSize) {
+            this.leaseKeeper = leaseKeeper;
+            this.mailDelivery = mailDelivery;
             this.trigger = trigger;
+            this.batchSize = batchSize;
         }
 
-        public void run() {
-
-            log.trace("Start mail shipping ...");
-
-            List<String> mailIds = mailStorage.findNotSentIds();
-
-            if (!mailIds.isEmpty()) {
-                log.debug("Sending {} mails.", mailIds.size());
+        /**
+         * Runs the task right now on the given executor, unless the mail server is not usable at the moment. If the
+         * task is already running it makes another pass, so mails posted meanwhile are not left for the next poll.
+         */
+        void wakeUp(Executor executor) {
+            if (trigger.isDelayIncreased()) {
+                return;
+            }
+            wokenUp = true;
+            if (wakeUpScheduled.compareAndSet(false, true)) {
+                executor.execute(() -> {
+                    wakeUpScheduled.set(false);
+                    run();
+                });
             }
+        }
 
-            for (String mailId : mailIds) {
+        /**
+         * @param scheduler runs the task again once throttled domains may be sent to, instead of waiting for the next
+         * poll. Looked up when needed, it might not be resolved yet.
+         */
+        void setScheduler(Supplier<TaskScheduler> scheduler) {
+            this.scheduler = scheduler;
+        }
 
-                PersistedMail mail = mailStorage.findNotSentAndStartProgress(mailId);
+        public void run() {
 
-                if (mail == null) {
-                    log.warn("Mail with id {} is not found any more. Skipping it.", mailId);
-                    continue;
-                }
+            // the scheduler and a wake up might run the task at the same time, the running pass picks up the wake up
+            // (a wake up arriving while the pass finishes is left to the next poll)
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
 
-                if (mail.getState() != MailProcessState.IN_PROGRESS) {
-                    log.warn("Mail with id {} was not set to in_progress but is {}. Skipping it", mailId, mail.getState());
-                    continue;
-                }
+            try {
+                do {
+                    wokenUp = false;
+                    ship();
+                } while (wokenUp && !trigger.isDelayIncreased());
+            } finally {
+                running.set(false);
+            }
+            scheduleRefill();
+        }
 
-                try (InputStream in = new ByteArrayInputStream(mail.getMimeMessageContent())) {
+        // mails held back by the rate of their domain are sent as soon as the domain may be sent to again
+        private void scheduleRefill() {
+            Duration throttled = mailDelivery.untilThrottledDomainsOpen();
+            TaskScheduler taskScheduler = scheduler != null ? scheduler.get() : null;
+            if (throttled == null || taskScheduler == null || trigger.isDelayIncreased() || !refillScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            taskScheduler.schedule(() -> {
+                refillScheduled.set(false);
+                wokenUp = true;
+                run();
+            }, new Date(System.currentTimeMillis() + throttled.toMillis()));
+        }
 
-                    MimeMessage mimeMessage = javaMailSender.createMimeMessage(in);
-                    javaMailSender.send(mimeMessage);
-                    trigger.resetDelay();
-                    updateMail(mail, MailProcessState.SENT, null);
+        private void ship() {
 
-                } catch (IOException e) {
-                    log.error("Could not create MimeMessage from blob. Email could not be sent!", e);
-                    updateMail(mail, MailProcessState.FAILED, e.getMessage());
+            log.trace("Start mail shipping ...");
 
-                } catch (MailAuthenticationException e) {
-                    log.error("Could not send mail because of incorrect credentials. __Fix email configuration!__ Trying to send this email again later.", e);
-                    updateMail(mail, MailProcessState.NOT_SENT, e.getMessage());
-                    trigger.increaseDelay();
-                    break; // every other mail sending will also be failing
+            List<? extends PersistedMail> mails;
+            do {
+                mails = leaseKeeper.claim(batchSize, mailDelivery.getBlockedDomains());
 
-                } catch (MailSendException e) {
-                    log.error("Could not send mail because of a network error! Trying again later.", e);
-                    updateMail(mail, MailProcessState.NOT_SENT, e.getMessage());
-                    trigger.increaseDelay();
-                    break; // every other mail sending will also be failing
+                if (!mails.isEmpty()) {
+                    log.debug("Sending {} mails.", mails.size());
+                }
 
-                } catch (MailException e) {
-                    log.error("Email cannot be send and is thrown away!", e);
-                    updateMail(mail, MailProcessState.FAILED, e.getMessage());
+                // a deferring or throttled domain only holds up its own mails, the batch goes on
+                try {
+                    for (int i = 0; i < mails.size(); i++) {
+
+                        MailDelivery.Result result = mailDelivery.deliver(mails.get(i));
+
+                        if (result == MailDelivery.Result.SENT) {
+                            trigger.resetDelay();
+                        }
+                        else if (result == MailDelivery.Result.SERVER_UNAVAILABLE) {
+                            trigger.increaseDelay();
+                            // every other mail sending will also be failing, give the remaining claimed mails back
+                            mails.subList(i + 1, mails.size()).forEach(mailDelivery::giveBack);
+                            log.trace("Stopped mail shipping.");
+                            return;
+                        }
+                    }
+                } finally {
+                    mailDelivery.flushResults();
                 }
-            }
 
-            log.trace("Finished mail shipping.");
-        }
+            } while (mails.size() == batchSize);
 
-        private void updateMail(PersistedMail mail, MailProcessState state, String message) {
-            mail.setState(state);
-            mail.setErrorMessage(message);
-            mailStorage.update(mail);
+            mailDelivery.closeIdleConnections();
+            log.trace("Finished mail shipping.");
         }
     }
 }
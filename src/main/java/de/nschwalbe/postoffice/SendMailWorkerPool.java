@@ -0,0 +1,224 @@
+package de.nschwalbe.postoffice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Parallel mail sending. One claimer thread claims batches of mails from the storage and feeds them into a bounded
+ * queue, a fixed number of worker threads take the mails from the queue and send them. Runs on its own threads and
+ * not on the spring task scheduler.
+ * <p>
+ * Every worker backs off on its own if the mail server is not usable, so the throughput scales with the number of
+ * connections the mail server accepts. Mails to throttled recipient domains are not claimed until the domain may be
+ * sent to again.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class SendMailWorkerPool implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(SendMailWorkerPool.class);
+
+    private final LeaseKeeper leaseKeeper;
+    private final MailDelivery mailDelivery;
+    private final int concurrency;
+    private final int batchSize;
+    private final long idleDelayMillis;
+
+    private final BlockingQueue<PersistedMail> queue = new LinkedBlockingQueue<>();
+
+    // queued and currently sent mails may not exceed the queue capacity
+    private final Semaphore freeSlots;
+
+    // released when a mail was posted or held back by its domain while the claimer is idle
+    private final Semaphore wakeUps = new Semaphore(0);
+
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    SendMailWorkerPool(LeaseKeeper leaseKeeper, MailDelivery mailDelivery, DeliverySignal deliverySignal,
+                       int concurrency, int queueCapacity, int batchSize, int idleDelay) {
+        if (concurrency < 1 || queueCapacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Concurrency, queue capacity and batch size must be at least 1.");
+        }
+        this.leaseKeeper = leaseKeeper;
+        this.mailDelivery = mailDelivery;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.idleDelayMillis = TimeUnit.SECONDS.toMillis(idleDelay);
+        this.freeSlots = new Semaphore(queueCapacity);
+        deliverySignal.addWorker(this::wakeUp);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        executor = Executors.newFixedThreadPool(concurrency + 1, new CustomizableThreadFactory("postoffice-"));
+        executor.execute(this::claim);
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(new Worker());
+        }
+        log.info("Started {} mail workers.", concurrency);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Mail workers did not terminate in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<PersistedMail> unsent = new ArrayList<>();
+        queue.drainTo(unsent);
+        unsent.forEach(mailDelivery::giveBack);
+        mailDelivery.flushResults();
+        log.info("Stopped mail workers, gave back {} queued mails.", unsent.size());
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    private void wakeUp() {
+        if (wakeUps.availablePermits() == 0) {
+            wakeUps.release();
+        }
+    }
+
+    private void claim() {
+        while (running) {
+            try {
+                freeSlots.acquire();
+                int size = Math.min(batchSize, 1 + freeSlots.drainPermits());
+
+                List<? extends PersistedMail> mails = claimBatch(size);
+                freeSlots.release(size - mails.size());
+
+                if (!mails.isEmpty()) {
+                    log.debug("Queueing {} mails.", mails.size());
+                    queue.addAll(mails);
+                }
+
+                if (mails.size() < size) {
+                    mailDelivery.closeIdleConnections();
+                    wakeUps.tryAcquire(idleDelay(), TimeUnit.MILLISECONDS);
+                    wakeUps.drainPermits();
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // mails of throttled domains are claimed as soon as their domain may be sent to again
+    private long idleDelay() {
+        Duration throttled = mailDelivery.untilThrottledDomainsOpen();
+        return throttled != null ? Math.max(1, Math.min(idleDelayMillis, throttled.toMillis())) : idleDelayMillis;
+    }
+
+    private List<? extends PersistedMail> claimBatch(int size) throws InterruptedException {
+        try {
+            return leaseKeeper.claim(size, mailDelivery.getBlockedDomains());
+        } catch (RuntimeException e) {
+            log.error("Could not claim mails! Trying again later.", e);
+            Thread.sleep(idleDelayMillis);
+            return new ArrayList<>();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private int backoffSeconds;
+
+        @Override
+        public void run() {
+            while (running) {
+                PersistedMail mail;
+                try {
+                    mail = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                try {
+                    MailDelivery.Result result = mailDelivery.deliver(mail);
+                    if (result == MailDelivery.Result.SERVER_UNAVAILABLE) {
+                        mailDelivery.flushResults();
+                        backOff();
+                    }
+                    else if (result == MailDelivery.Result.SENT || result == MailDelivery.Result.FAILED) {
+                        backoffSeconds = 0;
+                    }
+                    else if (result == MailDelivery.Result.THROTTLED) {
+                        // the claimer waits for the domain instead of the next poll then
+                        wakeUp();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("Unexpected error while sending mail " + mail.getId() + "! Trying again later.", e);
+                    // otherwise the lease keeper would renew its lease forever
+                    mailDelivery.giveBackUnfinished(mail);
+                } finally {
+                    freeSlots.release();
+                }
+
+                // the batch is done, store the outcomes before going idle
+                if (queue.isEmpty()) {
+                    mailDelivery.flushResults();
+                }
+            }
+        }
+
+        // wait 30s, then 60s, then 90s ... but at most 5 minutes, like the sequential worker
+        private void backOff() throws InterruptedException {
+            backoffSeconds = Math.min(backoffSeconds + 30, 300);
+            log.debug("Mail worker backs off for {} seconds.", backoffSeconds);
+            TimeUnit.SECONDS.sleep(backoffSeconds);
+        }
+    }
+}
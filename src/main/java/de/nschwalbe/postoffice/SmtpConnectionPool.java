@@ -0,0 +1,246 @@
+package de.nschwalbe.postoffice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+/**
+ * Keeps smtp connections open and sends many messages through each of them, so connect, EHLO, STARTTLS and AUTH are
+ * not done for every single mail. A connection is used by one thread at a time. It is closed after
+ * {@code maxMessagesPerConnection} messages or when it was not used for {@code idleTimeout} seconds.
+ * <p>
+ * If a reused connection turns out to be broken, the message is sent again over a new connection.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class SmtpConnectionPool implements MailTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpConnectionPool.class);
+
+    private final JavaMailSenderImpl javaMailSender;
+    private final int maxMessagesPerConnection;
+    private final long idleTimeoutMillis;
+
+    private final Deque<Connection> idleConnections = new ArrayDeque<>();
+    private final AtomicInteger openedConnections = new AtomicInteger();
+
+    SmtpConnectionPool(JavaMailSenderImpl javaMailSender, int maxMessagesPerConnection, int idleTimeout) {
+        this.javaMailSender = javaMailSender;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeout);
+    }
+
+    /**
+     * Sends the message with a pooled connection.
+     *
+     * @throws MailException like {@link JavaMailSenderImpl#send(MimeMessage)} would.
+     */
+    @Override
+    public void send(MimeMessage mimeMessage) throws MailException {
+
+        Address[] recipients = prepare(mimeMessage);
+
+        Connection connection = borrow();
+        boolean reused = connection != null;
+        if (!reused) {
+            connection = connect();
+        }
+
+        try {
+            connection.send(mimeMessage, recipients);
+        } catch (MessagingException e) {
+            if (isRejected(e)) {
+                giveBack(connection);
+                throw new MailSendException("Failed to send mail: " + e.getMessage(), e);
+            }
+            connection.close();
+            if (!reused) {
+                throw new MailSendException("Failed to send mail: " + e.getMessage(), e);
+            }
+            log.debug("Reused smtp connection is broken, sending again over a new connection.", e);
+            sendOverNewConnection(mimeMessage, recipients);
+            return;
+        }
+        giveBack(connection);
+    }
+
+    /**
+     * Closes all connections which are not used any more.
+     */
+    @Override
+    public void closeIdle() {
+        long now = System.currentTimeMillis();
+        List<Connection> expired = new ArrayList<>();
+        synchronized (idleConnections) {
+            idleConnections.removeIf(connection -> {
+                if (connection.isIdle(now)) {
+                    expired.add(connection);
+                    return true;
+                }
+                return false;
+            });
+        }
+        expired.forEach(Connection::close);
+    }
+
+    @Override
+    public void close() {
+        List<Connection> connections;
+        synchronized (idleConnections) {
+            connections = new ArrayList<>(idleConnections);
+            idleConnections.clear();
+        }
+        connections.forEach(Connection::close);
+    }
+
+    int getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    private void sendOverNewConnection(MimeMessage mimeMessage, Address[] recipients) {
+        Connection connection = connect();
+        try {
+            connection.send(mimeMessage, recipients);
+        } catch (MessagingException e) {
+            if (isRejected(e)) {
+                giveBack(connection);
+            }
+            else {
+                connection.close();
+            }
+            throw new MailSendException("Failed to send mail: " + e.getMessage(), e);
+        }
+        giveBack(connection);
+    }
+
+    // the server answered and rejected the message or a recipient, the connection is still fine. A connection which
+    // died while sending is reported as a send failure too, but without a reply of the server.
+    private static boolean isRejected(MessagingException e) {
+        return e instanceof SendFailedException && !SmtpReplies.isConnectionLost(e);
+    }
+
+    // same preparation as JavaMailSenderImpl does before sending
+    private Address[] prepare(MimeMessage mimeMessage) {
+        try {
+            if (mimeMessage.getSentDate() == null) {
+                mimeMessage.setSentDate(new Date());
+            }
+            String messageId = mimeMessage.getMessageID();
+            mimeMessage.saveChanges();
+            if (messageId != null) {
+                mimeMessage.setHeader("Message-ID", messageId);
+            }
+            Address[] recipients = mimeMessage.getAllRecipients();
+            return recipients != null ? recipients : new Address[0];
+        } catch (MessagingException e) {
+            throw new MailPreparationException(e);
+        }
+    }
+
+    private Connection borrow() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Connection connection;
+            synchronized (idleConnections) {
+                connection = idleConnections.pollFirst();
+            }
+            if (connection == null) {
+                return null;
+            }
+            // no isConnected() check here, smtp would ping the server for it
+            if (!connection.isIdle(now)) {
+                return connection;
+            }
+            connection.close();
+        }
+    }
+
+    private void giveBack(Connection connection) {
+        if (connection.sentMessages >= maxMessagesPerConnection) {
+            connection.close();
+            return;
+        }
+        synchronized (idleConnections) {
+            idleConnections.addFirst(connection);
+        }
+    }
+
+    private Connection connect() {
+        String username = javaMailSender.getUsername();
+        String password = javaMailSender.getPassword();
+        if ("".equals(username)) {
+            username = null;
+            if ("".equals(password)) {
+                password = null;
+            }
+        }
+
+        try {
+            Transport transport = javaMailSender.getSession().getTransport(protocol());
+            transport.connect(javaMailSender.getHost(), javaMailSender.getPort(), username, password);
+            openedConnections.incrementAndGet();
+            return new Connection(transport);
+        } catch (AuthenticationFailedException e) {
+            throw new MailAuthenticationException(e);
+        } catch (NoSuchProviderException e) {
+            throw new MailSendException("Unknown mail protocol " + protocol(), e);
+        } catch (MessagingException e) {
+            throw new MailSendException("Mail server connection failed", e);
+        }
+    }
+
+    private String protocol() {
+        String protocol = javaMailSender.getProtocol();
+        return protocol != null ? protocol : JavaMailSenderImpl.DEFAULT_PROTOCOL;
+    }
+
+    private class Connection {
+
+        private final Transport transport;
+        private int sentMessages;
+        private long lastUsed = System.currentTimeMillis();
+
+        Connection(Transport transport) {
+            this.transport = transport;
+        }
+
+        void send(MimeMessage mimeMessage, Address[] recipients) throws MessagingException {
+            sentMessages++;
+            lastUsed = System.currentTimeMillis();
+            transport.sendMessage(mimeMessage, recipients);
+        }
+
+        boolean isIdle(long now) {
+            return now - lastUsed > idleTimeoutMillis;
+        }
+
+        void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.debug("Could not close smtp connection.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package de.nschwalbe.postoffice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+
+/**
+ * Sends mails over several smtp relays. Each message goes to one relay chosen by weight or by the fewest messages in
+ * flight. A relay which can not be connected to or authenticated with is left out by its {@link CircuitBreaker} for a
+ * while, and the message is sent over the next relay right away. Only if no relay takes the message the error is
+ * passed on and the worker backs off.
+ * <p>
+ * A relay refusing the message or its recipients is working, the error is passed on without trying other relays.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class SmtpRelays implements MailTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpRelays.class);
+
+    enum Strategy {
+
+        /**
+         * Each relay gets a share of the messages by its weight, spread evenly over time.
+         */
+        WEIGHTED,
+
+        /**
+         * Each message goes to the relay with the fewest messages in flight relative to its weight.
+         */
+        LEAST_OUTSTANDING
+    }
+
+    private final List<Relay> relays;
+    private final Strategy strategy;
+
+    SmtpRelays(List<Relay> relays, Strategy strategy) {
+        if (relays.isEmpty()) {
+            throw new IllegalArgumentException("At least one smtp relay is needed.");
+        }
+        this.relays = relays;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Sends the message over the first relay which takes it.
+     *
+     * @throws MailException of the last relay tried, or a {@link MailSendException} if the circuits of all relays are open.
+     */
+    @Override
+    public void send(MimeMessage mimeMessage) throws MailException {
+
+        List<Relay> tried = new ArrayList<>(relays.size());
+        MailException lastError = null;
+
+        Relay relay;
+        while ((relay = select(tried)) != null) {
+            tried.add(relay);
+            try {
+                if (!relay.breaker.tryAcquire()) {
+                    continue;
+                }
+                relay.send(mimeMessage);
+                succeeded(relay);
+                return;
+            } catch (MailSendException e) {
+                if (MailDelivery.isRejected(e)) {
+                    succeeded(relay);
+                    throw e;
+                }
+                failed(relay, e);
+                lastError = e;
+            } catch (MailAuthenticationException e) {
+                failed(relay, e);
+                lastError = e;
+            } catch (RuntimeException e) {
+                // e.g. an unpreparable message, not the fault of the relay
+                relay.breaker.onCancel();
+                throw e;
+            } finally {
+                relay.outstanding.decrementAndGet();
+            }
+        }
+
+        if (lastError != null) {
+            throw lastError;
+        }
+        throw new MailSendException("No smtp relay available, the circuits of all relays are open.");
+    }
+
+    @Override
+    public void closeIdle() {
+        relays.forEach(relay -> relay.transport.closeIdle());
+    }
+
+    @Override
+    public void close() {
+        relays.forEach(relay -> relay.transport.close());
+    }
+
+    List<Relay> getRelays() {
+        return relays;
+    }
+
+    // counts the message as outstanding on the selected relay right away, so concurrent selections see it
+    private synchronized Relay select(List<Relay> tried) {
+
+        List<Relay> candidates = new ArrayList<>(relays.size());
+        for (Relay relay : relays) {
+            if (!tried.contains(relay) && relay.breaker.isAvailable()) {
+                candidates.add(relay);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        Relay selected = candidates.get(0);
+        if (strategy == Strategy.LEAST_OUTSTANDING) {
+            for (Relay candidate : candidates) {
+                // outstanding / weight compared without division
+                if ((long) candidate.outstanding.get() * selected.weight < (long) selected.outstanding.get() * candidate.weight) {
+                    selected = candidate;
+                }
+            }
+        }
+        else {
+            // smooth weighted round robin, every candidate gains its weight and the chosen one pays the total
+            int totalWeight = 0;
+            for (Relay candidate : candidates) {
+                candidate.currentWeight += candidate.weight;
+                totalWeight += candidate.weight;
+                if (candidate.currentWeight > selected.currentWeight) {
+                    selected = candidate;
+                }
+            }
+            selected.currentWeight -= totalWeight;
+        }
+        selected.outstanding.incrementAndGet();
+        return selected;
+    }
+
+    private void succeeded(Relay relay) {
+        if (relay.breaker.onSuccess()) {
+            log.info("Smtp relay {} works again.", relay.name);
+        }
+    }
+
+    private void failed(Relay relay, MailException e) {
+        if (relay.breaker.onFailure()) {
+            log.warn("Smtp relay {} is not used for a while because it failed: {}", relay.name, e.getMessage());
+        }
+        else {
+            log.debug("Smtp relay {} failed, trying the next relay.", relay.name, e);
+        }
+    }
+
+    /**
+     * One mail server to send mails over.
+     */
+    static class Relay {
+
+        private final String name;
+        private final MailTransport transport;
+        private final int weight;
+        private final Semaphore connections;
+        private final CircuitBreaker breaker;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+        // guarded by the relays
+        private int currentWeight;
+
+        /**
+         * @param name host and port of the relay, for logging.
+         * @param transport sends the mails to the relay, over pooled connections or a new one for every mail.
+         * @param weight share of the messages compared to the other relays.
+         * @param maxConnections number of messages sent at the same time, 0 for no limit.
+         */
+        Relay(String name, MailTransport transport, int weight, int maxConnections, CircuitBreaker breaker) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("The weight of a relay must be positive.");
+            }
+            this.name = name;
+            this.transport = transport;
+            this.weight = weight;
+            this.connections = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+            this.breaker = breaker;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        CircuitBreaker getBreaker() {
+            return breaker;
+        }
+
+        private void send(MimeMessage mimeMessage) {
+            if (connections != null) {
+                connections.acquireUninterruptibly();
+            }
+            try {
+                transport.send(mimeMessage);
+            } finally {
+                if (connections != null) {
+                    connections.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.nschwalbe.postoffice;
+
+import javax.mail.MessagingException;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Reads the reply codes of the smtp server from the exceptions of java mail.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+final class SmtpReplies {
+
+    private SmtpReplies() {
+    }
+
+    /**
+     * Java mail reports a connection which died while sending as a send failure with the reply code -1 and the
+     * response {@code [EOF]}, the server never answered.
+     *
+     * @return true if the exception or one of its next exceptions has no reply of the server.
+     */
+    static boolean isConnectionLost(MessagingException e) {
+        for (Exception current = e; current != null; current = next(current)) {
+            if (replyCode(current) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A mail refused for some recipients with 5xx and for others with 4xx is deferred, it may still go through later.
+     *
+     * @return true if the server refused the message or its recipients with permanent replies only.
+     */
+    static boolean isPermanent(MessagingException e) {
+        boolean permanent = false;
+        for (Exception current = e; current != null; current = next(current)) {
+            int code = replyCode(current);
+            if (code >= 400 && code < 500) {
+                return false;
+            }
+            permanent |= code >= 500;
+        }
+        return permanent;
+    }
+
+    /**
+     * @return the reply code of the server, -1 if the server did not answer, 0 if the exception has no reply code.
+     */
+    static int replyCode(Exception e) {
+        if (e instanceof SMTPSendFailedException) {
+            return ((SMTPSendFailedException) e).getReturnCode();
+        }
+        if (e instanceof SMTPAddressFailedException) {
+            return ((SMTPAddressFailedException) e).getReturnCode();
+        }
+        return 0;
+    }
+
+    static Exception next(Exception e) {
+        return e instanceof MessagingException ? ((MessagingException) e).getNextException() : null;
+    }
+}
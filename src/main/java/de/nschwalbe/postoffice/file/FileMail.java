@@ -0,0 +1,341 @@
+package de.nschwalbe.postoffice.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
+import de.nschwalbe.postoffice.MailProcessState;
+import de.nschwalbe.postoffice.PersistedMail;
+
+/**
+ * A mail in the file journal. The storage keeps one instance per mail in its index, callers get copies.
+ * <p>
+ * A mail is journaled as a snapshot with the content when it is created or moved by compaction, and as a small state
+ * record on every change afterwards. Owner and lease are not journaled, after a restart no mail is in progress.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class FileMail implements PersistedMail {
+
+    static final byte SNAPSHOT = 1;
+    static final byte STATE = 2;
+    static final byte DELETE = 3;
+
+    private final String id;
+    private final long sequence;
+    private final LocalDateTime createdDate;
+    private LocalDateTime lastModifiedDate;
+
+    private MailProcessState state = MailProcessState.NOT_SENT;
+    private String errorMessage;
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+
+    private final String recipientDomain;
+    private final MailPriority priority;
+
+    private String owner;
+    private LocalDateTime leaseExpiresAt;
+
+    // where the content and the snapshot holding it are in the journal
+    private Journal.Location contentLocation;
+    private int contentLength;
+    private int snapshotSize;
+
+    FileMail(String id, long sequence, LocalDateTime createdDate, MailEnvelope envelope) {
+        this.id = id;
+        this.sequence = sequence;
+        this.createdDate = createdDate;
+        this.nextAttemptAt = createdDate;
+        this.recipientDomain = envelope.getRecipientDomain();
+        this.priority = envelope.getPriority();
+    }
+
+    private FileMail(FileMail mail) {
+        this.id = mail.id;
+        this.sequence = mail.sequence;
+        this.createdDate = mail.createdDate;
+        this.recipientDomain = mail.recipientDomain;
+        this.priority = mail.priority;
+        this.contentLocation = mail.contentLocation;
+        this.contentLength = mail.contentLength;
+        this.snapshotSize = mail.snapshotSize;
+        copyStateOf(mail);
+    }
+
+    FileMail copy() {
+        return new FileMail(this);
+    }
+
+    /**
+     * Takes over everything which can change while a mail is sent.
+     */
+    void copyStateOf(FileMail mail) {
+        this.lastModifiedDate = mail.lastModifiedDate;
+        this.state = mail.state;
+        this.errorMessage = mail.errorMessage;
+        this.attempts = mail.attempts;
+        this.nextAttemptAt = mail.nextAttemptAt;
+        this.owner = mail.owner;
+        this.leaseExpiresAt = mail.leaseExpiresAt;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public LocalDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    @Override
+    public LocalDateTime getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    void setLastModifiedDate(LocalDateTime lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    @Override
+    public byte[] getMimeMessageContent() {
+        return contentLocation.read(contentLength);
+    }
+
+    @Override
+    public MailProcessState getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(MailProcessState state) {
+        this.state = state;
+        if (state != MailProcessState.IN_PROGRESS) {
+            this.owner = null;
+            this.leaseExpiresAt = null;
+        }
+    }
+
+    @Override
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    @Override
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    @Override
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public void recordFailedAttempt(LocalDateTime nextAttemptAt) {
+        this.attempts++;
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    LocalDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    @Override
+    public String getRecipientDomain() {
+        return recipientDomain;
+    }
+
+    @Override
+    public MailPriority getPriority() {
+        return priority;
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    void startProgress(String owner, LocalDateTime leaseExpiresAt) {
+        this.state = MailProcessState.IN_PROGRESS;
+        this.owner = owner;
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    void renewLease(LocalDateTime leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    Journal.Segment getSegment() {
+        return contentLocation.getSegment();
+    }
+
+    int getSnapshotSize() {
+        return snapshotSize;
+    }
+
+    /**
+     * Appends a snapshot of the mail with its content and remembers where it went.
+     */
+    void writeSnapshot(Journal journal, byte[] content) {
+        RecordOutput out = new RecordOutput(SNAPSHOT, id);
+        out.writeLong(sequence);
+        out.writeDate(createdDate);
+        out.writeString(recipientDomain);
+        out.writeString(priority.name());
+        writeState(out);
+        out.writeInt(content.length);
+        int contentOffset = out.size();
+        out.write(content);
+
+        byte[] body = out.toByteArray();
+        contentLocation = journal.append(body).plus(contentOffset);
+        contentLength = content.length;
+        snapshotSize = body.length;
+    }
+
+    void writeState(Journal journal) {
+        RecordOutput out = new RecordOutput(STATE, id);
+        writeState(out);
+        journal.append(out.toByteArray());
+    }
+
+    static void writeDelete(Journal journal, String id) {
+        journal.append(new RecordOutput(DELETE, id).toByteArray());
+    }
+
+    static byte readType(ByteBuffer body) {
+        return body.get();
+    }
+
+    static String readId(ByteBuffer body) {
+        return readString(body);
+    }
+
+    /**
+     * Reads a snapshot record, the type and id are already read.
+     */
+    static FileMail readSnapshot(String id, ByteBuffer body, Journal.Location location) {
+        long sequence = body.getLong();
+        LocalDateTime createdDate = readDate(body);
+        String recipientDomain = readString(body);
+        MailPriority priority = MailPriority.valueOf(readString(body));
+
+        FileMail mail = new FileMail(id, sequence, createdDate, MailEnvelope.of(recipientDomain).withPriority(priority));
+        mail.readState(body);
+        mail.contentLength = body.getInt();
+        mail.contentLocation = location.plus(body.position());
+        mail.snapshotSize = body.limit();
+        return mail;
+    }
+
+    /**
+     * Reads a state record, the type and id are already read.
+     */
+    void readState(ByteBuffer body) {
+        lastModifiedDate = readDate(body);
+        state = MailProcessState.valueOf(readString(body));
+        errorMessage = readString(body);
+        attempts = body.getInt();
+        nextAttemptAt = readDate(body);
+    }
+
+    private void writeState(RecordOutput out) {
+        out.writeDate(lastModifiedDate);
+        out.writeString(state.name());
+        out.writeString(errorMessage);
+        out.writeInt(attempts);
+        out.writeDate(nextAttemptAt);
+    }
+
+    private static String readString(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static LocalDateTime readDate(ByteBuffer body) {
+        long millis = body.getLong();
+        return millis == Long.MIN_VALUE ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    // big endian like ByteBuffer, strings and dates may be null
+    private static class RecordOutput {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        RecordOutput(byte type, String id) {
+            write(new byte[] {type});
+            writeString(id);
+        }
+
+        void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void write(byte[] value) {
+            try {
+                out.write(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(encoded.length);
+            write(encoded);
+        }
+
+        void writeDate(LocalDateTime value) {
+            writeLong(value == null ? Long.MIN_VALUE : value.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
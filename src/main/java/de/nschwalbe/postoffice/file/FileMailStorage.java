@@ -0,0 +1,381 @@
+package de.nschwalbe.postoffice.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.mail.MessagingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
+import de.nschwalbe.postoffice.MailProcessState;
+import de.nschwalbe.postoffice.MailStorage;
+import de.nschwalbe.postoffice.MimeMessageWriter;
+import de.nschwalbe.postoffice.PersistedMail;
+import de.nschwalbe.postoffice.PriorityShares;
+
+/**
+ * Stores mails in a journal on the local disk, for services which send mails but have no mongodb. All mails are
+ * indexed in memory, only their content stays in the memory mapped journal.
+ * <p>
+ * Only one process can use a journal directory, so claims and leases are kept in memory and mails in progress are
+ * due again after a restart. Whenever the journal starts a new segment the oldest one is compacted: once less than the
+ * compaction threshold of it is still needed, the mails in it are written again and the segment file is deleted.
+ * Sent and failed mails are removed once the retention of their state ran out, like the mongo storage does. Mails
+ * still to be sent are never removed, however long the process was down.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class FileMailStorage implements MailStorage, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileMailStorage.class);
+
+    private static final Comparator<FileMail> DUE_ORDER = Comparator
+        .comparing(FileMail::getNextAttemptAt, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+        .thenComparingLong(FileMail::getSequence);
+
+    private final Journal journal;
+    private final PriorityShares priorityShares;
+    private final Map<MailProcessState, Duration> retentions = new EnumMap<>(MailProcessState.class);
+    private final double compactionThreshold;
+
+    // guarded by this
+    private final Map<String, FileMail> mails = new HashMap<>();
+    private final Map<MailPriority, TreeSet<FileMail>> notSent = new EnumMap<>(MailPriority.class);
+    private long sequence;
+    private long activeSegment;
+
+    FileMailStorage(Journal journal) throws IOException {
+        this(journal, PriorityShares.defaults(), Duration.ofDays(3), Duration.ofDays(3), 0.5);
+    }
+
+    /**
+     * @param sentRetention how long to keep mails after they were sent.
+     * @param failedRetention how long to keep mails after they failed.
+     * @param compactionThreshold share of the oldest segment which may still be needed when it is compacted.
+     */
+    FileMailStorage(Journal journal, PriorityShares priorityShares, Duration sentRetention, Duration failedRetention, double compactionThreshold)
+        throws IOException {
+        this.journal = journal;
+        this.priorityShares = priorityShares;
+        this.retentions.put(MailProcessState.SENT, sentRetention);
+        this.retentions.put(MailProcessState.FAILED, failedRetention);
+        this.compactionThreshold = compactionThreshold;
+
+        for (MailPriority priority : MailPriority.values()) {
+            notSent.put(priority, new TreeSet<>(DUE_ORDER));
+        }
+
+        journal.replay(this::replay);
+        expire();
+        for (FileMail mail : mails.values()) {
+            // nobody holds a claim any more
+            if (mail.getState() == MailProcessState.IN_PROGRESS) {
+                mail.setState(MailProcessState.NOT_SENT);
+            }
+            if (mail.getState() == MailProcessState.NOT_SENT) {
+                notSent.get(mail.getPriority()).add(mail);
+            }
+            sequence = Math.max(sequence, mail.getSequence() + 1);
+        }
+        activeSegment = journal.getActive().getNumber();
+        log.info("Loaded {} mails from the journal in {} segments.", mails.size(), journal.getSegmentCount());
+    }
+
+    @Override
+    public FileMail create(byte[] mimeMessageContent) {
+        return createAll(Collections.singletonList(mimeMessageContent), Collections.singletonList(MailEnvelope.UNKNOWN)).get(0);
+    }
+
+    @Override
+    public FileMail create(MimeMessageWriter writer, MailEnvelope envelope) throws IOException, MessagingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return createAll(Collections.singletonList(out.toByteArray()), Collections.singletonList(envelope)).get(0);
+    }
+
+    @Override
+    public List<FileMail> createAll(List<byte[]> mimeMessageContents) {
+        return createAll(mimeMessageContents, Collections.nCopies(mimeMessageContents.size(), MailEnvelope.UNKNOWN));
+    }
+
+    /**
+     * Appends all mails and waits for one sync of the journal.
+     */
+    @Override
+    public List<FileMail> createAll(List<byte[]> mimeMessageContents, List<MailEnvelope> envelopes) {
+
+        List<FileMail> created = new ArrayList<>(mimeMessageContents.size());
+        long ticket;
+        synchronized (this) {
+            LocalDateTime now = LocalDateTime.now();
+            for (int i = 0; i < mimeMessageContents.size(); i++) {
+                FileMail mail = new FileMail(UUID.randomUUID().toString(), sequence++, now, envelopes.get(i));
+                mail.writeSnapshot(journal, mimeMessageContents.get(i));
+                mails.put(mail.getId(), mail);
+                notSent.get(mail.getPriority()).add(mail);
+                created.add(mail.copy());
+            }
+            ticket = journal.getAppended();
+            compactIfRolled();
+        }
+        journal.awaitSync(ticket);
+        return created;
+    }
+
+    @Deprecated
+    @Override
+    public synchronized List<String> findNotSentIds() {
+        return notSent.values().stream()
+            .flatMap(Collection::stream)
+            .map(FileMail::getId)
+            .collect(Collectors.toList());
+    }
+
+    @Deprecated
+    @Override
+    public synchronized FileMail findNotSentAndStartProgress(String mailId) {
+        FileMail mail = mails.get(mailId);
+        if (mail == null || mail.getState() != MailProcessState.NOT_SENT) {
+            return null;
+        }
+        notSent.get(mail.getPriority()).remove(mail);
+        mail.startProgress(null, null);
+        return mail.copy();
+    }
+
+    @Override
+    public List<FileMail> claimBatch(int maxSize, String owner, Duration lease) {
+        return claimBatch(maxSize, owner, lease, Collections.emptyList());
+    }
+
+    /**
+     * Claims the mails due the longest in each priority lane. Claims are not journaled, see the class comment.
+     */
+    @Override
+    public synchronized List<FileMail> claimBatch(int maxSize, String owner, Duration lease, Collection<String> excludedDomains) {
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<MailPriority, List<FileMail>> dueMails = new EnumMap<>(MailPriority.class);
+        Map<MailPriority, Integer> due = new EnumMap<>(MailPriority.class);
+        for (MailPriority priority : MailPriority.values()) {
+            List<FileMail> lane = new ArrayList<>();
+            for (FileMail mail : notSent.get(priority)) {
+                if (lane.size() == maxSize || mail.getNextAttemptAt() != null && mail.getNextAttemptAt().isAfter(now)) {
+                    break;
+                }
+                if (!excludedDomains.contains(mail.getRecipientDomain())) {
+                    lane.add(mail);
+                }
+            }
+            dueMails.put(priority, lane);
+            due.put(priority, lane.size());
+        }
+
+        List<FileMail> claimed = new ArrayList<>(maxSize);
+        LocalDateTime leaseExpiresAt = now.plus(lease);
+        priorityShares.allocate(maxSize, due).forEach((priority, share) -> {
+            for (FileMail mail : dueMails.get(priority).subList(0, share)) {
+                notSent.get(priority).remove(mail);
+                mail.startProgress(owner, leaseExpiresAt);
+                claimed.add(mail.copy());
+            }
+        });
+        return claimed;
+    }
+
+    @Override
+    public synchronized void renewLeases(Collection<String> mailIds, String owner, Duration lease) {
+        LocalDateTime leaseExpiresAt = LocalDateTime.now().plus(lease);
+        for (String mailId : mailIds) {
+            FileMail mail = mails.get(mailId);
+            if (mail != null && mail.getState() == MailProcessState.IN_PROGRESS && owner.equals(mail.getOwner())) {
+                mail.renewLease(leaseExpiresAt);
+            }
+        }
+    }
+
+    @Override
+    public synchronized int releaseExpiredLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        int released = 0;
+        for (FileMail mail : mails.values()) {
+            if (mail.getState() == MailProcessState.IN_PROGRESS && mail.getLeaseExpiresAt() != null && mail.getLeaseExpiresAt().isBefore(now)) {
+                mail.setState(MailProcessState.NOT_SENT);
+                notSent.get(mail.getPriority()).add(mail);
+                released++;
+            }
+        }
+        return released;
+    }
+
+    @Override
+    public synchronized Map<MailProcessState, Long> countByState() {
+        return mails.values().stream().collect(Collectors.groupingBy(FileMail::getState, () -> new EnumMap<>(MailProcessState.class), Collectors.counting()));
+    }
+
+    @Override
+    public void delete(String id) {
+        long ticket;
+        synchronized (this) {
+            FileMail mail = mails.remove(id);
+            if (mail == null) {
+                return;
+            }
+            notSent.get(mail.getPriority()).remove(mail);
+            FileMail.writeDelete(journal, id);
+            ticket = journal.getAppended();
+            compactIfRolled();
+        }
+        journal.awaitSync(ticket);
+    }
+
+    /**
+     * Stores the state of a mail of this storage. Changes to in progress are not journaled.
+     */
+    @Override
+    public void update(PersistedMail mail) {
+        updateStates(Collections.singletonList(mail), null);
+    }
+
+    @Override
+    public boolean transition(PersistedMail mail, MailProcessState expected) {
+        return updateStates(Collections.singletonList(mail), expected) > 0;
+    }
+
+    /**
+     * Moves all mails on and waits for a single sync.
+     */
+    @Override
+    public int transitionAll(List<? extends PersistedMail> mails, MailProcessState expected) {
+        return updateStates(mails, expected);
+    }
+
+    private int updateStates(List<? extends PersistedMail> updates, MailProcessState expected) {
+        int updated = 0;
+        long ticket = -1;
+        synchronized (this) {
+            LocalDateTime now = LocalDateTime.now();
+            for (PersistedMail mail : updates) {
+                FileMail stored = mails.get(mail.getId());
+                if (stored == null || expected != null && stored.getState() != expected) {
+                    // deleted, expired or claimed by someone else meanwhile
+                    continue;
+                }
+                updated++;
+                notSent.get(stored.getPriority()).remove(stored);
+                stored.copyStateOf((FileMail) mail);
+                stored.setLastModifiedDate(now);
+                if (stored.getState() == MailProcessState.NOT_SENT) {
+                    notSent.get(stored.getPriority()).add(stored);
+                }
+                if (stored.getState() != MailProcessState.IN_PROGRESS) {
+                    stored.writeState(journal);
+                    ticket = journal.getAppended();
+                    compactIfRolled();
+                }
+            }
+        }
+        if (ticket >= 0) {
+            journal.awaitSync(ticket);
+        }
+        return updated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private void replay(Journal.Location location, ByteBuffer body) {
+        byte type = FileMail.readType(body);
+        String id = FileMail.readId(body);
+        switch (type) {
+            case FileMail.SNAPSHOT:
+                mails.put(id, FileMail.readSnapshot(id, body, location));
+                break;
+            case FileMail.STATE:
+                FileMail mail = mails.get(id);
+                if (mail != null) {
+                    mail.readState(body);
+                }
+                break;
+            case FileMail.DELETE:
+                mails.remove(id);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    // no record needed, expired mails are dropped again when the journal is replayed
+    private void expire() {
+        LocalDateTime now = LocalDateTime.now();
+        Iterator<FileMail> iterator = mails.values().iterator();
+        while (iterator.hasNext()) {
+            FileMail mail = iterator.next();
+            Duration retention = retentions.get(mail.getState());
+            // finished mails were last modified when they were sent or failed
+            if (retention != null && mail.getLastModifiedDate() != null && mail.getLastModifiedDate().isBefore(now.minus(retention))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void compactIfRolled() {
+        if (journal.getActive().getNumber() == activeSegment) {
+            return;
+        }
+        expire();
+        try {
+            compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact the mail journal!", e);
+        }
+        activeSegment = journal.getActive().getNumber();
+    }
+
+    private void compact() throws IOException {
+        while (journal.getHead() != journal.getActive()) {
+            Journal.Segment head = journal.getHead();
+            List<FileMail> live = mails.values().stream()
+                .filter(mail -> mail.getSegment() == head)
+                .sorted(Comparator.comparingLong(FileMail::getSequence))
+                .collect(Collectors.toList());
+
+            long liveBytes = live.stream().mapToLong(FileMail::getSnapshotSize).sum();
+            if (liveBytes > head.getSize() * compactionThreshold) {
+                return;
+            }
+
+            for (FileMail mail : live) {
+                // the due order does not change, the snapshot only moves
+                mail.writeSnapshot(journal, mail.getMimeMessageContent());
+            }
+            // the copies must be on disk before the originals are gone
+            journal.sync();
+            journal.dropHead();
+            log.debug("Compacted journal segment {}, moved {} mails.", head.getNumber(), live.size());
+        }
+    }
+}
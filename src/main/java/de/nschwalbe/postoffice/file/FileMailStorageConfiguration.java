@@ -0,0 +1,48 @@
+package de.nschwalbe.postoffice.file;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import de.nschwalbe.postoffice.MailStorage;
+import de.nschwalbe.postoffice.PriorityShares;
+import de.nschwalbe.postoffice.mongodb.MongoMailStorageConfiguration;
+
+/**
+ * Configuration for the file storage, used instead of mongodb with {@code postoffice.storage=file}.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@ConditionalOnMissingBean(MailStorage.class)
+@ConditionalOnProperty(name = "postoffice.storage", havingValue = "file")
+@AutoConfigureBefore(MongoMailStorageConfiguration.class)
+@Configuration
+public class FileMailStorageConfiguration {
+
+    @Bean
+    public FileMailStorage fileMailStorage(Environment env) throws IOException {
+        Journal journal = new Journal(
+            Paths.get(env.getProperty("postoffice.file.directory", "postoffice-mails")),
+            env.getProperty("postoffice.file.segment-size", Integer.class, 67108864),
+            SyncPolicy.valueOf(env.getProperty("postoffice.file.sync", "group").toUpperCase()),
+            Duration.ofMillis(env.getProperty("postoffice.file.sync-interval", Integer.class, 1000)));
+        PriorityShares priorityShares = new PriorityShares(
+            env.getProperty("postoffice.priority.high-weight", Integer.class, 70),
+            env.getProperty("postoffice.priority.normal-weight", Integer.class, 25),
+            env.getProperty("postoffice.priority.low-weight", Integer.class, 5));
+        return new FileMailStorage(
+            journal,
+            priorityShares,
+            Duration.ofSeconds(env.getProperty("postoffice.file.retention.sent", Integer.class, 259200)),
+            Duration.ofSeconds(env.getProperty("postoffice.file.retention.failed", Integer.class, 259200)),
+            env.getProperty("postoffice.file.compaction-threshold", Double.class, 0.5));
+    }
+}
@@ -0,0 +1,408 @@
+package de.nschwalbe.postoffice.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Append only log of records in memory mapped segment files. Every record is written as its length, a CRC32 of its
+ * body and the body. A zero length marks the end of a segment, fresh segments are all zeros.
+ * <p>
+ * Reading a journal stops at the first record which is incomplete or does not match its checksum, which is where a
+ * crash interrupted the last write. The rest of the last segment is cleared and writing continues from there.
+ * <p>
+ * Old segments are only ever removed from the head, so a record is never replayed without the records before it.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class Journal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Journal.class);
+
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER_SIZE = 8;
+
+    interface RecordHandler {
+
+        /**
+         * @param location where the body starts.
+         * @param body the record body, only valid during the call.
+         */
+        void record(Location location, ByteBuffer body);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final SyncPolicy syncPolicy;
+
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // guarded by this
+    private Segment active;
+    private long appended;
+
+    private final Object syncLock = new Object();
+    private boolean syncing;
+    private long synced;
+
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * @param segmentSize size of new segment files, records larger than that get a segment of their own.
+     * @param syncInterval how often to sync with {@link SyncPolicy#INTERVAL}.
+     */
+    Journal(Path directory, int segmentSize, SyncPolicy syncPolicy, Duration syncInterval) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncPolicy = syncPolicy;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Mail journal in " + directory + " is used by another process.");
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long number = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.put(number, new Segment(number, file, map(file, Files.size(file))));
+            }
+        }
+
+        if (syncPolicy == SyncPolicy.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("postoffice-journal-"));
+            long interval = syncInterval.toMillis();
+            syncer.scheduleWithFixedDelay(this::syncQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Reads all records from the oldest to the newest, must be called once before appending.
+     */
+    synchronized void replay(RecordHandler handler) throws IOException {
+
+        for (Segment segment : segments.values()) {
+            boolean last = segment.number == segments.lastKey();
+            int end = scan(segment, handler);
+            segment.writePosition = end;
+
+            if (!isCleared(segment.buffer, end)) {
+                if (last) {
+                    log.warn("Discarding incomplete record at {} of {}, the last write before a crash.", end, segment.path);
+                    clear(segment.buffer, end);
+                }
+                else {
+                    log.error("Records after {} of {} are corrupt and lost!", end, segment.path);
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            active = newSegment(1, segmentSize);
+        }
+        else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Writes a record, it is durable once {@link #awaitSync(long)} for {@link #getAppended()} returns.
+     *
+     * @return where the body of the record starts.
+     */
+    synchronized Location append(byte[] body) {
+
+        int size = HEADER_SIZE + body.length;
+        if (active.remaining() < size) {
+            roll(size);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        int position = active.writePosition;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(position + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(body);
+        // the length last, a record without it is not there
+        buffer.putInt(position, body.length);
+
+        active.writePosition += size;
+        appended += size;
+        return new Location(active, position + HEADER_SIZE);
+    }
+
+    /**
+     * @return a ticket for {@link #awaitSync(long)}, covering everything appended so far.
+     */
+    synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * Waits until everything up to the ticket is on disk if the policy is {@link SyncPolicy#GROUP}, returns right away
+     * otherwise. Writers waiting at the same time share one sync.
+     */
+    void awaitSync(long ticket) {
+
+        if (syncPolicy != SyncPolicy.GROUP) {
+            return;
+        }
+
+        while (true) {
+            synchronized (syncLock) {
+                while (syncing && synced < ticket) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for the mail journal to sync."));
+                    }
+                }
+                if (synced >= ticket) {
+                    return;
+                }
+                syncing = true;
+            }
+
+            long target = 0;
+            try {
+                target = sync();
+            } finally {
+                synchronized (syncLock) {
+                    syncing = false;
+                    synced = Math.max(synced, target);
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the active segment to disk, full segments are forced when the next one is started.
+     *
+     * @return the ticket up to which everything is on disk.
+     */
+    long sync() {
+        Segment segment;
+        long target;
+        synchronized (this) {
+            segment = active;
+            target = appended;
+        }
+        segment.buffer.force();
+        return target;
+    }
+
+    synchronized Segment getHead() {
+        return segments.firstEntry().getValue();
+    }
+
+    synchronized Segment getActive() {
+        return active;
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Deletes the oldest segment, all records in it which are still needed must have been appended again.
+     */
+    synchronized void dropHead() throws IOException {
+        Segment head = segments.firstEntry().getValue();
+        if (head == active) {
+            throw new IllegalStateException("The active segment can not be dropped.");
+        }
+        segments.remove(head.number);
+        // the mapping stays readable until it is garbage collected, mails handed out before can still be read
+        Files.delete(head.path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        synchronized (this) {
+            if (active != null && syncPolicy != SyncPolicy.NONE) {
+                active.buffer.force();
+            }
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    List<Path> getSegmentFiles() {
+        List<Path> files = new ArrayList<>();
+        segments.values().forEach(segment -> files.add(segment.path));
+        return files;
+    }
+
+    private void roll(int minSize) {
+        if (syncPolicy != SyncPolicy.NONE) {
+            active.buffer.force();
+        }
+        active = newSegment(active.number + 1, Math.max(segmentSize, minSize));
+    }
+
+    private Segment newSegment(long number, int size) {
+        Path file = directory.resolve(String.format("%016d%s", number, SUFFIX));
+        try {
+            Segment segment = new Segment(number, file, map(file, size));
+            segments.put(number, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create journal segment " + file, e);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            log.error("Could not sync the mail journal!", e);
+        }
+    }
+
+    private static int scan(Segment segment, RecordHandler handler) {
+
+        ByteBuffer buffer = segment.buffer.duplicate();
+        CRC32 crc = new CRC32();
+        int position = 0;
+
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - HEADER_SIZE) {
+                break;
+            }
+            int checksum = buffer.getInt(position + 4);
+
+            ByteBuffer body = buffer.duplicate();
+            body.limit(position + HEADER_SIZE + length).position(position + HEADER_SIZE);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            handler.record(new Location(segment, position + HEADER_SIZE), body.slice());
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private static boolean isCleared(ByteBuffer buffer, int from) {
+        for (int i = from; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void clear(MappedByteBuffer buffer, int from) {
+        ByteBuffer zeros = buffer.duplicate();
+        zeros.position(from);
+        while (zeros.hasRemaining()) {
+            zeros.put((byte) 0);
+        }
+        buffer.force();
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * A segment file, mapped as a whole.
+     */
+    static class Segment {
+
+        private final long number;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(long number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        long getNumber() {
+            return number;
+        }
+
+        int getSize() {
+            return buffer.capacity();
+        }
+
+        private int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+    }
+
+    /**
+     * Position of some bytes in a segment, stays readable after the segment is dropped.
+     */
+    static class Location {
+
+        private final Segment segment;
+        private final int position;
+
+        Location(Segment segment, int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+
+        Segment getSegment() {
+            return segment;
+        }
+
+        Location plus(int offset) {
+            return new Location(segment, position + offset);
+        }
+
+        byte[] read(int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(position);
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package de.nschwalbe.postoffice.file;
+
+/**
+ * When the journal forces written records to disk.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+enum SyncPolicy {
+
+    /**
+     * Every write returns once it is on disk. Writers arriving while the disk is busy wait for the same sync, so one
+     * sync covers many mails under load.
+     */
+    GROUP,
+
+    /**
+     * Writes return right away and the journal is synced periodically. A crash of the process loses nothing, a power
+     * loss the writes of the last interval.
+     */
+    INTERVAL,
+
+    /**
+     * The operating system decides when to write. A crash of the process loses nothing, a power loss anything not yet
+     * written back.
+     */
+    NONE
+}
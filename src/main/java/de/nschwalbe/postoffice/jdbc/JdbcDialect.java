@@ -0,0 +1,83 @@
+package de.nschwalbe.postoffice.jdbc;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * What differs between the databases the jdbc storage runs on: column types, how to limit a query and whether rows
+ * locked by another transaction can be skipped.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class JdbcDialect {
+
+    static final JdbcDialect STANDARD = new JdbcDialect("BLOB", "TIMESTAMP", " FETCH FIRST ? ROWS ONLY", false);
+
+    private final String blobType;
+    private final String timestampType;
+    private final String limitClause;
+    private final boolean skipLocked;
+
+    JdbcDialect(String blobType, String timestampType, String limitClause, boolean skipLocked) {
+        this.blobType = blobType;
+        this.timestampType = timestampType;
+        this.limitClause = limitClause;
+        this.skipLocked = skipLocked;
+    }
+
+    /**
+     * Detects the dialect of the database, anything unknown is treated as standard sql without skip locked.
+     */
+    static JdbcDialect of(DatabaseMetaData metaData) throws SQLException {
+        String product = metaData.getDatabaseProductName().toLowerCase(Locale.ROOT);
+        int major = metaData.getDatabaseMajorVersion();
+        int minor = metaData.getDatabaseMinorVersion();
+
+        if (product.contains("postgresql")) {
+            return new JdbcDialect("BYTEA", "TIMESTAMP", " LIMIT ?", major > 9 || major == 9 && minor >= 5);
+        }
+        if (product.contains("mariadb")) {
+            return new JdbcDialect("LONGBLOB", "DATETIME(3)", " LIMIT ?", major > 10 || major == 10 && minor >= 6);
+        }
+        if (product.contains("mysql")) {
+            return new JdbcDialect("LONGBLOB", "DATETIME(3)", " LIMIT ?", major >= 8);
+        }
+        if (product.contains("microsoft sql server")) {
+            return new JdbcDialect("VARBINARY(MAX)", "DATETIME2", " OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY", false);
+        }
+        // oracle can not combine fetch first with for update, so it claims optimistically as well
+        return STANDARD;
+    }
+
+    String getBlobType() {
+        return blobType;
+    }
+
+    String getTimestampType() {
+        return timestampType;
+    }
+
+    /**
+     * @return the query with a limit, given as the last parameter.
+     */
+    String limit(String sql) {
+        return sql + limitClause;
+    }
+
+    /**
+     * @return true if concurrent claims can lock their rows and skip those locked by others, false if they have to
+     * compete for the rows and keep what they won.
+     */
+    boolean isSkipLocked() {
+        return skipLocked;
+    }
+
+    /**
+     * @return the limited query, locking the rows it returns if the database can skip locked rows.
+     */
+    String lockingLimit(String sql) {
+        return skipLocked ? limit(sql) + " FOR UPDATE SKIP LOCKED" : limit(sql);
+    }
+}
@@ -0,0 +1,157 @@
+package de.nschwalbe.postoffice.jdbc;
+
+import java.time.LocalDateTime;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+import de.nschwalbe.postoffice.MailPriority;
+import de.nschwalbe.postoffice.MailProcessState;
+import de.nschwalbe.postoffice.PersistedMail;
+
+/**
+ * A row of the mail table, with the content from the content table once it is loaded.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class JdbcMail implements PersistedMail {
+
+    private final String id;
+    private final LocalDateTime createdDate;
+    private LocalDateTime lastModifiedDate;
+
+    private MailProcessState state = MailProcessState.NOT_SENT;
+    private String errorMessage;
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+
+    private final String recipientDomain;
+    private final MailPriority priority;
+
+    private String owner;
+    private LocalDateTime leaseExpiresAt;
+
+    private byte[] content;
+    private MailContentCodec contentCodec;
+
+    JdbcMail(String id, LocalDateTime createdDate, String recipientDomain, MailPriority priority) {
+        this.id = id;
+        this.createdDate = createdDate;
+        this.nextAttemptAt = createdDate;
+        this.recipientDomain = recipientDomain;
+        this.priority = priority;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public LocalDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    @Override
+    public LocalDateTime getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    void setLastModifiedDate(LocalDateTime lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    @Override
+    public byte[] getMimeMessageContent() {
+        if (content == null) {
+            throw new IllegalStateException("Content of mail " + id + " is not loaded.");
+        }
+        return MailContentCodec.orNone(contentCodec).decode(content);
+    }
+
+    /**
+     * @param content the content as encoded by the codec.
+     */
+    void setContent(byte[] content, MailContentCodec contentCodec) {
+        this.content = content;
+        this.contentCodec = contentCodec;
+    }
+
+    byte[] getEncodedContent() {
+        return content;
+    }
+
+    MailContentCodec getContentCodec() {
+        return contentCodec;
+    }
+
+    @Override
+    public MailProcessState getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(MailProcessState state) {
+        this.state = state;
+        if (state != MailProcessState.IN_PROGRESS) {
+            this.owner = null;
+            this.leaseExpiresAt = null;
+        }
+    }
+
+    @Override
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    @Override
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    @Override
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    @Override
+    public void recordFailedAttempt(LocalDateTime nextAttemptAt) {
+        this.attempts++;
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    LocalDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    void setNextAttemptAt(LocalDateTime nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    @Override
+    public String getRecipientDomain() {
+        return recipientDomain;
+    }
+
+    @Override
+    public MailPriority getPriority() {
+        return priority;
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    void startProgress(String owner, LocalDateTime leaseExpiresAt) {
+        this.state = MailProcessState.IN_PROGRESS;
+        this.owner = owner;
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+}
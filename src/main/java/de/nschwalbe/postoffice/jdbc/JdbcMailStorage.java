@@ -0,0 +1,660 @@
+package de.nschwalbe.postoffice.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.mail.MessagingException;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
+import de.nschwalbe.postoffice.MailProcessState;
+import de.nschwalbe.postoffice.MailStorage;
+import de.nschwalbe.postoffice.MimeMessageWriter;
+import de.nschwalbe.postoffice.PersistedMail;
+import de.nschwalbe.postoffice.PriorityShares;
+
+/**
+ * Stores mails in a relational database. The queue table only holds the small columns which are scanned and updated
+ * while mails are sent, the content is in a table of its own and only read for claimed mails.
+ * <p>
+ * Sent and failed mails are removed once the retention of their state ran out, like the TTL index of the mongo storage
+ * does. Mails still to be sent or in progress are never removed.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class JdbcMailStorage implements MailStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcMailStorage.class);
+
+    static final String MAIL_TABLE = "postoffice_mail";
+    static final String CONTENT_TABLE = "postoffice_mail_content";
+
+    private static final String COLUMNS =
+        "id, state, priority, recipient_domain, next_attempt_at, attempts, owner, lease_expires_at, error_message, created_date, last_modified_date";
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 2000;
+    private static final long PURGE_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    private final DataSource dataSource;
+    private final JdbcDialect dialect;
+    private final MailContentCodec contentCodec;
+    private final PriorityShares priorityShares;
+    private final Map<MailProcessState, Duration> retentions = new EnumMap<>(MailProcessState.class);
+
+    private volatile long nextPurge;
+
+    JdbcMailStorage(DataSource dataSource) {
+        this(dataSource, MailContentCodec.NONE, PriorityShares.defaults(), Duration.ofDays(3), Duration.ofDays(3), true);
+    }
+
+    /**
+     * @param contentCodec codec to store new mails with, mails stored with another codec can still be read.
+     * @param sentRetention how long to keep mails after they were sent.
+     * @param failedRetention how long to keep mails after they failed.
+     * @param initializeSchema true to create the tables if they do not exist.
+     */
+    JdbcMailStorage(DataSource dataSource, MailContentCodec contentCodec, PriorityShares priorityShares, Duration sentRetention,
+                    Duration failedRetention, boolean initializeSchema) {
+        this.dataSource = dataSource;
+        this.contentCodec = contentCodec;
+        this.priorityShares = priorityShares;
+        this.retentions.put(MailProcessState.SENT, sentRetention);
+        this.retentions.put(MailProcessState.FAILED, failedRetention);
+        this.dialect = inConnection("Could not connect to the mail database!", connection -> {
+            JdbcDialect detected = JdbcDialect.of(connection.getMetaData());
+            if (initializeSchema) {
+                createSchema(connection, detected);
+            }
+            return detected;
+        });
+        log.info("Storing mails with jdbc, {} claiming.", dialect.isSkipLocked() ? "skip locked" : "optimistic");
+    }
+
+    @Override
+    public JdbcMail create(byte[] mimeMessageContent) {
+        return createAll(Collections.singletonList(mimeMessageContent)).get(0);
+    }
+
+    @Override
+    public JdbcMail create(MimeMessageWriter writer, MailEnvelope envelope) throws IOException, MessagingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return createAll(Collections.singletonList(out.toByteArray()), Collections.singletonList(envelope)).get(0);
+    }
+
+    @Override
+    public List<JdbcMail> createAll(List<byte[]> mimeMessageContents) {
+        return createAll(mimeMessageContents, Collections.nCopies(mimeMessageContents.size(), MailEnvelope.UNKNOWN));
+    }
+
+    /**
+     * Inserts the mails and their contents with one batch each, in one transaction.
+     */
+    @Override
+    public List<JdbcMail> createAll(List<byte[]> mimeMessageContents, List<MailEnvelope> envelopes) {
+
+        LocalDateTime now = LocalDateTime.now();
+        List<JdbcMail> mails = new ArrayList<>(mimeMessageContents.size());
+        for (int i = 0; i < mimeMessageContents.size(); i++) {
+            MailEnvelope envelope = envelopes.get(i);
+            JdbcMail mail = new JdbcMail(UUID.randomUUID().toString(), now, envelope.getRecipientDomain(), envelope.getPriority());
+            setContent(mail, mimeMessageContents.get(i));
+            mails.add(mail);
+        }
+
+        inTransaction("Could not store mails!", connection -> {
+            try (PreparedStatement insertMail = connection.prepareStatement(
+                     "INSERT INTO " + MAIL_TABLE + " (" + COLUMNS + ", claim_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NULL)");
+                 PreparedStatement insertContent = connection.prepareStatement(
+                     "INSERT INTO " + CONTENT_TABLE + " (mail_id, codec, content) VALUES (?, ?, ?)")) {
+
+                for (JdbcMail mail : mails) {
+                    insertMail.setString(1, mail.getId());
+                    insertMail.setString(2, mail.getState().name());
+                    insertMail.setString(3, mail.getPriority().name());
+                    setString(insertMail, 4, mail.getRecipientDomain());
+                    setTimestamp(insertMail, 5, mail.getNextAttemptAt());
+                    insertMail.setInt(6, mail.getAttempts());
+                    setString(insertMail, 7, null);
+                    setTimestamp(insertMail, 8, null);
+                    setString(insertMail, 9, null);
+                    setTimestamp(insertMail, 10, mail.getCreatedDate());
+                    setTimestamp(insertMail, 11, null);
+                    insertMail.addBatch();
+                }
+                insertMail.executeBatch();
+
+                for (int i = 0; i < mails.size(); i++) {
+                    insertContent.setString(1, mails.get(i).getId());
+                    insertContent.setString(2, mails.get(i).getContentCodec().name());
+                    insertContent.setBytes(3, mails.get(i).getEncodedContent());
+                    insertContent.addBatch();
+                }
+                insertContent.executeBatch();
+            }
+            return null;
+        });
+        return mails;
+    }
+
+    @Deprecated
+    @Override
+    public List<String> findNotSentIds() {
+        return inConnection("Could not find mails!", connection -> {
+            try (PreparedStatement select = connection.prepareStatement("SELECT id FROM " + MAIL_TABLE + " WHERE state = ?")) {
+                select.setString(1, MailProcessState.NOT_SENT.name());
+                return readIds(select);
+            }
+        });
+    }
+
+    @Deprecated
+    @Override
+    public JdbcMail findNotSentAndStartProgress(String mailId) {
+        List<JdbcMail> mails = inConnection("Could not start progress of mail!", connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE " + MAIL_TABLE + " SET state = ?, last_modified_date = ? WHERE id = ? AND state = ?")) {
+                update.setString(1, MailProcessState.IN_PROGRESS.name());
+                setTimestamp(update, 2, LocalDateTime.now());
+                update.setString(3, mailId);
+                update.setString(4, MailProcessState.NOT_SENT.name());
+                if (update.executeUpdate() == 0) {
+                    return Collections.<JdbcMail>emptyList();
+                }
+            }
+            return findMails(connection, Collections.singletonList(mailId), null);
+        });
+        loadContent(mails);
+        return mails.isEmpty() ? null : mails.get(0);
+    }
+
+    @Override
+    public List<JdbcMail> claimBatch(int maxSize, String owner, Duration lease) {
+        return claimBatch(maxSize, owner, lease, Collections.emptyList());
+    }
+
+    /**
+     * Selects the mails due the longest in each priority lane and marks the share of every lane with a unique claim
+     * id. Where the database can skip locked rows, the selected rows are locked until the claim is committed and
+     * concurrent claims take the next rows. Elsewhere the claim only takes rows which are still not sent, mails taken
+     * by another worker in between are just left out, like the mongo storage does.
+     * <p>
+     * The content is loaded after the claim is committed, so the locks are held only as long as needed.
+     */
+    @Override
+    public List<JdbcMail> claimBatch(int maxSize, String owner, Duration lease, Collection<String> excludedDomains) {
+
+        LocalDateTime now = LocalDateTime.now();
+        String claimId = UUID.randomUUID().toString();
+
+        List<JdbcMail> claimed = inTransaction("Could not claim mails!", connection -> {
+
+            Map<MailPriority, List<String>> dueIds = new EnumMap<>(MailPriority.class);
+            Map<MailPriority, Integer> due = new EnumMap<>(MailPriority.class);
+            for (MailPriority priority : MailPriority.values()) {
+                List<String> ids = findDueIds(connection, priority, maxSize, excludedDomains, now);
+                dueIds.put(priority, ids);
+                due.put(priority, ids.size());
+            }
+
+            // highest priority first, the workers send them in this order
+            List<String> candidateIds = new ArrayList<>(maxSize);
+            priorityShares.allocate(maxSize, due).forEach((priority, share) -> candidateIds.addAll(dueIds.get(priority).subList(0, share)));
+            if (candidateIds.isEmpty()) {
+                return Collections.<JdbcMail>emptyList();
+            }
+
+            try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE " + MAIL_TABLE + " SET state = ?, owner = ?, lease_expires_at = ?, claim_id = ?, last_modified_date = ?"
+                    + " WHERE id IN (" + placeholders(candidateIds.size()) + ") AND state = ? AND next_attempt_at <= ?")) {
+                int i = 1;
+                update.setString(i++, MailProcessState.IN_PROGRESS.name());
+                update.setString(i++, owner);
+                setTimestamp(update, i++, now.plus(lease));
+                update.setString(i++, claimId);
+                setTimestamp(update, i++, now);
+                for (String id : candidateIds) {
+                    update.setString(i++, id);
+                }
+                update.setString(i++, MailProcessState.NOT_SENT.name());
+                setTimestamp(update, i, now);
+                update.executeUpdate();
+            }
+
+            List<JdbcMail> mails = findMails(connection, candidateIds, claimId);
+            mails.sort(Comparator.comparingInt(mail -> candidateIds.indexOf(mail.getId())));
+            return mails;
+        });
+
+        loadContent(claimed);
+        return claimed;
+    }
+
+    @Override
+    public void renewLeases(Collection<String> mailIds, String owner, Duration lease) {
+        if (mailIds.isEmpty()) {
+            return;
+        }
+        inConnection("Could not renew leases!", connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE " + MAIL_TABLE + " SET lease_expires_at = ? WHERE id IN (" + placeholders(mailIds.size()) + ") AND state = ? AND owner = ?")) {
+                int i = 1;
+                setTimestamp(update, i++, LocalDateTime.now().plus(lease));
+                for (String id : mailIds) {
+                    update.setString(i++, id);
+                }
+                update.setString(i++, MailProcessState.IN_PROGRESS.name());
+                update.setString(i, owner);
+                return update.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Also removes sent and failed mails whose retention ran out, at most every ten minutes. This is the only method called
+     * periodically.
+     */
+    @Override
+    public int releaseExpiredLeases() {
+        purgeExpiredMails();
+        return inConnection("Could not release expired leases!", connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE " + MAIL_TABLE + " SET state = ?, owner = NULL, lease_expires_at = NULL WHERE state = ? AND lease_expires_at < ?")) {
+                update.setString(1, MailProcessState.NOT_SENT.name());
+                update.setString(2, MailProcessState.IN_PROGRESS.name());
+                setTimestamp(update, 3, LocalDateTime.now());
+                return update.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public Map<MailProcessState, Long> countByState() {
+        return inConnection("Could not count mails!", connection -> {
+            Map<MailProcessState, Long> counts = new EnumMap<>(MailProcessState.class);
+            try (Statement select = connection.createStatement();
+                 ResultSet resultSet = select.executeQuery("SELECT state, COUNT(*) FROM " + MAIL_TABLE + " GROUP BY state")) {
+                while (resultSet.next()) {
+                    counts.put(MailProcessState.valueOf(resultSet.getString(1)), resultSet.getLong(2));
+                }
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public long countPending() {
+        return inConnection("Could not count mails!", connection -> {
+            try (PreparedStatement select = connection.prepareStatement("SELECT COUNT(*) FROM " + MAIL_TABLE + " WHERE state IN (?, ?)")) {
+                select.setString(1, MailProcessState.NOT_SENT.name());
+                select.setString(2, MailProcessState.IN_PROGRESS.name());
+                try (ResultSet resultSet = select.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void delete(String id) {
+        inTransaction("Could not delete mail!", connection -> {
+            try (PreparedStatement deleteContent = connection.prepareStatement("DELETE FROM " + CONTENT_TABLE + " WHERE mail_id = ?");
+                 PreparedStatement deleteMail = connection.prepareStatement("DELETE FROM " + MAIL_TABLE + " WHERE id = ?")) {
+                deleteContent.setString(1, id);
+                deleteContent.executeUpdate();
+                deleteMail.setString(1, id);
+                deleteMail.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Updates only the columns which change while a mail is sent, the content is never written again.
+     */
+    @Override
+    public void update(PersistedMail mail) {
+        updateStates(Collections.singletonList(mail), null);
+    }
+
+    @Override
+    public boolean transition(PersistedMail mail, MailProcessState expected) {
+        return updateStates(Collections.singletonList(mail), expected) > 0;
+    }
+
+    /**
+     * Moves all mails on with one batch.
+     */
+    @Override
+    public int transitionAll(List<? extends PersistedMail> mails, MailProcessState expected) {
+        return mails.isEmpty() ? 0 : updateStates(mails, expected);
+    }
+
+    private int updateStates(List<? extends PersistedMail> mails, MailProcessState expected) {
+        LocalDateTime now = LocalDateTime.now();
+        return inTransaction("Could not update mails!", connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE " + MAIL_TABLE + " SET state = ?, error_message = ?, attempts = ?, next_attempt_at = ?, owner = ?, lease_expires_at = ?,"
+                    + " last_modified_date = ? WHERE id = ?" + (expected != null ? " AND state = ?" : ""))) {
+                for (PersistedMail mail : mails) {
+                    JdbcMail jdbcMail = (JdbcMail) mail;
+                    jdbcMail.setLastModifiedDate(now);
+                    update.setString(1, jdbcMail.getState().name());
+                    setString(update, 2, truncate(jdbcMail.getErrorMessage()));
+                    update.setInt(3, jdbcMail.getAttempts());
+                    // failed mails have no next attempt, the column is only read for mails not sent
+                    setTimestamp(update, 4, jdbcMail.getNextAttemptAt() != null ? jdbcMail.getNextAttemptAt() : jdbcMail.getCreatedDate());
+                    setString(update, 5, jdbcMail.getOwner());
+                    setTimestamp(update, 6, jdbcMail.getLeaseExpiresAt());
+                    setTimestamp(update, 7, now);
+                    update.setString(8, jdbcMail.getId());
+                    if (expected != null) {
+                        update.setString(9, expected.name());
+                    }
+                    update.addBatch();
+                }
+                int updated = 0;
+                for (int count : update.executeBatch()) {
+                    // some drivers do not tell the count of batched statements
+                    if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                        updated++;
+                    }
+                }
+                return updated;
+            }
+        });
+    }
+
+    /**
+     * @return the statements creating the tables and indexes.
+     */
+    static List<String> schema(JdbcDialect dialect) {
+        String timestamp = dialect.getTimestampType();
+        return Arrays.asList(
+            "CREATE TABLE " + MAIL_TABLE + " ("
+                + "id VARCHAR(36) NOT NULL PRIMARY KEY, "
+                + "state VARCHAR(16) NOT NULL, "
+                + "priority VARCHAR(8) NOT NULL, "
+                + "recipient_domain VARCHAR(255), "
+                + "next_attempt_at " + timestamp + " NOT NULL, "
+                + "attempts INTEGER NOT NULL, "
+                + "owner VARCHAR(255), "
+                + "lease_expires_at " + timestamp + ", "
+                + "claim_id VARCHAR(36), "
+                + "error_message VARCHAR(" + MAX_ERROR_MESSAGE_LENGTH + "), "
+                + "created_date " + timestamp + " NOT NULL, "
+                + "last_modified_date " + timestamp + ")",
+            "CREATE INDEX " + MAIL_TABLE + "_due ON " + MAIL_TABLE + " (state, priority, next_attempt_at)",
+            "CREATE INDEX " + MAIL_TABLE + "_lease ON " + MAIL_TABLE + " (state, lease_expires_at)",
+            "CREATE INDEX " + MAIL_TABLE + "_finished ON " + MAIL_TABLE + " (state, last_modified_date)",
+            "CREATE TABLE " + CONTENT_TABLE + " ("
+                + "mail_id VARCHAR(36) NOT NULL PRIMARY KEY, "
+                + "codec VARCHAR(16) NOT NULL, "
+                + "content " + dialect.getBlobType() + " NOT NULL)");
+    }
+
+    /**
+     * @return the query for the ids of due mails of a lane, the parameters are the state, the priority, now, the
+     * excluded domains and the limit.
+     */
+    static String dueIdsQuery(JdbcDialect dialect, int excludedDomains, boolean excludeUnknownDomain) {
+        StringBuilder sql = new StringBuilder("SELECT id FROM " + MAIL_TABLE + " WHERE state = ? AND priority = ? AND next_attempt_at <= ?");
+        if (excludedDomains > 0) {
+            String notIn = "recipient_domain NOT IN (" + placeholders(excludedDomains) + ")";
+            // not in is never true for null
+            sql.append(excludeUnknownDomain ? " AND " + notIn : " AND (recipient_domain IS NULL OR " + notIn + ")");
+        }
+        else if (excludeUnknownDomain) {
+            sql.append(" AND recipient_domain IS NOT NULL");
+        }
+        sql.append(" ORDER BY next_attempt_at, id");
+        return dialect.lockingLimit(sql.toString());
+    }
+
+    private List<String> findDueIds(Connection connection, MailPriority priority, int limit, Collection<String> excludedDomains, LocalDateTime now)
+        throws SQLException {
+
+        List<String> domains = excludedDomains.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        try (PreparedStatement select = connection.prepareStatement(dueIdsQuery(dialect, domains.size(), excludedDomains.contains(null)))) {
+            int i = 1;
+            select.setString(i++, MailProcessState.NOT_SENT.name());
+            select.setString(i++, priority.name());
+            setTimestamp(select, i++, now);
+            for (String domain : domains) {
+                select.setString(i++, domain);
+            }
+            select.setInt(i, limit);
+            return readIds(select);
+        }
+    }
+
+    private List<JdbcMail> findMails(Connection connection, List<String> ids, String claimId) throws SQLException {
+        String sql = "SELECT " + COLUMNS + " FROM " + MAIL_TABLE + " WHERE id IN (" + placeholders(ids.size()) + ")";
+        if (claimId != null) {
+            sql += " AND claim_id = ?";
+        }
+        try (PreparedStatement select = connection.prepareStatement(sql)) {
+            int i = 1;
+            for (String id : ids) {
+                select.setString(i++, id);
+            }
+            if (claimId != null) {
+                select.setString(i, claimId);
+            }
+            List<JdbcMail> mails = new ArrayList<>(ids.size());
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    mails.add(readMail(resultSet));
+                }
+            }
+            return mails;
+        }
+    }
+
+    private void loadContent(List<JdbcMail> mails) {
+        if (mails.isEmpty()) {
+            return;
+        }
+        Map<String, JdbcMail> byId = new HashMap<>();
+        mails.forEach(mail -> byId.put(mail.getId(), mail));
+
+        inConnection("Could not load mail content!", connection -> {
+            try (PreparedStatement select = connection.prepareStatement(
+                "SELECT mail_id, codec, content FROM " + CONTENT_TABLE + " WHERE mail_id IN (" + placeholders(mails.size()) + ")")) {
+                int i = 1;
+                for (JdbcMail mail : mails) {
+                    select.setString(i++, mail.getId());
+                }
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        byId.get(resultSet.getString(1)).setContent(resultSet.getBytes(3), MailContentCodec.valueOf(resultSet.getString(2)));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private void purgeExpiredMails() {
+        long now = System.currentTimeMillis();
+        if (now < nextPurge) {
+            return;
+        }
+        nextPurge = now + PURGE_INTERVAL;
+
+        retentions.forEach((state, retention) -> {
+            // finished mails were last modified when they were sent or failed
+            LocalDateTime expired = LocalDateTime.now().minus(retention);
+            int purged = inTransaction("Could not remove expired mails!", connection -> {
+                try (PreparedStatement deleteContent = connection.prepareStatement(
+                         "DELETE FROM " + CONTENT_TABLE + " WHERE mail_id IN (SELECT id FROM " + MAIL_TABLE + " WHERE state = ? AND last_modified_date < ?)");
+                     PreparedStatement deleteMails = connection.prepareStatement(
+                         "DELETE FROM " + MAIL_TABLE + " WHERE state = ? AND last_modified_date < ?")) {
+                    deleteContent.setString(1, state.name());
+                    setTimestamp(deleteContent, 2, expired);
+                    deleteContent.executeUpdate();
+                    deleteMails.setString(1, state.name());
+                    setTimestamp(deleteMails, 2, expired);
+                    return deleteMails.executeUpdate();
+                }
+            });
+            if (purged > 0) {
+                log.info("Removed {} {} mails older than {} hours.", purged, state.name().toLowerCase(), retention.toHours());
+            }
+        });
+    }
+
+    private void setContent(JdbcMail mail, byte[] mimeMessageContent) {
+        if (contentCodec != MailContentCodec.NONE) {
+            byte[] encoded = contentCodec.encode(mimeMessageContent);
+            // tiny or already compressed content might not get any smaller
+            if (encoded.length < mimeMessageContent.length) {
+                mail.setContent(encoded, contentCodec);
+                return;
+            }
+        }
+        mail.setContent(mimeMessageContent, MailContentCodec.NONE);
+    }
+
+    private static JdbcMail readMail(ResultSet resultSet) throws SQLException {
+        JdbcMail mail = new JdbcMail(
+            resultSet.getString("id"),
+            toLocalDateTime(resultSet.getTimestamp("created_date")),
+            resultSet.getString("recipient_domain"),
+            MailPriority.valueOf(resultSet.getString("priority")));
+        MailProcessState state = MailProcessState.valueOf(resultSet.getString("state"));
+        if (state == MailProcessState.IN_PROGRESS) {
+            mail.startProgress(resultSet.getString("owner"), toLocalDateTime(resultSet.getTimestamp("lease_expires_at")));
+        }
+        else {
+            mail.setState(state);
+        }
+        mail.setAttempts(resultSet.getInt("attempts"));
+        mail.setNextAttemptAt(toLocalDateTime(resultSet.getTimestamp("next_attempt_at")));
+        mail.setErrorMessage(resultSet.getString("error_message"));
+        mail.setLastModifiedDate(toLocalDateTime(resultSet.getTimestamp("last_modified_date")));
+        return mail;
+    }
+
+    private static List<String> readIds(PreparedStatement select) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        try (ResultSet resultSet = select.executeQuery()) {
+            while (resultSet.next()) {
+                ids.add(resultSet.getString(1));
+            }
+        }
+        return ids;
+    }
+
+    private static void createSchema(Connection connection, JdbcDialect dialect) throws SQLException {
+        if (tableExists(connection.getMetaData(), MAIL_TABLE)) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : schema(dialect)) {
+                statement.execute(sql);
+            }
+        }
+        log.info("Created the tables {} and {}.", MAIL_TABLE, CONTENT_TABLE);
+    }
+
+    // databases differ in how they fold the case of unquoted names
+    private static boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+        for (String name : Arrays.asList(table, table.toUpperCase(), table.toLowerCase())) {
+            try (ResultSet tables = metaData.getTables(null, null, name, new String[] {"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static String truncate(String errorMessage) {
+        return errorMessage != null && errorMessage.length() > MAX_ERROR_MESSAGE_LENGTH ? errorMessage.substring(0, MAX_ERROR_MESSAGE_LENGTH) : errorMessage;
+    }
+
+    private static void setString(PreparedStatement statement, int index, String value) throws SQLException {
+        if (value != null) {
+            statement.setString(index, value);
+        }
+        else {
+            statement.setNull(index, Types.VARCHAR);
+        }
+    }
+
+    private static void setTimestamp(PreparedStatement statement, int index, LocalDateTime value) throws SQLException {
+        if (value != null) {
+            statement.setTimestamp(index, Timestamp.valueOf(value));
+        }
+        else {
+            statement.setNull(index, Types.TIMESTAMP);
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    private <T> T inConnection(String error, SqlWork<T> work) {
+        try (Connection connection = dataSource.getConnection()) {
+            return work.run(connection);
+        } catch (SQLException e) {
+            throw new JdbcMailStorageException(error, e);
+        }
+    }
+
+    private <T> T inTransaction(String error, SqlWork<T> work) {
+        return inConnection(error, connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+}
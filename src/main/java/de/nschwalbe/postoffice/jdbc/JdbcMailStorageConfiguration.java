@@ -0,0 +1,51 @@
+package de.nschwalbe.postoffice.jdbc;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+import de.nschwalbe.postoffice.MailStorage;
+import de.nschwalbe.postoffice.PriorityShares;
+import de.nschwalbe.postoffice.mongodb.MongoMailStorageConfiguration;
+
+/**
+ * Configuration for the jdbc storage, used instead of mongodb with {@code postoffice.storage=jdbc}. Stores the mails
+ * with the data source of the application.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+@ConditionalOnMissingBean(MailStorage.class)
+@ConditionalOnProperty(name = "postoffice.storage", havingValue = "jdbc")
+@ConditionalOnBean(DataSource.class)
+@AutoConfigureAfter(name = "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration")
+@AutoConfigureBefore(MongoMailStorageConfiguration.class)
+@Configuration
+public class JdbcMailStorageConfiguration {
+
+    @Bean
+    public JdbcMailStorage jdbcMailStorage(DataSource dataSource, Environment env) {
+        MailContentCodec contentCodec = MailContentCodec.valueOf(env.getProperty("postoffice.jdbc.compression", "none").toUpperCase());
+        PriorityShares priorityShares = new PriorityShares(
+            env.getProperty("postoffice.priority.high-weight", Integer.class, 70),
+            env.getProperty("postoffice.priority.normal-weight", Integer.class, 25),
+            env.getProperty("postoffice.priority.low-weight", Integer.class, 5));
+        return new JdbcMailStorage(
+            dataSource,
+            contentCodec,
+            priorityShares,
+            Duration.ofSeconds(env.getProperty("postoffice.jdbc.retention.sent", Integer.class, 259200)),
+            Duration.ofSeconds(env.getProperty("postoffice.jdbc.retention.failed", Integer.class, 259200)),
+            env.getProperty("postoffice.jdbc.initialize-schema", Boolean.class, true));
+    }
+}
@@ -0,0 +1,18 @@
+package de.nschwalbe.postoffice.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown if the database could not store or load mails.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class JdbcMailStorageException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    JdbcMailStorageException(String message, SQLException cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,42 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import org.springframework.data.annotation.PersistenceConstructor;
+
+/**
+ * A piece of a deduplicated mime message. Either small content kept inline in the mail document or the hash of a
+ * large part stored once in the blob collection. Concatenating all parts gives the original message.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class ContentPart {
+
+    private final byte[] data;
+    private final String blobId;
+
+    @PersistenceConstructor
+    private ContentPart(byte[] data, String blobId) {
+        this.data = data;
+        this.blobId = blobId;
+    }
+
+    static ContentPart inline(byte[] data) {
+        return new ContentPart(data, null);
+    }
+
+    static ContentPart blob(String blobId) {
+        return new ContentPart(null, blobId);
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    String getBlobId() {
+        return blobId;
+    }
+
+    boolean isBlob() {
+        return blobId != null;
+    }
+}
@@ -0,0 +1,139 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.mail.internet.SharedInputStream;
+
+import com.mongodb.gridfs.GridFSDBFile;
+
+/**
+ * Reads a mime message stored in GridFS. As a {@link SharedInputStream} it lets java mail parse the message without
+ * copying it: body parts just remember their offsets and open their own stream when they are written to the mail
+ * server. Only one chunk per open stream is held in memory.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class GridFsContentStream extends InputStream implements SharedInputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final GridFSDBFile file;
+    private final long start;
+    private final long end;
+
+    // absolute positions in the file
+    private long position;
+    private long markPosition;
+
+    private InputStream in;
+
+    GridFsContentStream(GridFSDBFile file) {
+        this(file, 0, file.getLength());
+    }
+
+    private GridFsContentStream(GridFSDBFile file, long start, long end) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+        this.markPosition = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        int b = in().read();
+        if (b >= 0) {
+            position++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= end) {
+            return -1;
+        }
+        int read = in().read(b, off, (int) Math.min(len, end - position));
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in().skip(Math.min(Math.max(n, 0), end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in().available(), end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        try {
+            in().mark(readLimit);
+            markPosition = position;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open mail content " + file.getId(), e);
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        in().reset();
+        position = markPosition;
+    }
+
+    @Override
+    public long getPosition() {
+        return position - start;
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        return new GridFsContentStream(file, this.start + start, end == -1 ? this.end : this.start + end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    // opened lazily, the parser creates many sub streams which are never read
+    private InputStream in() throws IOException {
+        if (in == null) {
+            InputStream fileIn = file.getInputStream();
+            long toSkip = position;
+            while (toSkip > 0) {
+                long skipped = fileIn.skip(toSkip);
+                if (skipped <= 0) {
+                    throw new IOException("Mail content " + file.getId() + " is shorter than expected.");
+                }
+                toSkip -= skipped;
+            }
+            in = new BufferedInputStream(fileIn, BUFFER_SIZE);
+        }
+        return in;
+    }
+}
@@ -1,32 +1,58 @@
 package de.nschwalbe.postoffice.mongodb;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import org.bson.types.ObjectId;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import com.mongodb.gridfs.GridFSDBFile;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
 import de.nschwalbe.postoffice.MailProcessState;
 import de.nschwalbe.postoffice.PersistedMail;
 
 /**
- * A mail persisted with mongodb. Mails will be automatically removed after 3 days if send or not.
+ * A mail persisted with mongodb. Sent and failed mails are removed once their retention ran out, see
+ * {@link RetentionPolicy}, mails still to be sent are kept.
  *
  * @author Nathanael Schwalbe
  * @since 05.04.2017
  */
 @Document(collection = "mails")
+@CompoundIndexes({
+    @CompoundIndex(name = "state_priority_nextAttemptAt", def = "{'state': 1, 'priority': 1, 'nextAttemptAt': 1, '_id': 1}"),
+    @CompoundIndex(name = "state_leaseExpiresAt", def = "{'state': 1, 'leaseExpiresAt': 1}")
+})
 class MailDocument implements PersistedMail {
 
     @Id
     private String id;
 
-    @Indexed(expireAfterSeconds = 259200)
+    // set here as well because auditing might not be enabled
     @CreatedDate
-    private LocalDateTime createdDate;
+    private LocalDateTime createdDate = LocalDateTime.now();
+
+    // only set once the mail is sent or failed, mails without it never expire
+    @Indexed(name = "expireAt", expireAfterSeconds = 0, sparse = true)
+    private LocalDateTime expireAt;
 
     @LastModifiedDate
     private LocalDateTime lastModifiedDate;
@@ -34,11 +60,64 @@ class MailDocument implements PersistedMail {
     private MailProcessState state = MailProcessState.NOT_SENT;
     private String errorMessage;
 
+    // due right away, claiming takes the mails in this order
+    private LocalDateTime nextAttemptAt = createdDate;
+    private int attempts;
+
+    private String claimId;
+    private String recipientDomain;
+    private MailPriority priority;
+
+    // given to the mail server instead of reading them from the message, mails stored before have none
+    private String envelopeSender;
+    private List<String> envelopeRecipients;
+
+    // mails stored before partitions existed have none, see PartitionAssignment
+    private Integer partition = PartitionAssignment.randomPartition();
+
+    // node which is sending the mail and until when, only set while in progress
+    private String owner;
+    private LocalDateTime leaseExpiresAt;
+
+    // the content as encoded by the codec, null codec is the same as none
     private final byte[] mimeMessageContent;
+    private final MailContentCodec contentCodec;
+
+    // instead of the content if large parts are deduplicated in the blob store
+    private List<ContentPart> contentParts;
+
+    @Transient
+    private byte[] assembledContent;
+
+    // instead of the content if the mail is too large for a document and stored in GridFS
+    private ObjectId contentFileId;
+
+    @Transient
+    private GridFSDBFile contentFile;
 
     @PersistenceConstructor
-    MailDocument(byte[] mimeMessageContent) {
+    MailDocument(byte[] mimeMessageContent, MailContentCodec contentCodec) {
+        this.mimeMessageContent = mimeMessageContent;
+        this.contentCodec = contentCodec;
+    }
+
+    // for bulk inserts, which do not assign ids
+    MailDocument(String id, byte[] mimeMessageContent, MailContentCodec contentCodec) {
+        this.id = id;
         this.mimeMessageContent = mimeMessageContent;
+        this.contentCodec = contentCodec;
+    }
+
+    // for deduplicated mails
+    MailDocument(String id, List<ContentPart> contentParts) {
+        this(id, null, null);
+        this.contentParts = contentParts;
+    }
+
+    // for mails stored in GridFS
+    MailDocument(String id, ObjectId contentFileId) {
+        this(id, null, null);
+        this.contentFileId = contentFileId;
     }
 
     @Override
@@ -59,6 +138,69 @@ class MailDocument implements PersistedMail {
     @Override
     public void setState(MailProcessState state) {
         this.state = state;
+        if (state != MailProcessState.IN_PROGRESS) {
+            this.owner = null;
+            this.leaseExpiresAt = null;
+        }
+    }
+
+    @Override
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public void recordFailedAttempt(LocalDateTime nextAttemptAt) {
+        this.attempts++;
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    LocalDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    @Override
+    public String getRecipientDomain() {
+        return recipientDomain;
+    }
+
+    // mails stored before priorities existed have none
+    @Override
+    public MailPriority getPriority() {
+        return priority != null ? priority : MailPriority.NORMAL;
+    }
+
+    Integer getPartition() {
+        return partition;
+    }
+
+    void setEnvelope(MailEnvelope envelope) {
+        this.recipientDomain = envelope.getRecipientDomain();
+        this.priority = envelope.getPriority();
+        this.envelopeSender = envelope.getSender();
+        this.envelopeRecipients = envelope.getRecipients();
+    }
+
+    @Override
+    public String getEnvelopeSender() {
+        return envelopeSender;
+    }
+
+    @Override
+    public List<String> getEnvelopeRecipients() {
+        return envelopeRecipients;
+    }
+
+    LocalDateTime getExpireAt() {
+        return expireAt;
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
     }
 
     @Override
@@ -73,9 +215,77 @@ class MailDocument implements PersistedMail {
 
     @Override
     public byte[] getMimeMessageContent() {
+        if (contentFileId != null) {
+            try (InputStream in = openMimeMessageContent()) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    content.write(buffer, 0, read);
+                }
+                return content.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (contentParts != null) {
+            if (assembledContent == null) {
+                throw new IllegalStateException("Content of mail " + id + " is stored in parts which are not assembled.");
+            }
+            return assembledContent;
+        }
+        return mimeMessageContent != null ? MailContentCodec.orNone(contentCodec).decode(mimeMessageContent) : null;
+    }
+
+    @Override
+    public InputStream openMimeMessageContent() throws IOException {
+        if (contentFileId != null) {
+            if (contentFile == null) {
+                throw new IllegalStateException("Content of mail " + id + " is stored in GridFS which is not attached.");
+            }
+            return new GridFsContentStream(contentFile);
+        }
+        return PersistedMail.super.openMimeMessageContent();
+    }
+
+    ObjectId getContentFileId() {
+        return contentFileId;
+    }
+
+    void attachContentFile(GridFSDBFile contentFile) {
+        this.contentFile = contentFile;
+    }
+
+    List<String> getBlobIds() {
+        if (contentParts == null) {
+            return Collections.emptyList();
+        }
+        return contentParts.stream().filter(ContentPart::isBlob).map(ContentPart::getBlobId).collect(Collectors.toList());
+    }
+
+    void assemble(Map<String, byte[]> blobs) {
+        if (contentParts == null) {
+            return;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (ContentPart part : contentParts) {
+            byte[] data = part.isBlob() ? blobs.get(part.getBlobId()) : part.getData();
+            if (data == null) {
+                throw new IllegalStateException("Blob " + part.getBlobId() + " of mail " + id + " is missing.");
+            }
+            content.write(data, 0, data.length);
+        }
+        assembledContent = content.toByteArray();
+    }
+
+    byte[] getEncodedContent() {
         return mimeMessageContent;
     }
 
+    MailContentCodec getContentCodec() {
+        return contentCodec;
+    }
+
     @Override
     public LocalDateTime getCreatedDate() {
         return createdDate;
@@ -0,0 +1,299 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+
+/**
+ * Stores large parts of mime messages only once, keyed by their SHA-256 hash, and counts the mails referencing them.
+ * If the same html body or attachment is sent to many recipients it is written once instead of once per mail.
+ * <p>
+ * Messages are cut at their boundary lines, so concatenating the parts gives exactly the stored message. Parts of at
+ * least {@code minPartSize} bytes go to the blob collection, everything else stays inline in the mail document.
+ * <p>
+ * Blobs are removed when their last mail is deleted or sent with its content stripped. Mails removed by the TTL index
+ * do not decrease the references, so blobs no mail references any more are swept regularly. Blobs never expire by
+ * age, a mail waiting for days still finds its content.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class MongoBlobStore {
+
+    static final String COLLECTION = "mailBlobs";
+
+    private static final long SWEEP_AFTER_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int SWEEP_BATCH_SIZE = 1000;
+    private static final int CACHE_SIZE = 8;
+
+    private final MongoOperations mongoOperations;
+    private final MailContentCodec contentCodec;
+    private final int minPartSize;
+
+    // blobs never change, so recently read ones can be kept without invalidation
+    private final Map<String, byte[]> cache = Collections.synchronizedMap(new RecentBlobs());
+
+    MongoBlobStore(MongoOperations mongoOperations, MailContentCodec contentCodec, int minPartSize) {
+        this.mongoOperations = mongoOperations;
+        this.contentCodec = contentCodec;
+        this.minPartSize = minPartSize;
+        dropExpiry();
+        collection().createIndex(new BasicDBObject("lastReferenced", 1), new BasicDBObject("name", "lastReferenced"));
+    }
+
+    /**
+     * Older versions removed blobs four days after they were last referenced, even if a mail still waiting needed them.
+     */
+    private void dropExpiry() {
+        DBCollection blobs = collection();
+        for (DBObject index : blobs.getIndexInfo()) {
+            if (index.containsField("expireAfterSeconds")) {
+                blobs.dropIndex((String) index.get("name"));
+            }
+        }
+    }
+
+    /**
+     * Splits the messages into parts and stores the large parts with one bulk write.
+     *
+     * @return the parts of every message, in the same order as the messages.
+     */
+    List<List<ContentPart>> store(List<byte[]> mimeMessageContents) {
+
+        Map<String, byte[]> blobs = new LinkedHashMap<>();
+        Map<String, Integer> references = new HashMap<>();
+        List<List<ContentPart>> partsOfMessages = new ArrayList<>(mimeMessageContents.size());
+
+        for (byte[] content : mimeMessageContents) {
+            List<ContentPart> parts = new ArrayList<>();
+            List<byte[]> inline = new ArrayList<>();
+
+            for (byte[] segment : split(content)) {
+                if (segment.length < minPartSize) {
+                    inline.add(segment);
+                    continue;
+                }
+                if (!inline.isEmpty()) {
+                    parts.add(ContentPart.inline(concat(inline)));
+                    inline.clear();
+                }
+                String blobId = sha256(segment);
+                blobs.putIfAbsent(blobId, segment);
+                references.merge(blobId, 1, Integer::sum);
+                parts.add(ContentPart.blob(blobId));
+            }
+            if (!inline.isEmpty()) {
+                parts.add(ContentPart.inline(concat(inline)));
+            }
+            partsOfMessages.add(parts);
+        }
+
+        if (!blobs.isEmpty()) {
+            Date now = new Date();
+            BulkWriteOperation bulk = collection().initializeUnorderedBulkOperation();
+            blobs.forEach((blobId, segment) -> {
+                DBObject update = new BasicDBObject()
+                    .append("$setOnInsert", new BasicDBObject("content", contentCodec.encode(segment)).append("codec", contentCodec.name()))
+                    .append("$inc", new BasicDBObject("references", references.get(blobId)))
+                    .append("$set", new BasicDBObject("lastReferenced", now));
+                bulk.find(new BasicDBObject("_id", blobId)).upsert().updateOne(update);
+            });
+            bulk.execute();
+        }
+
+        return partsOfMessages;
+    }
+
+    /**
+     * Reassembles the content of the mail documents which are stored in parts, loading all their blobs at once.
+     */
+    void assemble(Collection<MailDocument> mailDocuments) {
+
+        Map<String, byte[]> blobs = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (MailDocument mailDocument : mailDocuments) {
+            for (String blobId : mailDocument.getBlobIds()) {
+                byte[] cached = cache.get(blobId);
+                if (cached != null) {
+                    blobs.put(blobId, cached);
+                }
+                else {
+                    missing.add(blobId);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            try (DBCursor cursor = collection().find(new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(missing))))) {
+                for (DBObject blob : cursor) {
+                    MailContentCodec codec = MailContentCodec.valueOf((String) blob.get("codec"));
+                    byte[] segment = codec.decode((byte[]) blob.get("content"));
+                    String blobId = (String) blob.get("_id");
+                    blobs.put(blobId, segment);
+                    cache.put(blobId, segment);
+                }
+            }
+        }
+
+        mailDocuments.forEach(mailDocument -> mailDocument.assemble(blobs));
+    }
+
+    /**
+     * Drops the references of deleted mails and removes blobs which are not referenced any more.
+     */
+    void release(Collection<String> blobIds) {
+
+        if (blobIds.isEmpty()) {
+            return;
+        }
+
+        Map<String, Integer> references = new HashMap<>();
+        blobIds.forEach(blobId -> references.merge(blobId, 1, Integer::sum));
+
+        BulkWriteOperation bulk = collection().initializeUnorderedBulkOperation();
+        references.forEach((blobId, count) ->
+            bulk.find(new BasicDBObject("_id", blobId)).updateOne(new BasicDBObject("$inc", new BasicDBObject("references", -count))));
+        bulk.execute();
+
+        collection().remove(new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(references.keySet())))
+            .append("references", new BasicDBObject("$lte", 0)));
+    }
+
+    /**
+     * Removes blobs which were not referenced for an hour and which no mail references any more. Blobs still
+     * referenced are marked as referenced now, so they are checked again an hour later at the earliest. A blob stored
+     * again while it is checked is referenced again and kept.
+     *
+     * @param referenced tells whether any mail references the blob with the given id.
+     * @return the number of removed blobs.
+     */
+    int removeOrphans(Predicate<String> referenced) {
+
+        Date swept = new Date(System.currentTimeMillis() - SWEEP_AFTER_MILLIS);
+        DBObject unchecked = new BasicDBObject("lastReferenced", new BasicDBObject("$lt", swept));
+
+        List<String> blobIds = new ArrayList<>();
+        try (DBCursor cursor = collection().find(unchecked, new BasicDBObject("_id", 1)).limit(SWEEP_BATCH_SIZE)) {
+            cursor.forEach(blob -> blobIds.add((String) blob.get("_id")));
+        }
+
+        int removed = 0;
+        Date now = new Date();
+        for (String blobId : blobIds) {
+            DBObject query = new BasicDBObject("_id", blobId).append("lastReferenced", new BasicDBObject("$lt", swept));
+            if (referenced.test(blobId)) {
+                collection().update(query, new BasicDBObject("$set", new BasicDBObject("lastReferenced", now)));
+            }
+            else {
+                removed += collection().remove(query).getN();
+                cache.remove(blobId);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Cuts the message before and after every line starting with two dashes, which are the multipart boundaries.
+     * Any other line starting with two dashes just leads to one more cut, the parts still add up to the message.
+     */
+    static List<byte[]> split(byte[] content) {
+
+        List<byte[]> segments = new ArrayList<>();
+        int segmentStart = 0;
+        int i = 0;
+
+        while (i < content.length) {
+            boolean lineStart = i == 0 || content[i - 1] == '\n';
+            if (lineStart && i + 1 < content.length && content[i] == '-' && content[i + 1] == '-') {
+                int lineEnd = i;
+                while (lineEnd < content.length && content[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                lineEnd = Math.min(lineEnd + 1, content.length);
+
+                if (i > segmentStart) {
+                    segments.add(copy(content, segmentStart, i));
+                }
+                segments.add(copy(content, i, lineEnd));
+                segmentStart = lineEnd;
+                i = lineEnd;
+            }
+            else {
+                i++;
+            }
+        }
+        if (segmentStart < content.length) {
+            segments.add(copy(content, segmentStart, content.length));
+        }
+        return segments;
+    }
+
+    private DBCollection collection() {
+        return mongoOperations.getCollection(COLLECTION);
+    }
+
+    private static byte[] copy(byte[] content, int from, int to) {
+        byte[] segment = new byte[to - from];
+        System.arraycopy(content, from, segment, 0, segment.length);
+        return segment;
+    }
+
+    private static byte[] concat(List<byte[]> segments) {
+        int length = segments.stream().mapToInt(segment -> segment.length).sum();
+        byte[] joined = new byte[length];
+        int position = 0;
+        for (byte[] segment : segments) {
+            System.arraycopy(segment, 0, joined, position, segment.length);
+            position += segment.length;
+        }
+        return joined;
+    }
+
+    private static String sha256(byte[] segment) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(segment);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    private static class RecentBlobs extends LinkedHashMap<String, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        RecentBlobs() {
+            super(CACHE_SIZE, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    }
+}
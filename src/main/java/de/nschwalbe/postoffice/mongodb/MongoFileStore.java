@@ -0,0 +1,200 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+
+/**
+ * Keeps mime messages above a size threshold in GridFS instead of the mail document. Large messages are streamed
+ * chunk by chunk in both directions, so they neither need to fit into the heap nor into the 16MB document limit.
+ * <p>
+ * A file is removed together with its mail or its stripped content. Mails removed by the TTL index leave their file
+ * behind, so files no mail references any more are swept regularly.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class MongoFileStore {
+
+    static final String BUCKET = "mailContent";
+
+    private static final long SWEEP_AFTER_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int SWEEP_BATCH_SIZE = 100;
+
+    private final GridFS gridFs;
+    private final int threshold;
+
+    /**
+     * @param threshold messages of more bytes are stored in GridFS.
+     */
+    MongoFileStore(MongoOperations mongoOperations, int threshold) {
+        this.gridFs = mongoOperations.execute(db -> new GridFS(db, BUCKET));
+        this.threshold = threshold;
+        files().createIndex(new BasicDBObject("lastReferenced", 1), new BasicDBObject("name", "lastReferenced").append("sparse", true));
+    }
+
+    ContentOutputStream newOutputStream() {
+        return new ContentOutputStream();
+    }
+
+    /**
+     * Attaches the GridFS files to the mail documents stored there, loading the file infos of all mails at once.
+     */
+    void attach(Collection<MailDocument> mailDocuments) {
+
+        List<ObjectId> fileIds = mailDocuments.stream()
+            .map(MailDocument::getContentFileId)
+            .filter(fileId -> fileId != null)
+            .collect(Collectors.toList());
+
+        if (fileIds.isEmpty()) {
+            return;
+        }
+
+        Map<Object, GridFSDBFile> files = gridFs.find(new BasicDBObject("_id", new BasicDBObject("$in", fileIds))).stream()
+            .collect(Collectors.toMap(GridFSDBFile::getId, Function.identity()));
+
+        for (MailDocument mailDocument : mailDocuments) {
+            if (mailDocument.getContentFileId() != null) {
+                GridFSDBFile file = files.get(mailDocument.getContentFileId());
+                if (file == null) {
+                    throw new IllegalStateException("Content of mail " + mailDocument.getId() + " is missing.");
+                }
+                mailDocument.attachContentFile(file);
+            }
+        }
+    }
+
+    void remove(ObjectId fileId) {
+        gridFs.remove(fileId);
+    }
+
+    /**
+     * Removes files which were not referenced for an hour and which no mail references any more. Files still
+     * referenced are marked as referenced now, so they are checked again an hour later at the earliest. Files of older
+     * versions have no mark and count as referenced when they were uploaded.
+     *
+     * @param referenced tells whether any mail references the file with the given id.
+     * @return the number of removed files.
+     */
+    int removeOrphans(Predicate<ObjectId> referenced) {
+
+        Date swept = new Date(System.currentTimeMillis() - SWEEP_AFTER_MILLIS);
+        DBObject unchecked = new BasicDBObject("$or", Arrays.asList(
+            new BasicDBObject("lastReferenced", new BasicDBObject("$lt", swept)),
+            new BasicDBObject("lastReferenced", new BasicDBObject("$exists", false)).append("uploadDate", new BasicDBObject("$lt", swept))));
+
+        List<ObjectId> fileIds = new ArrayList<>();
+        try (DBCursor cursor = gridFs.getFileList(unchecked).limit(SWEEP_BATCH_SIZE)) {
+            cursor.forEach(file -> fileIds.add((ObjectId) file.get("_id")));
+        }
+
+        int removed = 0;
+        Date now = new Date();
+        for (ObjectId fileId : fileIds) {
+            if (referenced.test(fileId)) {
+                files().update(new BasicDBObject("_id", fileId), new BasicDBObject("$set", new BasicDBObject("lastReferenced", now)));
+            }
+            else {
+                gridFs.remove(fileId);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private DBCollection files() {
+        return gridFs.getDB().getCollection(BUCKET + ".files");
+    }
+
+    /**
+     * Buffers the message in memory until it gets larger than the threshold, then moves it to a GridFS file and
+     * writes everything else directly there.
+     */
+    class ContentOutputStream extends OutputStream {
+
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private GridFSInputFile file;
+        private OutputStream fileOut;
+
+        @Override
+        public void write(int b) throws IOException {
+            spillIfLargerThanThreshold(1);
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            spillIfLargerThanThreshold(len);
+            out().write(b, off, len);
+        }
+
+        /**
+         * Completes the GridFS file, if the message was spilled. The file counts as referenced from now on, the mail
+         * referencing it is stored next.
+         */
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                file.put("lastReferenced", new Date());
+                fileOut.close();
+            }
+        }
+
+        /**
+         * Removes the chunks written so far, if writing the message failed.
+         */
+        void discard() {
+            if (file != null) {
+                gridFs.remove((ObjectId) file.getId());
+            }
+        }
+
+        boolean isSpilled() {
+            return file != null;
+        }
+
+        ObjectId getFileId() {
+            return file != null ? (ObjectId) file.getId() : null;
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+
+        private OutputStream out() {
+            return fileOut != null ? fileOut : buffer;
+        }
+
+        private void spillIfLargerThanThreshold(int len) throws IOException {
+            if (fileOut == null && buffer.size() + len > threshold) {
+                file = gridFs.createFile();
+                file.setId(ObjectId.get());
+                fileOut = file.getOutputStream();
+                buffer.writeTo(fileOut);
+                buffer = null;
+            }
+        }
+    }
+}
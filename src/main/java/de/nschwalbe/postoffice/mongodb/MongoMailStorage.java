@@ -3,39 +3,226 @@ package de.nschwalbe.postoffice.mongodb;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
 import static org.springframework.data.mongodb.core.query.Query.query;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import javax.mail.MessagingException;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
 import de.nschwalbe.postoffice.MailProcessState;
 import de.nschwalbe.postoffice.MailStorage;
+import de.nschwalbe.postoffice.MimeMessageWriter;
 import de.nschwalbe.postoffice.PersistedMail;
+import de.nschwalbe.postoffice.PriorityShares;
 
 /**
  * Stores mails in mongodb.
+ * <p>
+ * Sent and failed mails get an expiry date from the {@link RetentionPolicy} which the TTL index removes them at, mails
+ * still to be sent have none. The content of sent mails is stripped or moved to the archive collection, so the mails
+ * collection mostly holds the queue and small state documents.
  *
  * @author Nathanael Schwalbe
  * @since 05.04.2017
  */
 class MongoMailStorage implements MailStorage {
 
+    private static final Logger log = LoggerFactory.getLogger(MongoMailStorage.class);
+
+    static final String ARCHIVE_COLLECTION = "mailArchive";
+
+    private static final Set<String> OUTDATED_INDEXES = new HashSet<>(Arrays.asList("state_createdDate", "state_nextAttemptAt"));
+
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
     private final MongoOperations mongoOperations;
+    private final MailContentCodec contentCodec;
+    private final MongoBlobStore blobStore;
+    private final MongoFileStore fileStore;
+    private final PriorityShares priorityShares;
+    private final RetentionPolicy retentionPolicy;
+    private final PartitionAssignment partitionAssignment;
+
+    private volatile long nextSweep;
 
     MongoMailStorage(MongoOperations mongoOperations) {
-        this.mongoOperations = mongoOperations;
+        this(builder(mongoOperations));
+    }
+
+    private MongoMailStorage(Builder builder) {
+        this.mongoOperations = builder.mongoOperations;
+        this.contentCodec = builder.contentCodec;
+        this.blobStore = builder.blobStore;
+        this.fileStore = builder.fileStore;
+        this.priorityShares = builder.priorityShares;
+        this.retentionPolicy = builder.retentionPolicy;
+        this.partitionAssignment = builder.partitionAssignment;
+        migrateExpiry();
+        if (partitionAssignment != null) {
+            // due mails of the owned partitions are merged from one index range per partition
+            DBObject keys = new BasicDBObject("state", 1).append("priority", 1).append("partition", 1).append("nextAttemptAt", 1).append("_id", 1);
+            mails().createIndex(keys, new BasicDBObject("name", "state_priority_partition_nextAttemptAt"));
+        }
+        // the sweep looks up every old blob and file
+        if (blobStore != null) {
+            mails().createIndex(new BasicDBObject("contentParts.blobId", 1), new BasicDBObject("name", "contentParts_blobId").append("sparse", true));
+        }
+        if (fileStore != null) {
+            mails().createIndex(new BasicDBObject("contentFileId", 1), new BasicDBObject("name", "contentFileId").append("sparse", true));
+        }
+        if (retentionPolicy.getSentContent() == RetentionPolicy.SentContent.ARCHIVE) {
+            archive().createIndex(new BasicDBObject("expireAt", 1), new BasicDBObject("expireAfterSeconds", 0));
+            if (fileStore != null) {
+                archive().createIndex(new BasicDBObject("contentFileId", 1), new BasicDBObject("name", "contentFileId").append("sparse", true));
+            }
+        }
+    }
+
+    /**
+     * Older versions removed every mail three days after it was created, sent or not. That index is dropped and mails
+     * finished before get their expiry date now. The claim indexes of older versions are dropped as well, every write
+     * would still maintain them.
+     */
+    private void migrateExpiry() {
+        DBCollection mails = mails();
+        for (DBObject index : mails.getIndexInfo()) {
+            DBObject key = (DBObject) index.get("key");
+            String name = (String) index.get("name");
+            if ((key.containsField("createdDate") && index.containsField("expireAfterSeconds")) || OUTDATED_INDEXES.contains(name)) {
+                mails.dropIndex(name);
+            }
+        }
+        for (MailProcessState state : MailProcessState.values()) {
+            Duration retention = retentionPolicy.retention(state);
+            if (retention != null) {
+                Query query = query(where("state").is(state).and("expireAt").exists(false));
+                mongoOperations.updateMulti(query, Update.update("expireAt", expiry(retention)), MailDocument.class);
+            }
+        }
     }
 
     @Override
     public MailDocument create(byte[] mimeMessageContent) {
-        MailDocument mailDocument = new MailDocument(mimeMessageContent);
-        mongoOperations.save(mailDocument);
+        return create(mimeMessageContent, MailEnvelope.UNKNOWN);
+    }
+
+    @Override
+    public MailDocument create(MimeMessageWriter writer) throws IOException, MessagingException {
+        return create(writer, MailEnvelope.UNKNOWN);
+    }
+
+    /**
+     * Streams the message into GridFS once it gets larger than the threshold of the file store, smaller messages are
+     * stored like {@link #create(byte[])} does.
+     */
+    @Override
+    public MailDocument create(MimeMessageWriter writer, MailEnvelope envelope) throws IOException, MessagingException {
+
+        if (fileStore == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.writeTo(out);
+            return create(out.toByteArray(), envelope);
+        }
+
+        MongoFileStore.ContentOutputStream out = fileStore.newOutputStream();
+        try {
+            writer.writeTo(out);
+            out.close();
+        } catch (IOException | MessagingException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+
+        if (!out.isSpilled()) {
+            return create(out.toByteArray(), envelope);
+        }
+
+        MailDocument mailDocument = new MailDocument(null, out.getFileId());
+        mailDocument.setEnvelope(envelope);
+        try {
+            mongoOperations.insert(mailDocument);
+        } catch (RuntimeException e) {
+            out.discard();
+            throw e;
+        }
         return mailDocument;
     }
 
+    @Override
+    public List<MailDocument> createAll(List<byte[]> mimeMessageContents) {
+        return createAll(mimeMessageContents, Collections.nCopies(mimeMessageContents.size(), MailEnvelope.UNKNOWN));
+    }
+
+    /**
+     * Inserts all mails with one unordered bulk write, the driver splits it into as few round trips as possible.
+     */
+    @Override
+    public List<MailDocument> createAll(List<byte[]> mimeMessageContents, List<MailEnvelope> envelopes) {
+
+        if (mimeMessageContents.size() != envelopes.size()) {
+            throw new IllegalArgumentException("Every mail needs an envelope.");
+        }
+
+        List<MailDocument> mailDocuments;
+        if (blobStore != null) {
+            // the blobs are written first, a mail must never reference a missing blob
+            mailDocuments = blobStore.store(mimeMessageContents).stream()
+                .map(parts -> new MailDocument(ObjectId.get().toHexString(), parts))
+                .collect(Collectors.toList());
+        }
+        else {
+            mailDocuments = mimeMessageContents.stream()
+                .map(content -> newMailDocument(ObjectId.get().toHexString(), content))
+                .collect(Collectors.toList());
+        }
+        for (int i = 0; i < mailDocuments.size(); i++) {
+            mailDocuments.get(i).setEnvelope(envelopes.get(i));
+        }
+
+        if (!mailDocuments.isEmpty()) {
+            mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, MailDocument.class)
+                .insert(mailDocuments)
+                .execute();
+        }
+        return mailDocuments;
+    }
+
+    @Deprecated
     @Override
     public List<String> findNotSentIds() {
 
@@ -47,24 +234,463 @@ class MongoMailStorage implements MailStorage {
         return mailDocuments.stream().map(MailDocument::getId).collect(Collectors.toList());
     }
 
+    @Deprecated
     @Override
     public MailDocument findNotSentAndStartProgress(String mailId) {
 
         Query query = query(where("_id").is(mailId).and("state").is(MailProcessState.NOT_SENT));
         Update update = Update.update("state", MailProcessState.IN_PROGRESS);
-        return mongoOperations.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), MailDocument.class);
+        MailDocument mailDocument = mongoOperations.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), MailDocument.class);
+        if (mailDocument != null) {
+            loadContent(Collections.singletonList(mailDocument));
+        }
+        return mailDocument;
+    }
+
+    @Override
+    public List<MailDocument> claimBatch(int maxSize, String owner, Duration lease) {
+        return claimBatch(maxSize, owner, lease, Collections.emptyList());
+    }
+
+    /**
+     * Claims mails in three steps: select the ids of the mails due the longest in each priority lane, mark the share of
+     * every lane with a unique claim id in one multi update and read back only those which carry our claim id. Mails
+     * grabbed by another worker between the first and the second step are just left out.
+     * <p>
+     * New mails are due when they are created, failed mails when their retry is scheduled. Mails stored before
+     * retries existed have no due date and count as due.
+     * <p>
+     * With a {@link PartitionAssignment} only mails of the partitions owned by the claiming node are selected, so
+     * nodes rarely grab the same mails.
+     */
+    @Override
+    public List<MailDocument> claimBatch(int maxSize, String owner, Duration lease, Collection<String> excludedDomains) {
+
+        List<Integer> partitions = null;
+        if (partitionAssignment != null) {
+            partitions = partitionAssignment.owned(owner);
+            if (partitions.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (partitions.size() == PartitionAssignment.PARTITIONS) {
+                partitions = null;
+            }
+        }
+
+        Date now = new Date();
+        Map<MailPriority, List<String>> dueIds = new EnumMap<>(MailPriority.class);
+        Map<MailPriority, Integer> due = new EnumMap<>(MailPriority.class);
+        for (MailPriority priority : MailPriority.values()) {
+            List<String> ids = findDueIds(priority, maxSize, excludedDomains, partitions, now);
+            dueIds.put(priority, ids);
+            due.put(priority, ids.size());
+        }
+
+        // highest priority first, the workers send them in this order
+        List<String> candidateIds = new ArrayList<>(maxSize);
+        priorityShares.allocate(maxSize, due).forEach((priority, share) -> candidateIds.addAll(dueIds.get(priority).subList(0, share)));
+
+        if (candidateIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        String claimId = UUID.randomUUID().toString();
+
+        Query claimQuery = query(where("_id").in(candidateIds).and("state").is(MailProcessState.NOT_SENT).and("nextAttemptAt").not().gt(now));
+        Update claimUpdate = Update.update("state", MailProcessState.IN_PROGRESS)
+            .set("claimId", claimId)
+            .set("owner", owner)
+            .set("leaseExpiresAt", expiry(lease));
+        mongoOperations.updateMulti(claimQuery, claimUpdate, MailDocument.class);
+
+        Query claimedQuery = query(where("_id").in(candidateIds).and("claimId").is(claimId));
+
+        List<MailDocument> claimed = mongoOperations.find(claimedQuery, MailDocument.class);
+        claimed.sort(Comparator.comparingInt(mailDocument -> candidateIds.indexOf(mailDocument.getId())));
+        loadContent(claimed);
+        return claimed;
+    }
+
+    private List<String> findDueIds(MailPriority priority, int limit, Collection<String> excludedDomains, List<Integer> partitions, Date now) {
+
+        Criteria criteria = where("state").is(MailProcessState.NOT_SENT);
+        // mails stored before priorities existed are normal ones
+        if (priority == MailPriority.NORMAL) {
+            criteria.and("priority").in(priority, null);
+        }
+        else {
+            criteria.and("priority").is(priority);
+        }
+        if (partitions != null) {
+            // mails stored before partitions existed belong to the first one
+            List<Integer> values = new ArrayList<>(partitions);
+            if (partitions.contains(0)) {
+                values.add(null);
+            }
+            criteria.and("partition").in(values);
+        }
+        criteria.and("nextAttemptAt").not().gt(now);
+        if (!excludedDomains.isEmpty()) {
+            criteria.and("recipientDomain").nin(excludedDomains);
+        }
+
+        Query query = query(criteria)
+            .with(new Sort(Sort.Direction.ASC, "nextAttemptAt", "_id"))
+            .limit(limit);
+        query.fields().include("_id");
+
+        return mongoOperations.find(query, MailDocument.class).stream()
+            .map(MailDocument::getId)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public void renewLeases(Collection<String> mailIds, String owner, Duration lease) {
+        Query query = query(where("_id").in(mailIds).and("state").is(MailProcessState.IN_PROGRESS).and("owner").is(owner));
+        mongoOperations.updateMulti(query, Update.update("leaseExpiresAt", expiry(lease)), MailDocument.class);
+    }
+
+    /**
+     * Also removes content no mail references any more, at most every ten minutes. This is the only method called
+     * periodically.
+     */
+    @Override
+    public int releaseExpiredLeases() {
+        sweepOrphanedContent();
+        Query query = query(where("state").is(MailProcessState.IN_PROGRESS).and("leaseExpiresAt").lt(new Date()));
+        Update update = Update.update("state", MailProcessState.NOT_SENT).unset("owner").unset("leaseExpiresAt");
+        return mongoOperations.updateMulti(query, update, MailDocument.class).getN();
+    }
+
+    // one count per state uses the state prefix of the claim index and never touches the documents
+    @Override
+    public Map<MailProcessState, Long> countByState() {
+        Map<MailProcessState, Long> counts = new EnumMap<>(MailProcessState.class);
+        for (MailProcessState state : MailProcessState.values()) {
+            counts.put(state, mongoOperations.count(query(where("state").is(state)), MailDocument.class));
+        }
+        return counts;
+    }
+
+    @Override
+    public long countPending() {
+        return mongoOperations.count(query(where("state").in(MailProcessState.NOT_SENT, MailProcessState.IN_PROGRESS)), MailDocument.class);
     }
 
     @Override
     public void delete(String id) {
-        mongoOperations.remove(query(where("_id").is(id)), MailDocument.class);
+        if (blobStore == null && fileStore == null) {
+            mongoOperations.remove(query(where("_id").is(id)), MailDocument.class);
+            return;
+        }
+
+        // only the references to content stored elsewhere are needed
+        Query query = query(where("_id").is(id));
+        query.fields().include("contentParts").include("contentFileId");
+        MailDocument removed = mongoOperations.findAndRemove(query, MailDocument.class);
+        if (removed != null) {
+            releaseContent(removed);
+        }
     }
 
+    /**
+     * Sets the fields which change while a mail is sent, the content is never written again, only stripped once the
+     * mail is sent.
+     */
     @Override
     public void update(PersistedMail mail) {
         if (mail.getId() == null) {
             throw new IllegalArgumentException("Cannot update mail because it is not persisted yet.");
         }
-        mongoOperations.save(mail);
+        MailDocument mailDocument = (MailDocument) mail;
+        boolean updated = mongoOperations.updateFirst(query(where("_id").is(mail.getId())), stateUpdate(mailDocument), MailDocument.class).getN() > 0;
+        if (updated && stripsContent(mailDocument)) {
+            archive(Collections.singletonList(mailDocument));
+            releaseContent(mailDocument);
+        }
+    }
+
+    /**
+     * Stripping the content of a sent mail also archives it and releases its blobs and GridFS file, but only if this
+     * call moved it on.
+     */
+    @Override
+    public boolean transition(PersistedMail mail, MailProcessState expected) {
+        MailDocument mailDocument = (MailDocument) mail;
+        Query query = query(where("_id").is(mail.getId()).and("state").is(expected));
+        boolean transitioned = mongoOperations.updateFirst(query, stateUpdate(mailDocument), MailDocument.class).getN() > 0;
+        if (transitioned && stripsContent(mailDocument)) {
+            archive(Collections.singletonList(mailDocument));
+            releaseContent(mailDocument);
+        }
+        return transitioned;
+    }
+
+    /**
+     * Moves all mails on with one unordered bulk write. Sent mails whose content is stored elsewhere are moved on one by
+     * one, the bulk result does not tell which mails matched and only those may release their content. Sent mails to
+     * be archived are looked up after the bulk write, only those which are sent now are archived.
+     */
+    @Override
+    public int transitionAll(List<? extends PersistedMail> mails, MailProcessState expected) {
+        int transitioned = 0;
+        List<MailDocument> bulkMails = new ArrayList<>(mails.size());
+        for (PersistedMail mail : mails) {
+            MailDocument mailDocument = (MailDocument) mail;
+            if (stripsContent(mailDocument) && (mailDocument.getContentFileId() != null || !mailDocument.getBlobIds().isEmpty())) {
+                transitioned += transition(mailDocument, expected) ? 1 : 0;
+            }
+            else {
+                bulkMails.add(mailDocument);
+            }
+        }
+        if (bulkMails.isEmpty()) {
+            return transitioned;
+        }
+
+        BulkOperations bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, MailDocument.class);
+        for (MailDocument mailDocument : bulkMails) {
+            bulk.updateOne(query(where("_id").is(mailDocument.getId()).and("state").is(expected)), stateUpdate(mailDocument));
+        }
+        transitioned += bulk.execute().getMatchedCount();
+
+        if (retentionPolicy.getSentContent() == RetentionPolicy.SentContent.ARCHIVE) {
+            List<String> sentIds = bulkMails.stream().filter(this::stripsContent).map(MailDocument::getId).collect(Collectors.toList());
+            if (!sentIds.isEmpty()) {
+                // a mail moved on by someone else in between was archived by them
+                Query sentQuery = query(where("_id").in(sentIds).and("state").is(MailProcessState.SENT));
+                sentQuery.fields().include("_id");
+                Set<String> sent = mongoOperations.find(sentQuery, MailDocument.class).stream().map(MailDocument::getId).collect(Collectors.toSet());
+                archive(bulkMails.stream().filter(mailDocument -> sent.contains(mailDocument.getId())).collect(Collectors.toList()));
+            }
+        }
+        return transitioned;
+    }
+
+    private Update stateUpdate(MailDocument mailDocument) {
+        Update update = Update.update("state", mailDocument.getState())
+            .set("errorMessage", mailDocument.getErrorMessage())
+            .set("attempts", mailDocument.getAttempts())
+            .set("nextAttemptAt", mailDocument.getNextAttemptAt())
+            .set("lastModifiedDate", new Date());
+        Duration retention = retentionPolicy.retention(mailDocument.getState());
+        if (retention != null) {
+            update.set("expireAt", expiry(retention));
+        }
+        if (stripsContent(mailDocument)) {
+            update.unset("mimeMessageContent").unset("contentCodec").unset("contentParts").unset("contentFileId");
+        }
+        if (mailDocument.getState() == MailProcessState.IN_PROGRESS) {
+            return update.set("owner", mailDocument.getOwner()).set("leaseExpiresAt", mailDocument.getLeaseExpiresAt());
+        }
+        return update.unset("owner").unset("leaseExpiresAt");
+    }
+
+    private boolean stripsContent(MailDocument mailDocument) {
+        return mailDocument.getState() == MailProcessState.SENT && retentionPolicy.getSentContent() != RetentionPolicy.SentContent.KEEP;
+    }
+
+    /**
+     * Copies the content of sent mails to the archive once they were moved on. Mails in GridFS are too large for a
+     * document, their archive entry references the file, which is kept until the entry expired.
+     */
+    private void archive(List<MailDocument> mailDocuments) {
+
+        if (retentionPolicy.getSentContent() != RetentionPolicy.SentContent.ARCHIVE) {
+            return;
+        }
+
+        Date now = new Date();
+        Date expireAt = expiry(retentionPolicy.getArchiveRetention());
+        BulkWriteOperation bulk = null;
+        for (MailDocument mailDocument : mailDocuments) {
+            if (!stripsContent(mailDocument)) {
+                continue;
+            }
+            BasicDBObject archived = new BasicDBObject();
+            if (mailDocument.getContentFileId() != null) {
+                archived.append("contentFileId", mailDocument.getContentFileId());
+            }
+            else if (mailDocument.getEncodedContent() != null) {
+                archived.append("content", mailDocument.getEncodedContent())
+                    .append("codec", MailContentCodec.orNone(mailDocument.getContentCodec()).name());
+            }
+            else {
+                // deduplicated mails are archived as a whole, the blobs are released
+                archived.append("content", contentCodec.encode(mailDocument.getMimeMessageContent()))
+                    .append("codec", contentCodec.name());
+            }
+            archived.append("recipientDomain", mailDocument.getRecipientDomain())
+                .append("createdDate", Date.from(mailDocument.getCreatedDate().atZone(ZoneId.systemDefault()).toInstant()))
+                .append("archivedDate", now)
+                .append("expireAt", expireAt);
+            if (bulk == null) {
+                bulk = archive().initializeUnorderedBulkOperation();
+            }
+            bulk.find(new BasicDBObject("_id", mailDocument.getId())).upsert().replaceOne(archived);
+        }
+        if (bulk != null) {
+            bulk.execute();
+        }
+    }
+
+    /**
+     * Mails removed by the TTL index leave their content behind, it is removed once no mail references it any more. GridFS
+     * files are kept as long as an archive entry references them.
+     */
+    private void sweepOrphanedContent() {
+        long now = System.currentTimeMillis();
+        if (blobStore == null && fileStore == null || now < nextSweep) {
+            return;
+        }
+        nextSweep = now + SWEEP_INTERVAL;
+
+        try {
+            if (blobStore != null) {
+                int removed = blobStore.removeOrphans(blobId -> mongoOperations.exists(query(where("contentParts.blobId").is(blobId)), MailDocument.class));
+                if (removed > 0) {
+                    log.info("Removed {} blobs no mail references any more.", removed);
+                }
+            }
+            if (fileStore != null) {
+                int removed = fileStore.removeOrphans(fileId -> mongoOperations.exists(query(where("contentFileId").is(fileId)), MailDocument.class)
+                    || archive().findOne(new BasicDBObject("contentFileId", fileId), new BasicDBObject("_id", 1)) != null);
+                if (removed > 0) {
+                    log.info("Removed {} GridFS files no mail references any more.", removed);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not remove content no mail references any more.", e);
+        }
+    }
+
+    private void releaseContent(MailDocument mailDocument) {
+        if (blobStore != null) {
+            blobStore.release(mailDocument.getBlobIds());
+        }
+        // the archive entry references the file until it expired, the sweep removes it then
+        boolean archived = stripsContent(mailDocument) && retentionPolicy.getSentContent() == RetentionPolicy.SentContent.ARCHIVE;
+        if (fileStore != null && mailDocument.getContentFileId() != null && !archived) {
+            fileStore.remove(mailDocument.getContentFileId());
+        }
+    }
+
+    private DBCollection mails() {
+        return mongoOperations.getCollection(mongoOperations.getCollectionName(MailDocument.class));
+    }
+
+    private DBCollection archive() {
+        return mongoOperations.getCollection(ARCHIVE_COLLECTION);
+    }
+
+    private void loadContent(List<MailDocument> mailDocuments) {
+        if (mailDocuments.isEmpty()) {
+            return;
+        }
+        if (blobStore != null) {
+            blobStore.assemble(mailDocuments);
+        }
+        if (fileStore != null) {
+            fileStore.attach(mailDocuments);
+        }
+    }
+
+    private MailDocument create(byte[] mimeMessageContent, MailEnvelope envelope) {
+        if (blobStore != null) {
+            return createAll(Collections.singletonList(mimeMessageContent), Collections.singletonList(envelope)).get(0);
+        }
+        MailDocument mailDocument = newMailDocument(null, mimeMessageContent);
+        mailDocument.setEnvelope(envelope);
+        mongoOperations.save(mailDocument);
+        return mailDocument;
+    }
+
+    private MailDocument newMailDocument(String id, byte[] mimeMessageContent) {
+        if (contentCodec != MailContentCodec.NONE) {
+            byte[] encoded = contentCodec.encode(mimeMessageContent);
+            // tiny or already compressed content might not get any smaller
+            if (encoded.length < mimeMessageContent.length) {
+                return new MailDocument(id, encoded, contentCodec);
+            }
+        }
+        return new MailDocument(id, mimeMessageContent, MailContentCodec.NONE);
+    }
+
+    private static Date expiry(Duration lease) {
+        return Date.from(Instant.now().plus(lease));
+    }
+
+    static Builder builder(MongoOperations mongoOperations) {
+        return new Builder(mongoOperations);
+    }
+
+    /**
+     * Builds a storage, every setting left out keeps its default.
+     */
+    static class Builder {
+
+        private final MongoOperations mongoOperations;
+        private MailContentCodec contentCodec = MailContentCodec.NONE;
+        private MongoBlobStore blobStore;
+        private MongoFileStore fileStore;
+        private PriorityShares priorityShares = PriorityShares.defaults();
+        private RetentionPolicy retentionPolicy = RetentionPolicy.defaults();
+        private PartitionAssignment partitionAssignment;
+
+        private Builder(MongoOperations mongoOperations) {
+            this.mongoOperations = mongoOperations;
+        }
+
+        /**
+         * @param contentCodec codec to store new mails with, mails stored with another codec can still be read.
+         */
+        Builder contentCodec(MailContentCodec contentCodec) {
+            this.contentCodec = contentCodec;
+            return this;
+        }
+
+        /**
+         * @param blobStore stores large parts shared by many mails only once, null to keep every mail in one document.
+         */
+        Builder blobStore(MongoBlobStore blobStore) {
+            this.blobStore = blobStore;
+            return this;
+        }
+
+        /**
+         * @param fileStore streams mails above its threshold to GridFS, null to keep every mail in the mails collection.
+         */
+        Builder fileStore(MongoFileStore fileStore) {
+            this.fileStore = fileStore;
+            return this;
+        }
+
+        /**
+         * @param priorityShares how claimed batches are shared between the priority lanes.
+         */
+        Builder priorityShares(PriorityShares priorityShares) {
+            this.priorityShares = priorityShares;
+            return this;
+        }
+
+        /**
+         * @param retentionPolicy how long finished mails are kept and what happens to the content of sent mails.
+         */
+        Builder retentionPolicy(RetentionPolicy retentionPolicy) {
+            this.retentionPolicy = retentionPolicy;
+            return this;
+        }
+
+        /**
+         * @param partitionAssignment shares the partitions between the nodes, null to let every node claim any mail.
+         */
+        Builder partitionAssignment(PartitionAssignment partitionAssignment) {
+            this.partitionAssignment = partitionAssignment;
+            return this;
+        }
+
+        MongoMailStorage build() {
+            return new MongoMailStorage(this);
+        }
     }
 }
@@ -1,12 +1,19 @@
 package de.nschwalbe.postoffice.mongodb;
 
+import java.time.Duration;
+
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.data.mongodb.core.MongoOperations;
 
+import de.nschwalbe.postoffice.DeliverySignal;
+import de.nschwalbe.postoffice.MailContentCodec;
 import de.nschwalbe.postoffice.MailStorage;
+import de.nschwalbe.postoffice.PriorityShares;
 
 /**
  * Configuration for the mongo storage.
@@ -20,7 +27,47 @@ import de.nschwalbe.postoffice.MailStorage;
 public class MongoMailStorageConfiguration {
 
     @Bean
-    public MongoMailStorage mongoMailStorage(MongoOperations mongoOperations) {
-        return new MongoMailStorage(mongoOperations);
+    public MongoMailStorage mongoMailStorage(MongoOperations mongoOperations, Environment env) {
+        MailContentCodec contentCodec = MailContentCodec.valueOf(env.getProperty("postoffice.mongodb.compression", "none").toUpperCase());
+        MongoBlobStore blobStore = null;
+        if (env.getProperty("postoffice.mongodb.deduplication.enabled", Boolean.class, false)) {
+            int minPartSize = env.getProperty("postoffice.mongodb.deduplication.min-part-size", Integer.class, 16384);
+            blobStore = new MongoBlobStore(mongoOperations, contentCodec, minPartSize);
+        }
+        MongoFileStore fileStore = null;
+        int gridFsThreshold = env.getProperty("postoffice.mongodb.gridfs-threshold", Integer.class, 8388608);
+        if (gridFsThreshold > 0) {
+            fileStore = new MongoFileStore(mongoOperations, gridFsThreshold);
+        }
+        PriorityShares priorityShares = new PriorityShares(
+            env.getProperty("postoffice.priority.high-weight", Integer.class, 70),
+            env.getProperty("postoffice.priority.normal-weight", Integer.class, 25),
+            env.getProperty("postoffice.priority.low-weight", Integer.class, 5));
+        RetentionPolicy retentionPolicy = new RetentionPolicy(
+            Duration.ofSeconds(env.getProperty("postoffice.mongodb.retention.sent", Integer.class, 259200)),
+            Duration.ofSeconds(env.getProperty("postoffice.mongodb.retention.failed", Integer.class, 259200)),
+            RetentionPolicy.SentContent.valueOf(env.getProperty("postoffice.mongodb.retention.sent-content", "strip").toUpperCase()),
+            Duration.ofSeconds(env.getProperty("postoffice.mongodb.retention.archive", Integer.class, 2592000)));
+        PartitionAssignment partitionAssignment = null;
+        if (env.getProperty("postoffice.mongodb.partitioning.enabled", Boolean.class, false)) {
+            partitionAssignment = new PartitionAssignment(
+                mongoOperations,
+                Duration.ofSeconds(env.getProperty("postoffice.mongodb.partitioning.heartbeat", Integer.class, 10)),
+                Duration.ofSeconds(env.getProperty("postoffice.mongodb.partitioning.node-timeout", Integer.class, 60)));
+        }
+        return MongoMailStorage.builder(mongoOperations)
+            .contentCodec(contentCodec)
+            .blobStore(blobStore)
+            .fileStore(fileStore)
+            .priorityShares(priorityShares)
+            .retentionPolicy(retentionPolicy)
+            .partitionAssignment(partitionAssignment)
+            .build();
+    }
+
+    @ConditionalOnProperty(name = "postoffice.mongodb.wake-up-signal", havingValue = "true")
+    @Bean
+    public MongoWakeUpNotifier mongoWakeUpNotifier(MongoOperations mongoOperations, DeliverySignal deliverySignal) {
+        return new MongoWakeUpNotifier(mongoOperations, deliverySignal);
     }
 }
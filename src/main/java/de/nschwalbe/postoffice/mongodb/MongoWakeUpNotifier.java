@@ -0,0 +1,224 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import de.nschwalbe.postoffice.DeliverySignal;
+
+/**
+ * Passes the delivery signal on to other nodes. Every posted mail writes a tiny document into a capped collection,
+ * which every node follows with a tailable cursor to wake up its workers.
+ * <p>
+ * Notifications are sent at most every 100 milliseconds. Mails posted within that window are announced with one more
+ * notification at its end, the workers woken up by the first mail might have been done before they were stored.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class MongoWakeUpNotifier implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoWakeUpNotifier.class);
+
+    static final String COLLECTION = "mailSignals";
+
+    private static final long MIN_NOTIFY_INTERVAL_MILLIS = 100;
+
+    private final MongoOperations mongoOperations;
+    private final DeliverySignal deliverySignal;
+    private final String origin = UUID.randomUUID().toString();
+
+    private final AtomicBoolean trailingNotifyScheduled = new AtomicBoolean();
+
+    private volatile long lastNotified;
+    private volatile boolean running;
+    private volatile DBCursor cursor;
+    private volatile ScheduledExecutorService scheduler;
+    private Thread listener;
+
+    MongoWakeUpNotifier(MongoOperations mongoOperations, DeliverySignal deliverySignal) {
+        this.mongoOperations = mongoOperations;
+        this.deliverySignal = deliverySignal;
+        deliverySignal.addNotifier(this::notifyNodes);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (!mongoOperations.collectionExists(COLLECTION)) {
+            mongoOperations.createCollection(COLLECTION, new CollectionOptions(1024 * 1024, 1000, true));
+        }
+        running = true;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("postoffice-wake-up-"));
+        listener = new Thread(this::listen, "postoffice-wake-up-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        DBCursor current = cursor;
+        if (current != null) {
+            current.close();
+        }
+        if (listener != null) {
+            listener.interrupt();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    void notifyNodes() {
+        if (!running) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long untilNext = lastNotified + MIN_NOTIFY_INTERVAL_MILLIS - now;
+        if (untilNext > 0) {
+            scheduleTrailingNotify(untilNext);
+            return;
+        }
+        lastNotified = now;
+        ScheduledExecutorService current = scheduler;
+        if (current == null) {
+            return;
+        }
+        // the posting thread does not wait for the round trip
+        try {
+            current.execute(() -> {
+                try {
+                    insertSignal();
+                } catch (RuntimeException e) {
+                    log.warn("Could not notify other nodes about a posted mail. They will find it with the next poll.", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // stopped in between
+        }
+    }
+
+    void insertSignal() {
+        mongoOperations.getCollection(COLLECTION).insert(new BasicDBObject("origin", origin));
+    }
+
+    // one notification at the end of the window covers all mails posted within
+    private void scheduleTrailingNotify(long delayMillis) {
+        ScheduledExecutorService current = scheduler;
+        if (current == null || !trailingNotifyScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            current.schedule(() -> {
+                trailingNotifyScheduled.set(false);
+                notifyNodes();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped in between
+            trailingNotifyScheduled.set(false);
+        }
+    }
+
+    // Signals are followed in insertion order and never filtered by their ids, the ids are created with the clock of
+    // the posting node and are not ordered across nodes.
+    private void listen() {
+
+        Object lastSeen = null;
+        boolean started = false;
+
+        while (running) {
+            try {
+                DBCollection collection = mongoOperations.getCollection(COLLECTION);
+                if (!started) {
+                    lastSeen = newestSignalId(collection);
+                    started = true;
+                }
+                else if (lastSeen != null && collection.findOne(new BasicDBObject("_id", lastSeen)) == null) {
+                    // overwritten while the cursor was reopened, signals might be lost
+                    deliverySignal.wakeUp();
+                    lastSeen = newestSignalId(collection);
+                }
+
+                cursor = collection.find()
+                    .sort(new BasicDBObject("$natural", 1))
+                    .addOption(Bytes.QUERYOPTION_TAILABLE)
+                    .addOption(Bytes.QUERYOPTION_AWAITDATA);
+
+                boolean skipping = lastSeen != null;
+                while (running && cursor.hasNext()) {
+                    DBObject notification = cursor.next();
+                    if (skipping) {
+                        skipping = !notification.get("_id").equals(lastSeen);
+                        continue;
+                    }
+                    lastSeen = notification.get("_id");
+                    if (!origin.equals(notification.get("origin"))) {
+                        deliverySignal.wakeUp();
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (running) {
+                    log.debug("Tailing the mail signals failed, reopening the cursor.", e);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+
+            // a tailable cursor on an empty collection dies immediately
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static Object newestSignalId(DBCollection collection) {
+        try (DBCursor newest = collection.find(new BasicDBObject(), new BasicDBObject("_id", 1)).sort(new BasicDBObject("$natural", -1)).limit(1)) {
+            return newest.hasNext() ? newest.next().get("_id") : null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * Shares the partitions of the mails between the nodes sending them, so nodes do not compete for the same mails.
+ * <p>
+ * Every mail gets one of {@link #PARTITIONS} partitions when it is stored. Nodes announce themselves with a heartbeat
+ * in the workers collection whenever they claim, and every node which sent a heartbeat within the node timeout is
+ * alive. Each partition belongs to the alive node with the highest hash of node and partition, so all nodes agree on
+ * the owners without talking to each other, and a node joining or leaving only moves its own share of partitions.
+ * <p>
+ * Until all nodes saw the same heartbeats a partition may have two owners or none for a moment. The claim is still
+ * guarded, so this only costs some contention or delays mails until the next heartbeat.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class PartitionAssignment {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionAssignment.class);
+
+    static final int PARTITIONS = 64;
+    static final String COLLECTION = "mailWorkers";
+
+    private static final long EXPIRE_AFTER_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private final MongoOperations mongoOperations;
+    private final long heartbeatNanos;
+    private final Duration nodeTimeout;
+
+    private String node;
+    private List<Integer> owned = Collections.emptyList();
+    private long heartbeatAt;
+
+    /**
+     * @param heartbeat how often a claiming node renews its heartbeat and looks for other nodes.
+     * @param nodeTimeout after how long without a heartbeat a node counts as gone, must be longer than the heartbeat
+     * and the delay between two claims.
+     */
+    PartitionAssignment(MongoOperations mongoOperations, Duration heartbeat, Duration nodeTimeout) {
+        this.mongoOperations = mongoOperations;
+        this.heartbeatNanos = heartbeat.toNanos();
+        this.nodeTimeout = nodeTimeout;
+        collection().createIndex(new BasicDBObject("heartbeat", 1), new BasicDBObject("expireAfterSeconds", EXPIRE_AFTER_SECONDS));
+    }
+
+    /**
+     * @return a partition for a new mail.
+     */
+    static int randomPartition() {
+        return ThreadLocalRandom.current().nextInt(PARTITIONS);
+    }
+
+    /**
+     * Sends a heartbeat if the last one is older than the heartbeat interval.
+     *
+     * @param node the claiming node.
+     * @return the partitions the node owns.
+     */
+    synchronized List<Integer> owned(String node) {
+        if (node.equals(this.node) && System.nanoTime() - heartbeatAt < heartbeatNanos) {
+            return owned;
+        }
+
+        Date now = new Date();
+        collection().update(new BasicDBObject("_id", node), new BasicDBObject("$set", new BasicDBObject("heartbeat", now)), true, false);
+
+        List<String> nodes = new ArrayList<>();
+        DBObject alive = new BasicDBObject("heartbeat", new BasicDBObject("$gte", new Date(now.getTime() - nodeTimeout.toMillis())));
+        try (DBCursor cursor = collection().find(alive, new BasicDBObject("_id", 1))) {
+            for (DBObject worker : cursor) {
+                nodes.add((String) worker.get("_id"));
+            }
+        }
+
+        List<Integer> assigned = assign(node, nodes);
+        if (!node.equals(this.node) || assigned.size() != owned.size()) {
+            log.info("Node {} owns {} of {} partitions shared by {} nodes.", node, assigned.size(), PARTITIONS, nodes.size());
+        }
+        this.node = node;
+        this.owned = assigned;
+        this.heartbeatAt = System.nanoTime();
+        return assigned;
+    }
+
+    /**
+     * Assigns each partition to the node with the highest hash of node and partition (rendezvous hashing).
+     *
+     * @param node the node to get the partitions of.
+     * @param nodes all alive nodes, including the node itself.
+     * @return the partitions of the node in ascending order.
+     */
+    static List<Integer> assign(String node, Collection<String> nodes) {
+        List<Integer> partitions = new ArrayList<>();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            long ownHash = hash(node, partition);
+            boolean highest = true;
+            for (String other : nodes) {
+                long otherHash = hash(other, partition);
+                // equal hashes are decided by the name, so exactly one node wins
+                if (otherHash > ownHash || (otherHash == ownHash && other.compareTo(node) > 0)) {
+                    highest = false;
+                    break;
+                }
+            }
+            if (highest) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    // mixes the bits, the string hash of names differing in one character differs only slightly
+    private static long hash(String node, int partition) {
+        long h = node.hashCode() * 0x9E3779B97F4A7C15L + partition;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private DBCollection collection() {
+        return mongoOperations.getCollection(COLLECTION);
+    }
+}
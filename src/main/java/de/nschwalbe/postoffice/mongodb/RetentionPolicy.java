@@ -0,0 +1,76 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import de.nschwalbe.postoffice.MailProcessState;
+
+/**
+ * How long mails are kept once they are done and what happens to the content of sent mails. Mails still to be sent or
+ * in progress never expire.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class RetentionPolicy {
+
+    enum SentContent {
+
+        /**
+         * The content stays in the mail document until the mail expires.
+         */
+        KEEP,
+
+        /**
+         * The content is removed when the mail is sent, only the state and the error message are kept.
+         */
+        STRIP,
+
+        /**
+         * The content is moved to the archive collection, which has its own retention.
+         */
+        ARCHIVE
+    }
+
+    private static final Duration DEFAULT_RETENTION = Duration.ofDays(3);
+
+    private final Map<MailProcessState, Duration> retentions = new EnumMap<>(MailProcessState.class);
+    private final SentContent sentContent;
+    private final Duration archiveRetention;
+
+    /**
+     * @param sentRetention how long sent mails are kept.
+     * @param failedRetention how long failed mails are kept, with their content.
+     * @param sentContent what happens to the content of sent mails.
+     * @param archiveRetention how long archived content is kept, only used with {@link SentContent#ARCHIVE}.
+     */
+    RetentionPolicy(Duration sentRetention, Duration failedRetention, SentContent sentContent, Duration archiveRetention) {
+        this.retentions.put(MailProcessState.SENT, sentRetention);
+        this.retentions.put(MailProcessState.FAILED, failedRetention);
+        this.sentContent = sentContent;
+        this.archiveRetention = archiveRetention;
+    }
+
+    /**
+     * Keeps sent and failed mails for three days and strips the content of sent mails.
+     */
+    static RetentionPolicy defaults() {
+        return new RetentionPolicy(DEFAULT_RETENTION, DEFAULT_RETENTION, SentContent.STRIP, Duration.ofDays(30));
+    }
+
+    /**
+     * @return how long mails in this state are kept, null if they never expire.
+     */
+    Duration retention(MailProcessState state) {
+        return retentions.get(state);
+    }
+
+    SentContent getSentContent() {
+        return sentContent;
+    }
+
+    Duration getArchiveRetention() {
+        return archiveRetention;
+    }
+}
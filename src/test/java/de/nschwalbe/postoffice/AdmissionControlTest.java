@@ -0,0 +1,160 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests holding back mails while the backlog is too deep.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class AdmissionControlTest {
+
+    @Test
+    public void shouldRejectUntilBelowLowWatermark() throws Exception {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        List<PersistedMail> mails = post(mailStorage, 3);
+        AdmissionControl admissionControl = new AdmissionControl(
+            mailStorage, Duration.ofHours(1), 3, 2, AdmissionControl.Mode.REJECT, Duration.ZERO);
+        admissionControl.refresh();
+
+        assertRejected(admissionControl, MailPriority.NORMAL);
+
+        // still above the low watermark
+        send(mailStorage, mails.get(0));
+        admissionControl.refresh();
+        assertRejected(admissionControl, MailPriority.NORMAL);
+
+        send(mailStorage, mails.get(1));
+        admissionControl.refresh();
+        admissionControl.admit(1, MailPriority.NORMAL);
+    }
+
+    @Test
+    public void shouldShedOnlyLowerPriorities() throws Exception {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        post(mailStorage, 2);
+        AdmissionControl admissionControl = new AdmissionControl(
+            mailStorage, Duration.ofHours(1), 2, 1, AdmissionControl.Mode.SHED, Duration.ZERO);
+        admissionControl.refresh();
+
+        admissionControl.admit(1, MailPriority.HIGH);
+        assertRejected(admissionControl, MailPriority.NORMAL);
+        assertRejected(admissionControl, MailPriority.LOW);
+    }
+
+    @Test
+    public void shouldBlockUntilBacklogDrained() throws Exception {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        List<PersistedMail> mails = post(mailStorage, 2);
+        AdmissionControl admissionControl = new AdmissionControl(
+            mailStorage, Duration.ofMillis(10), 2, 1, AdmissionControl.Mode.BLOCK, Duration.ofSeconds(10));
+        admissionControl.refresh();
+
+        Thread worker = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            mails.forEach(mail -> send(mailStorage, mail));
+        });
+        worker.start();
+
+        long start = System.nanoTime();
+        admissionControl.start();
+        try {
+            admissionControl.admit(1, MailPriority.NORMAL);
+        } finally {
+            admissionControl.stop();
+        }
+        worker.join();
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(150));
+    }
+
+    @Test
+    public void shouldRejectBlockedMailsAfterTimeout() {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        post(mailStorage, 2);
+        AdmissionControl admissionControl = new AdmissionControl(
+            mailStorage, Duration.ofHours(1), 2, 1, AdmissionControl.Mode.BLOCK, Duration.ofMillis(50));
+        admissionControl.refresh();
+
+        assertRejected(admissionControl, MailPriority.NORMAL);
+    }
+
+    @Test
+    public void shouldCountAdmittedMailsUntilRefresh() throws Exception {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        AdmissionControl admissionControl = new AdmissionControl(
+            mailStorage, Duration.ofHours(1), 2, 1, AdmissionControl.Mode.REJECT, Duration.ZERO);
+        admissionControl.refresh();
+
+        admissionControl.admit(1, MailPriority.NORMAL);
+        admissionControl.admit(1, MailPriority.NORMAL);
+
+        assertThat(admissionControl.backlog()).isEqualTo(2);
+        assertRejected(admissionControl, MailPriority.NORMAL);
+
+        // the admitted mails were stored and are part of the next count
+        post(mailStorage, 2);
+        admissionControl.refresh();
+        assertThat(admissionControl.backlog()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRejectBatchPastHighWatermark() throws Exception {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        List<PersistedMail> mails = post(mailStorage, 2);
+        send(mailStorage, mails.get(0));
+        AdmissionControl admissionControl = new AdmissionControl(
+            mailStorage, Duration.ofHours(1), 3, 2, AdmissionControl.Mode.REJECT, Duration.ZERO);
+        admissionControl.refresh();
+
+        // sent mails are not waiting any more
+        assertThat(admissionControl.backlog()).isEqualTo(1);
+        try {
+            admissionControl.admit(3, MailPriority.NORMAL);
+            fail("Batch should have been rejected.");
+        } catch (MailBacklogFullException e) {
+            assertThat(e.getMessage()).contains("mails");
+        }
+        admissionControl.admit(2, MailPriority.NORMAL);
+    }
+
+    private static List<PersistedMail> post(InMemoryMailStorage mailStorage, int count) {
+        List<PersistedMail> mails = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            mails.add(mailStorage.create(new byte[0]));
+        }
+        return mails;
+    }
+
+    private static void send(InMemoryMailStorage mailStorage, PersistedMail mail) {
+        mail.setState(MailProcessState.SENT);
+        mailStorage.update(mail);
+    }
+
+    private static void assertRejected(AdmissionControl admissionControl, MailPriority priority) {
+        try {
+            admissionControl.admit(1, priority);
+            fail("Mail should have been rejected.");
+        } catch (MailBacklogFullException e) {
+            assertThat(e.getMessage()).contains("mails");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests storing the outcomes of sent mails in batches.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class DeliveryResultsTest {
+
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
+    private List<Integer> writes;
+    private InMemoryMailStorage mailStorage;
+
+    @BeforeMethod
+    public void setUp() {
+        writes = new ArrayList<>();
+        mailStorage = new InMemoryMailStorage() {
+            @Override
+            public synchronized int transitionAll(List<? extends PersistedMail> mails, MailProcessState expected) {
+                writes.add(mails.size());
+                return super.transitionAll(mails, expected);
+            }
+        };
+    }
+
+    @Test
+    public void shouldStoreOutcomesOfBatchWithOneWrite() {
+
+        for (int i = 0; i < 3; i++) {
+            mailStorage.create(("Mail " + i).getBytes());
+        }
+        LeaseKeeper leaseKeeper = new LeaseKeeper(mailStorage, "test", LEASE);
+        DeliveryResults results = new DeliveryResults(mailStorage, leaseKeeper, PostOfficeMetrics.NOOP, 10, Duration.ofMinutes(1));
+
+        List<? extends PersistedMail> mails = leaseKeeper.claim(3, Collections.emptySet());
+        for (PersistedMail mail : mails) {
+            mail.setState(MailProcessState.SENT);
+            results.add(mail);
+        }
+        assertThat(writes).isEmpty();
+        assertThat(mailStorage.countByState()).containsEntry(MailProcessState.IN_PROGRESS, 3L);
+
+        results.flush();
+
+        assertThat(writes).containsExactly(3);
+        assertThat(mailStorage.countByState()).containsEntry(MailProcessState.SENT, 3L);
+    }
+
+    @Test
+    public void shouldStoreOnceBatchIsFull() {
+
+        for (int i = 0; i < 5; i++) {
+            mailStorage.create(("Mail " + i).getBytes());
+        }
+        LeaseKeeper leaseKeeper = new LeaseKeeper(mailStorage, "test", LEASE);
+        DeliveryResults results = new DeliveryResults(mailStorage, leaseKeeper, PostOfficeMetrics.NOOP, 2, Duration.ofMinutes(1));
+
+        for (PersistedMail mail : leaseKeeper.claim(5, Collections.emptySet())) {
+            mail.setState(MailProcessState.SENT);
+            results.add(mail);
+        }
+
+        assertThat(writes).containsExactly(2, 2);
+        results.flush();
+        assertThat(writes).containsExactly(2, 2, 1);
+    }
+
+    @Test
+    public void shouldNotOverwriteMailsWhichLeftProgress() {
+
+        mailStorage.create("Mail".getBytes());
+        LeaseKeeper leaseKeeper = new LeaseKeeper(mailStorage, "test", LEASE);
+        DeliveryResults results = DeliveryResults.immediate(mailStorage, leaseKeeper, PostOfficeMetrics.NOOP);
+
+        PersistedMail mail = leaseKeeper.claim(1, Collections.emptySet()).get(0);
+        mail.setState(MailProcessState.SENT);
+        results.add(mail);
+        mail.setState(MailProcessState.FAILED);
+        results.add(mail);
+
+        assertThat(writes).containsExactly(1, 1);
+        assertThat(mailStorage.countByState()).containsEntry(MailProcessState.SENT, 1L).doesNotContainKey(MailProcessState.FAILED);
+    }
+}
@@ -0,0 +1,72 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the limits per recipient domain.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class DomainThrottleTest {
+
+    @Test
+    public void shouldLimitMailsPerSecond() {
+
+        DomainThrottle throttle = new DomainThrottle(2, 0);
+
+        assertThat(throttle.tryAcquire("example.com")).isTrue();
+        assertThat(throttle.tryAcquire("example.com")).isTrue();
+        assertThat(throttle.tryAcquire("example.com")).isFalse();
+        assertThat(throttle.tryAcquire("example.org")).isTrue();
+        assertThat(throttle.getBlockedDomains()).containsOnly("example.com");
+    }
+
+    @Test
+    public void shouldHoldBackDrainedDomainUntilItsBucketIsFull() throws Exception {
+
+        DomainThrottle throttle = new DomainThrottle(20, 0);
+        for (int i = 0; i < 20; i++) {
+            throttle.tryAcquire("example.com");
+        }
+        assertThat(throttle.untilRefilled()).isLessThanOrEqualTo(Duration.ofSeconds(1)).isGreaterThan(Duration.ZERO);
+
+        // a single token is back, but the domain is claimed again only with a full bucket
+        Thread.sleep(100);
+        assertThat(throttle.getBlockedDomains()).containsOnly("example.com");
+
+        Thread.sleep(throttle.untilRefilled().toMillis() + 1);
+        assertThat(throttle.getBlockedDomains()).isEmpty();
+        assertThat(throttle.untilRefilled()).isNull();
+    }
+
+    @Test
+    public void shouldLimitConcurrentMails() {
+
+        DomainThrottle throttle = new DomainThrottle(0, 1);
+
+        assertThat(throttle.tryAcquire(null)).isTrue();
+        assertThat(throttle.tryAcquire(null)).isFalse();
+        assertThat(throttle.getBlockedDomains()).containsOnly((String) null);
+
+        throttle.release(null, MailDelivery.Result.SENT);
+        assertThat(throttle.tryAcquire(null)).isTrue();
+    }
+
+    @Test
+    public void shouldBackOffOnlyTheDeferringDomain() {
+
+        DomainThrottle throttle = DomainThrottle.unlimited();
+
+        throttle.tryAcquire("slow.example.com");
+        throttle.release("slow.example.com", MailDelivery.Result.DOMAIN_UNAVAILABLE);
+
+        assertThat(throttle.tryAcquire("slow.example.com")).isFalse();
+        assertThat(throttle.tryAcquire("example.com")).isTrue();
+        assertThat(throttle.getBlockedDomains()).containsOnly("slow.example.com");
+    }
+}
@@ -0,0 +1,254 @@
+package de.nschwalbe.postoffice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.mail.MessagingException;
+
+/**
+ * Simple mail storage for tests which do not need a database.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+class InMemoryMailStorage implements MailStorage {
+
+    private final Map<String, Mail> mails = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized PersistedMail create(byte[] mimeMessageContent) {
+        Mail mail = new Mail(mimeMessageContent);
+        mails.put(mail.getId(), mail);
+        return mail;
+    }
+
+    @Override
+    public synchronized PersistedMail create(MimeMessageWriter writer, MailEnvelope envelope) throws IOException, MessagingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        Mail mail = new Mail(out.toByteArray());
+        mail.recipientDomain = envelope.getRecipientDomain();
+        mail.priority = envelope.getPriority();
+        mail.envelopeSender = envelope.getSender();
+        mail.envelopeRecipients = envelope.getRecipients();
+        mails.put(mail.getId(), mail);
+        return mail;
+    }
+
+    @Deprecated
+    @Override
+    public List<String> findNotSentIds() {
+        return mails.values().stream()
+            .filter(mail -> mail.state == MailProcessState.NOT_SENT)
+            .map(Mail::getId)
+            .collect(Collectors.toList());
+    }
+
+    @Deprecated
+    @Override
+    public synchronized PersistedMail findNotSentAndStartProgress(String mailId) {
+        Mail mail = mails.get(mailId);
+        if (mail == null || mail.state != MailProcessState.NOT_SENT) {
+            return null;
+        }
+        mail.state = MailProcessState.IN_PROGRESS;
+        return mail.copy();
+    }
+
+    @Override
+    public List<? extends PersistedMail> claimBatch(int maxSize, String owner, Duration lease) {
+        return claimBatch(maxSize, owner, lease, Collections.emptySet());
+    }
+
+    @Override
+    public synchronized List<? extends PersistedMail> claimBatch(int maxSize, String owner, Duration lease, Collection<String> excludedDomains) {
+        List<PersistedMail> claimed = new ArrayList<>();
+        mails.values().stream()
+            .filter(mail -> mail.state == MailProcessState.NOT_SENT && !excludedDomains.contains(mail.recipientDomain))
+            .filter(mail -> mail.nextAttemptAt == null || !mail.nextAttemptAt.isAfter(LocalDateTime.now()))
+            .sorted(Comparator.comparing((Mail mail) -> mail.priority).thenComparing(mail -> mail.createdDate))
+            .limit(maxSize)
+            .forEach(mail -> {
+                mail.state = MailProcessState.IN_PROGRESS;
+                mail.owner = owner;
+                mail.leaseExpiresAt = LocalDateTime.now().plus(lease);
+                claimed.add(mail.copy());
+            });
+        return claimed;
+    }
+
+    @Override
+    public synchronized void renewLeases(Collection<String> mailIds, String owner, Duration lease) {
+        mailIds.stream()
+            .map(mails::get)
+            .filter(mail -> mail != null && mail.state == MailProcessState.IN_PROGRESS && owner.equals(mail.owner))
+            .forEach(mail -> mail.leaseExpiresAt = LocalDateTime.now().plus(lease));
+    }
+
+    @Override
+    public synchronized int releaseExpiredLeases() {
+        List<Mail> expired = mails.values().stream()
+            .filter(mail -> mail.state == MailProcessState.IN_PROGRESS && mail.leaseExpiresAt.isBefore(LocalDateTime.now()))
+            .collect(Collectors.toList());
+        expired.forEach(mail -> {
+            mail.state = MailProcessState.NOT_SENT;
+            mail.owner = null;
+        });
+        return expired.size();
+    }
+
+    @Override
+    public Map<MailProcessState, Long> countByState() {
+        return mails.values().stream().collect(Collectors.groupingBy(mail -> mail.state, Collectors.counting()));
+    }
+
+    @Override
+    public void delete(String id) {
+        mails.remove(id);
+    }
+
+    @Override
+    public synchronized void update(PersistedMail mail) {
+        Mail stored = mails.get(mail.getId());
+        stored.state = mail.getState();
+        stored.errorMessage = mail.getErrorMessage();
+        stored.attempts = mail.getAttempts();
+        stored.nextAttemptAt = ((Mail) mail).nextAttemptAt;
+    }
+
+    @Override
+    public synchronized boolean transition(PersistedMail mail, MailProcessState expected) {
+        Mail stored = mails.get(mail.getId());
+        if (stored == null || stored.state != expected) {
+            return false;
+        }
+        update(mail);
+        return true;
+    }
+
+    List<PersistedMail> findAll() {
+        return new ArrayList<>(mails.values());
+    }
+
+    private static class Mail implements PersistedMail {
+
+        private final String id;
+        private final LocalDateTime createdDate;
+        private final byte[] content;
+        private MailProcessState state = MailProcessState.NOT_SENT;
+        private String errorMessage;
+        private String owner;
+        private LocalDateTime leaseExpiresAt;
+        private String recipientDomain;
+        private String envelopeSender;
+        private List<String> envelopeRecipients;
+        private MailPriority priority = MailPriority.NORMAL;
+        private int attempts;
+        private LocalDateTime nextAttemptAt;
+
+        Mail(byte[] content) {
+            this(UUID.randomUUID().toString(), LocalDateTime.now(), content);
+        }
+
+        private Mail(String id, LocalDateTime createdDate, byte[] content) {
+            this.id = id;
+            this.createdDate = createdDate;
+            this.content = content;
+        }
+
+        Mail copy() {
+            Mail copy = new Mail(id, createdDate, content);
+            copy.state = state;
+            copy.errorMessage = errorMessage;
+            copy.recipientDomain = recipientDomain;
+            copy.envelopeSender = envelopeSender;
+            copy.envelopeRecipients = envelopeRecipients;
+            copy.priority = priority;
+            copy.attempts = attempts;
+            copy.nextAttemptAt = nextAttemptAt;
+            return copy;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public LocalDateTime getCreatedDate() {
+            return createdDate;
+        }
+
+        @Override
+        public LocalDateTime getLastModifiedDate() {
+            return null;
+        }
+
+        @Override
+        public byte[] getMimeMessageContent() {
+            return content;
+        }
+
+        @Override
+        public MailPriority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public void recordFailedAttempt(LocalDateTime nextAttemptAt) {
+            this.attempts++;
+            this.nextAttemptAt = nextAttemptAt;
+        }
+
+        @Override
+        public String getRecipientDomain() {
+            return recipientDomain;
+        }
+
+        @Override
+        public String getEnvelopeSender() {
+            return envelopeSender;
+        }
+
+        @Override
+        public List<String> getEnvelopeRecipients() {
+            return envelopeRecipients;
+        }
+
+        @Override
+        public MailProcessState getState() {
+            return state;
+        }
+
+        @Override
+        public void setState(MailProcessState state) {
+            this.state = state;
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        @Override
+        public void setErrorMessage(String message) {
+            this.errorMessage = message;
+        }
+    }
+}
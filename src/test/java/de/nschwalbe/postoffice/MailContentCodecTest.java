@@ -0,0 +1,34 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the content codecs.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MailContentCodecTest {
+
+    private final byte[] content = String.join("\r\n", Collections.nCopies(200, "<p>Hello newsletter reader!</p>"))
+        .getBytes(Charset.forName("UTF-8"));
+
+    @Test
+    public void shouldRestoreDeflatedContent() {
+
+        byte[] encoded = MailContentCodec.DEFLATE.encode(content);
+
+        assertThat(encoded.length).isLessThan(content.length / 10);
+        assertThat(MailContentCodec.DEFLATE.decode(encoded)).isEqualTo(content);
+    }
+
+    @Test
+    public void shouldTreatMissingCodecAsNone() {
+        assertThat(MailContentCodec.orNone(null).decode(content)).isSameAs(content);
+    }
+}
@@ -0,0 +1,166 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+
+/**
+ * Tests retrying mails while the mail server is not reachable.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MailDeliveryTest {
+
+    private InMemoryMailStorage mailStorage;
+    private LeaseKeeper leaseKeeper;
+    private MailDelivery mailDelivery;
+    private RecordingMetrics metrics;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        // nothing listens on the port
+        JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(ServerSetupTest.SMTP.getPort());
+
+        mailStorage = new InMemoryMailStorage();
+        metrics = new RecordingMetrics();
+        leaseKeeper = new LeaseKeeper(mailStorage, "test", Duration.ofMinutes(5), metrics);
+        mailDelivery = new MailDelivery(mailStorage, leaseKeeper, javaMailSender, DomainThrottle.unlimited(),
+            new RetryPolicy(2, Duration.ofMinutes(1), Duration.ofMinutes(10)), metrics);
+
+        new PostOffice(mailStorage, javaMailSender).postMail("Hello", MailAddress.of("from@example.com"), MailAddress.of("to@example.com"), "Hello", false);
+    }
+
+    @Test
+    public void shouldScheduleRetryOfFailedMail() {
+
+        PersistedMail mail = claimOne();
+        MailDelivery.Result result = mailDelivery.deliver(mail);
+
+        assertThat(result).isEqualTo(MailDelivery.Result.SERVER_UNAVAILABLE);
+        PersistedMail stored = mailStorage.findAll().get(0);
+        assertThat(stored.getState()).isEqualTo(MailProcessState.NOT_SENT);
+        assertThat(stored.getAttempts()).isEqualTo(1);
+        // not due before the retry delay
+        assertThat(leaseKeeper.claim(10, Collections.emptySet())).isEmpty();
+    }
+
+    @Test
+    public void shouldFailMailAfterMaxAttempts() {
+
+        PersistedMail mail = claimOne();
+        mail.recordFailedAttempt(LocalDateTime.now());
+
+        mailDelivery.deliver(mail);
+
+        PersistedMail stored = mailStorage.findAll().get(0);
+        assertThat(stored.getState()).isEqualTo(MailProcessState.FAILED);
+        assertThat(stored.getAttempts()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRecordFailedSend() {
+
+        mailDelivery.deliver(claimOne());
+
+        assertThat(metrics.claims).isEqualTo(1);
+        assertThat(metrics.sends).isEqualTo(1);
+        assertThat(metrics.sent).isZero();
+        assertThat(metrics.updates).isEqualTo(1);
+        assertThat(metrics.errors).containsOnlyKeys(PostOfficeMetrics.SendError.CONNECTION);
+    }
+
+    @Test
+    public void shouldFailMailRejectedForGood() {
+
+        MailDelivery rejectingDelivery = rejectingDelivery(550);
+
+        assertThat(rejectingDelivery.deliver(claimOne())).isEqualTo(MailDelivery.Result.FAILED);
+        assertThat(mailStorage.findAll().get(0).getState()).isEqualTo(MailProcessState.FAILED);
+        // the domain takes other mails
+        assertThat(rejectingDelivery.getBlockedDomains()).isEmpty();
+    }
+
+    @Test
+    public void shouldDeferDomainOfTemporarilyRejectedMail() {
+
+        MailDelivery rejectingDelivery = rejectingDelivery(450);
+
+        assertThat(rejectingDelivery.deliver(claimOne())).isEqualTo(MailDelivery.Result.DOMAIN_UNAVAILABLE);
+        assertThat(mailStorage.findAll().get(0).getState()).isEqualTo(MailProcessState.NOT_SENT);
+        assertThat(rejectingDelivery.getBlockedDomains()).containsOnly("example.com");
+    }
+
+    // refuses every recipient with the given reply, like java mail reports it
+    private MailDelivery rejectingDelivery(int replyCode) {
+        JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl() {
+            @Override
+            protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) {
+                InternetAddress recipient = new InternetAddress();
+                recipient.setAddress("to@example.com");
+                SendFailedException failure = new SendFailedException("Invalid Addresses",
+                    new SMTPAddressFailedException(recipient, "RCPT TO:<to@example.com>", replyCode, replyCode + " Mailbox unavailable"));
+                throw new MailSendException(Collections.singletonMap(mimeMessages[0], failure));
+            }
+        };
+        return new MailDelivery(mailStorage, leaseKeeper, javaMailSender, DomainThrottle.unlimited(), RetryPolicy.defaults(), metrics);
+    }
+
+    private PersistedMail claimOne() {
+        List<? extends PersistedMail> mails = leaseKeeper.claim(10, Collections.emptySet());
+        assertThat(mails).hasSize(1);
+        return mails.get(0);
+    }
+
+    private static class RecordingMetrics implements PostOfficeMetrics {
+
+        private int claims;
+        private int sends;
+        private int sent;
+        private int updates;
+        private final Map<SendError, Integer> errors = new EnumMap<>(SendError.class);
+
+        @Override
+        public void recordClaim(long nanos, int mails) {
+            claims++;
+        }
+
+        @Override
+        public void recordSend(long nanos, boolean sent) {
+            sends++;
+            if (sent) {
+                this.sent++;
+            }
+        }
+
+        @Override
+        public void recordStorageUpdate(long nanos) {
+            updates++;
+        }
+
+        @Override
+        public void countSendError(SendError error) {
+            errors.merge(error, 1, Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests rendering compiled mail templates.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MailTemplateTest {
+
+    private static final MailAddress FROM = MailAddress.of("shop@example.com", "Shöp");
+
+    @Test
+    public void shouldRenderValuesOfRecipient() throws Exception {
+
+        MailTemplate template = new MailTemplate("Hallo ${name}", FROM, "<p>Hallo ${name}, schön dass du da bist.</p>", "Hallo ${name}!\nGrüße",
+            Collections.emptyList());
+
+        MimeMessage mimeMessage = parse(template.render(MailTemplate.Recipient.of(MailAddress.of("jo@example.org", "Jo"), values("name", "Jö <3"))));
+
+        assertThat(mimeMessage.getSubject()).isEqualTo("Hallo Jö <3");
+        assertThat(((InternetAddress) mimeMessage.getRecipients(MimeMessage.RecipientType.TO)[0]).getPersonal()).isEqualTo("Jo");
+        assertThat(((InternetAddress) mimeMessage.getFrom()[0]).getPersonal()).isEqualTo("Shöp");
+        assertThat(mimeMessage.getContentType()).startsWith("multipart/alternative");
+
+        Multipart alternative = (Multipart) mimeMessage.getContent();
+        assertThat(alternative.getCount()).isEqualTo(2);
+        assertThat(alternative.getBodyPart(0).getContent()).isEqualTo("Hallo Jö <3!\r\nGrüße");
+        assertThat(alternative.getBodyPart(1).getContent()).isEqualTo("<p>Hallo Jö &lt;3, schön dass du da bist.</p>");
+    }
+
+    @Test
+    public void shouldKeepLongLinesIntact() throws Exception {
+
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            line.append("Zeile mit Ümläuten ${value} und Leerzeichen am Ende ");
+        }
+        MailTemplate template = new MailTemplate("Lang", FROM, null, line.toString(), Collections.emptyList());
+
+        byte[] rendered = template.render(MailTemplate.Recipient.of(MailAddress.of("jo@example.org"), values("value", "= ist gleich ")));
+
+        for (String encodedLine : new String(rendered, "US-ASCII").split("\r\n")) {
+            assertThat(encodedLine.length()).isLessThanOrEqualTo(76);
+        }
+        assertThat(parse(rendered).getContent()).isEqualTo(line.toString().replace("${value}", "= ist gleich "));
+    }
+
+    @Test
+    public void shouldPrepareInlineImagesAndAttachments() throws Exception {
+
+        byte[] image = new byte[3000];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        MailTemplate template = new MailTemplate("Bild", FROM, "<img src=\"cid:logo\">", "Bild", Arrays.asList(
+            MailTemplate.Part.inline("logo", image, "image/png"),
+            MailTemplate.Part.attachment("Rechnung ä.pdf", "%PDF".getBytes("US-ASCII"), "application/pdf")));
+
+        MimeMessage mimeMessage = parse(template.render(MailTemplate.Recipient.of(MailAddress.of("jo@example.org"))));
+
+        Multipart mixed = (Multipart) mimeMessage.getContent();
+        assertThat(mimeMessage.getContentType()).startsWith("multipart/mixed");
+        assertThat(mixed.getBodyPart(1).getFileName()).isEqualTo("=?UTF-8?Q?Rechnung_=C3=A4.pdf?=");
+        assertThat(read(mixed.getBodyPart(1).getInputStream())).isEqualTo("%PDF".getBytes("US-ASCII"));
+
+        Multipart related = (Multipart) mixed.getBodyPart(0).getContent();
+        assertThat(related.getBodyPart(0).getContentType()).startsWith("multipart/alternative");
+        Part logo = related.getBodyPart(1);
+        assertThat(logo.getHeader("Content-ID")).containsExactly("<logo>");
+        assertThat(read(logo.getInputStream())).isEqualTo(image);
+    }
+
+    @Test
+    public void shouldGiveEveryRenderedMailItsOwnMessageId() throws Exception {
+
+        MailTemplate template = new MailTemplate("Hallo", FROM, null, "Hallo", Collections.emptyList());
+
+        MimeMessage first = parse(template.render(MailTemplate.Recipient.of(MailAddress.of("jo@example.org"))));
+        MimeMessage second = parse(template.render(MailTemplate.Recipient.of(MailAddress.of("jo@example.org"))));
+
+        assertThat(first.getMessageID()).startsWith("<").endsWith("@example.com>");
+        assertThat(second.getMessageID()).isNotNull().isNotEqualTo(first.getMessageID());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectMissingValue() throws Exception {
+
+        MailTemplate template = new MailTemplate("Hallo", FROM, null, "Hallo ${name}", Collections.emptyList());
+
+        template.render(MailTemplate.Recipient.of(MailAddress.of("jo@example.org")));
+    }
+
+    private static MimeMessage parse(byte[] content) throws Exception {
+        return new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(content));
+    }
+
+    private static Map<String, String> values(String name, String value) {
+        Map<String, String> values = new HashMap<>();
+        values.put(name, value);
+        return values;
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,109 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import javax.mail.BodyPart;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests creating and storing mails.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class PostOfficeTest {
+
+    private JavaMailSenderImpl javaMailSender;
+    private PostOffice postOffice;
+
+    @BeforeMethod
+    public void setUp() {
+        javaMailSender = new JavaMailSenderImpl();
+        postOffice = new PostOffice(new InMemoryMailStorage(), javaMailSender);
+    }
+
+    @Test
+    public void shouldPostTextMail() throws Exception {
+
+        PersistedMail mail = postOffice.postMail("Text", MailAddress.of("from@example.com"), MailAddress.of("to@example.com"), "Hello", false);
+
+        MimeMessage stored = javaMailSender.createMimeMessage(mail.openMimeMessageContent());
+        assertThat(stored.getSubject()).isEqualTo("Text");
+        assertThat(stored.isMimeType("text/plain")).isTrue();
+        assertThat(stored.getContent()).isEqualTo("Hello");
+    }
+
+    @Test
+    public void shouldPostHtmlMailWithTextAlternative() throws Exception {
+
+        PersistedMail mail = postOffice.postMail("Html", MailAddress.of("from@example.com"), MailAddress.of("to@example.com"), "<p>Hello</p>", "Hello");
+
+        MimeMessage stored = javaMailSender.createMimeMessage(mail.openMimeMessageContent());
+        assertThat(stored.isMimeType("multipart/*")).isTrue();
+        assertThat(findPart(stored, "text/plain").getContent()).isEqualTo("Hello");
+        assertThat(findPart(stored, "text/html").getContent()).isEqualTo("<p>Hello</p>");
+    }
+
+    @Test
+    public void shouldPostMailWithPriority() throws Exception {
+
+        PersistedMail urgent = postOffice.postMail("Code", MailAddress.of("from@example.com"), MailAddress.of("to@example.com"), "1234", false, MailPriority.HIGH);
+        PersistedMail newsletter = postOffice.postMail("News", MailAddress.of("from@example.com"), Collections.singletonList(MailAddress.of("to@example.com")),
+            "<p>News</p>", "News", MailPriority.LOW);
+        PersistedMail normal = postOffice.postMail("Hello", MailAddress.of("from@example.com"), MailAddress.of("to@example.com"), "Hello", false);
+
+        assertThat(urgent.getPriority()).isEqualTo(MailPriority.HIGH);
+        assertThat(newsletter.getPriority()).isEqualTo(MailPriority.LOW);
+        assertThat(normal.getPriority()).isEqualTo(MailPriority.NORMAL);
+    }
+
+    @Test
+    public void shouldKeepAttachmentsOfPostedMail() throws Exception {
+
+        MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true, "UTF-8");
+        helper.setFrom("from@example.com");
+        helper.setTo("to@example.com");
+        helper.setSubject("Attachment");
+        helper.setText("Hello", "<p>Hello</p>");
+        helper.addAttachment("report.bin", new ByteArrayResource(new byte[] {1, 2, 3}), "application/octet-stream");
+
+        PersistedMail mail = postOffice.postMails(Collections.singletonList(mimeMessage)).get(0);
+
+        MimeMessage stored = javaMailSender.createMimeMessage(mail.openMimeMessageContent());
+        Part attachment = findPart(stored, "application/octet-stream");
+        assertThat(attachment.getFileName()).isEqualTo("report.bin");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        attachment.getDataHandler().writeTo(content);
+        assertThat(content.toByteArray()).containsExactly(1, 2, 3);
+        assertThat(findPart(stored, "text/html").getContent()).isEqualTo("<p>Hello</p>");
+    }
+
+    private static Part findPart(Part part, String mimeType) throws Exception {
+        if (part.isMimeType(mimeType)) {
+            return part;
+        }
+        if (part.isMimeType("multipart/*")) {
+            Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount(); i++) {
+                BodyPart bodyPart = multipart.getBodyPart(i);
+                Part found = findPart(bodyPart, mimeType);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+}
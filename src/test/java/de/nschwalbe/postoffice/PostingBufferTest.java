@@ -0,0 +1,184 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests storing asynchronously posted mails in batches.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class PostingBufferTest {
+
+    private final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void setUp() {
+        batches.clear();
+    }
+
+    @Test
+    public void shouldStoreConcurrentPostsTogether() {
+
+        PostingBuffer postingBuffer = new PostingBuffer(new BatchRecordingStorage(), new DeliverySignal(), PostOfficeMetrics.NOOP, 100, Duration.ofMillis(200), 1000, Duration.ofSeconds(5));
+
+        List<CompletableFuture<PersistedMail>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(postingBuffer.add(("Mail " + i).getBytes(), MailEnvelope.UNKNOWN));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        postingBuffer.close();
+
+        assertThat(batches.stream().mapToInt(Integer::intValue).sum()).isEqualTo(20);
+        assertThat(batches.size()).isLessThan(5);
+        assertThat(futures.get(7).join().getMimeMessageContent()).isEqualTo("Mail 7".getBytes());
+    }
+
+    @Test
+    public void shouldCompleteOnlyOnceStored() throws Exception {
+
+        CountDownLatch storing = new CountDownLatch(1);
+        PostingBuffer postingBuffer = new PostingBuffer(new BatchRecordingStorage() {
+            @Override
+            public List<? extends PersistedMail> createAll(List<byte[]> mimeMessageContents) {
+                try {
+                    storing.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.createAll(mimeMessageContents);
+            }
+        }, new DeliverySignal(), PostOfficeMetrics.NOOP, 10, Duration.ZERO, 10, Duration.ofSeconds(5));
+
+        CompletableFuture<PersistedMail> future = postingBuffer.add("Mail".getBytes(), MailEnvelope.UNKNOWN);
+        Thread.sleep(100);
+        assertThat(future.isDone()).isFalse();
+
+        storing.countDown();
+        assertThat(future.get(5, TimeUnit.SECONDS).getState()).isEqualTo(MailProcessState.NOT_SENT);
+        postingBuffer.close();
+    }
+
+    @Test
+    public void shouldFailBatchIfStorageFails() throws Exception {
+
+        PostingBuffer postingBuffer = new PostingBuffer(new BatchRecordingStorage() {
+            @Override
+            public List<? extends PersistedMail> createAll(List<byte[]> mimeMessageContents) {
+                throw new IllegalStateException("database down");
+            }
+        }, new DeliverySignal(), PostOfficeMetrics.NOOP, 10, Duration.ZERO, 10, Duration.ofSeconds(5));
+
+        CompletableFuture<PersistedMail> future = postingBuffer.add("Mail".getBytes(), MailEnvelope.UNKNOWN);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("Mail should not be stored.");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).hasMessage("database down");
+        }
+        postingBuffer.close();
+    }
+
+    @Test
+    public void shouldStoreBufferedMailsOnClose() {
+
+        PostingBuffer postingBuffer = new PostingBuffer(new BatchRecordingStorage(), new DeliverySignal(), PostOfficeMetrics.NOOP, 100, Duration.ofSeconds(30), 100, Duration.ofSeconds(5));
+
+        CompletableFuture<PersistedMail> future = postingBuffer.add("Mail".getBytes(), MailEnvelope.UNKNOWN);
+        postingBuffer.close();
+
+        assertThat(future.isDone()).isTrue();
+        assertThat(postingBuffer.add("Late".getBytes(), MailEnvelope.UNKNOWN).isCompletedExceptionally()).isTrue();
+    }
+
+    @Test
+    public void shouldRejectPostsWhileBufferStaysFull() throws Exception {
+
+        CountDownLatch storing = new CountDownLatch(1);
+        PostingBuffer postingBuffer = new PostingBuffer(new BatchRecordingStorage() {
+            @Override
+            public List<? extends PersistedMail> createAll(List<byte[]> mimeMessageContents) {
+                try {
+                    storing.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.createAll(mimeMessageContents);
+            }
+        }, new DeliverySignal(), PostOfficeMetrics.NOOP, 1, Duration.ZERO, 1, Duration.ofMillis(50));
+
+        // the flusher is stuck storing the first mail, the second fills the buffer
+        CompletableFuture<PersistedMail> stored = postingBuffer.add("First".getBytes(), MailEnvelope.UNKNOWN);
+        Thread.sleep(100);
+        CompletableFuture<PersistedMail> buffered = postingBuffer.add("Second".getBytes(), MailEnvelope.UNKNOWN);
+        CompletableFuture<PersistedMail> rejected = postingBuffer.add("Third".getBytes(), MailEnvelope.UNKNOWN);
+
+        try {
+            rejected.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("Mail should be rejected.");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(MailBacklogFullException.class);
+        }
+
+        storing.countDown();
+        assertThat(stored.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(buffered.get(5, TimeUnit.SECONDS)).isNotNull();
+        postingBuffer.close();
+    }
+
+    @Test
+    public void shouldCompleteEveryPostRacingWithClose() throws Exception {
+
+        PostingBuffer postingBuffer = new PostingBuffer(new BatchRecordingStorage(), new DeliverySignal(), PostOfficeMetrics.NOOP, 10, Duration.ZERO, 1000, Duration.ofSeconds(5));
+
+        List<CompletableFuture<PersistedMail>> futures = new CopyOnWriteArrayList<>();
+        List<Thread> posters = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread poster = new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    futures.add(postingBuffer.add("Mail".getBytes(), MailEnvelope.UNKNOWN));
+                }
+            });
+            posters.add(poster);
+            poster.start();
+        }
+        Thread.sleep(5);
+        postingBuffer.close();
+        for (Thread poster : posters) {
+            poster.join();
+        }
+
+        // stored or rejected, but never left pending
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        try {
+            all.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).hasMessage("Posting buffer is closed.");
+        }
+        assertThat(futures).hasSize(2000);
+        assertThat(futures.stream().allMatch(CompletableFuture::isDone)).isTrue();
+        assertThat(futures.stream().filter(future -> !future.isCompletedExceptionally()).count())
+            .isEqualTo(batches.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    private class BatchRecordingStorage extends InMemoryMailStorage {
+
+        @Override
+        public List<? extends PersistedMail> createAll(List<byte[]> mimeMessageContents) {
+            batches.add(mimeMessageContents.size());
+            return super.createAll(mimeMessageContents);
+        }
+    }
+}
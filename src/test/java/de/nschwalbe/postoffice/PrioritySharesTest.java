@@ -0,0 +1,56 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests sharing claimed batches between the priority lanes.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class PrioritySharesTest {
+
+    private final PriorityShares priorityShares = new PriorityShares(70, 25, 5);
+
+    @Test
+    public void shouldShareBatchByWeight() {
+
+        Map<MailPriority, Integer> shares = priorityShares.allocate(100, due(1000, 1000, 1000));
+
+        assertThat(shares.get(MailPriority.HIGH)).isEqualTo(70);
+        assertThat(shares.get(MailPriority.NORMAL)).isEqualTo(25);
+        assertThat(shares.get(MailPriority.LOW)).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldNotStarveLowPriority() {
+
+        Map<MailPriority, Integer> shares = priorityShares.allocate(10, due(1000, 0, 1000));
+
+        assertThat(shares.get(MailPriority.LOW)).isGreaterThanOrEqualTo(1);
+        assertThat(shares.get(MailPriority.HIGH) + shares.get(MailPriority.LOW)).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldLeaveUnusedShareToOtherLanes() {
+
+        Map<MailPriority, Integer> shares = priorityShares.allocate(50, due(2, 0, 1000));
+
+        assertThat(shares.get(MailPriority.HIGH)).isEqualTo(2);
+        assertThat(shares.get(MailPriority.LOW)).isEqualTo(48);
+        assertThat(shares).doesNotContainKey(MailPriority.NORMAL);
+    }
+
+    private static Map<MailPriority, Integer> due(int high, int normal, int low) {
+        Map<MailPriority, Integer> due = new EnumMap<>(MailPriority.class);
+        due.put(MailPriority.HIGH, high);
+        due.put(MailPriority.NORMAL, normal);
+        due.put(MailPriority.LOW, low);
+        return due;
+    }
+}
@@ -0,0 +1,46 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests caching the number of mails in each state.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class QueueDepthTest {
+
+    @Test
+    public void shouldCountMailsByState() {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        mailStorage.create(new byte[0]);
+        mailStorage.create(new byte[0]);
+        PersistedMail failed = mailStorage.create(new byte[0]);
+        failed.setState(MailProcessState.FAILED);
+        mailStorage.update(failed);
+
+        QueueDepth queueDepth = new QueueDepth(mailStorage, Duration.ZERO);
+
+        assertThat(queueDepth.get(MailProcessState.NOT_SENT)).isEqualTo(2);
+        assertThat(queueDepth.get(MailProcessState.FAILED)).isEqualTo(1);
+        assertThat(queueDepth.get(MailProcessState.SENT)).isZero();
+    }
+
+    @Test
+    public void shouldKeepCountsUntilRefresh() {
+
+        InMemoryMailStorage mailStorage = new InMemoryMailStorage();
+        mailStorage.create(new byte[0]);
+
+        QueueDepth queueDepth = new QueueDepth(mailStorage, Duration.ofHours(1));
+        assertThat(queueDepth.get(MailProcessState.NOT_SENT)).isEqualTo(1);
+
+        mailStorage.create(new byte[0]);
+        assertThat(queueDepth.get(MailProcessState.NOT_SENT)).isEqualTo(1);
+    }
+}
@@ -0,0 +1,166 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * Tests sending stored mails without parsing them.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class RawMimeMessageTest {
+
+    private GreenMail greenMail;
+    private JavaMailSenderImpl javaMailSender;
+    private InMemoryMailStorage mailStorage;
+
+    @BeforeMethod
+    public void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(ServerSetupTest.SMTP.getPort());
+
+        mailStorage = new InMemoryMailStorage();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        greenMail.stop();
+    }
+
+    @Test
+    public void shouldStoreEnvelopeOfPostedMail() throws Exception {
+
+        PersistedMail mail = new PostOffice(mailStorage, javaMailSender).postMail(createMimeMessage());
+
+        assertThat(mail.getEnvelopeSender()).isEqualTo("from@example.com");
+        assertThat(mail.getEnvelopeRecipients()).containsExactly("to@example.com", "hidden@example.org");
+    }
+
+    @Test
+    public void shouldSendStoredMailToAllRecipientsWithoutBccHeader() throws Exception {
+
+        PersistedMail mail = new PostOffice(mailStorage, javaMailSender).postMail(createMimeMessage());
+
+        javaMailSender.send(new RawMimeMessage(javaMailSender.getSession(), mail));
+
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(2);
+        for (MimeMessage message : received) {
+            assertThat(message.getHeader("Bcc")).isNull();
+            assertThat(message.getSubject()).isEqualTo("Raw");
+            assertThat(GreenMailUtil.getBody(message)).contains("Hello");
+        }
+    }
+
+    @Test
+    public void shouldCopyStoredBodyUnchanged() throws Exception {
+
+        PersistedMail mail = new PostOffice(mailStorage, javaMailSender).postMail(createMimeMessage());
+        MimeMessage parsed = javaMailSender.createMimeMessage(mail.openMimeMessageContent());
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        new RawMimeMessage(javaMailSender.getSession(), mail).writeTo(raw);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        parsed.writeTo(written);
+
+        assertThat(raw.toString("ISO-8859-1")).isEqualTo(written.toString("ISO-8859-1"));
+    }
+
+    @Test
+    public void shouldKeepConfiguredBounceAddress() throws Exception {
+
+        PersistedMail mail = new PostOffice(mailStorage, javaMailSender).postMail(createMimeMessage());
+        assertThat(new RawMimeMessage(javaMailSender.getSession(), mail).getEnvelopeFrom()).isEqualTo("from@example.com");
+
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.from", "bounces@example.com");
+        javaMailSender.setJavaMailProperties(properties);
+
+        // java mail takes the address from the session then
+        assertThat(new RawMimeMessage(javaMailSender.getSession(), mail).getEnvelopeFrom()).isNull();
+    }
+
+    @Test
+    public void shouldTakeRecipientsFromHeadersWithoutEnvelope() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        createMimeMessage().writeTo(out);
+        PersistedMail mail = mailStorage.create(out.toByteArray());
+
+        RawMimeMessage message = new RawMimeMessage(javaMailSender.getSession(), mail);
+
+        Address[] recipients = message.getAllRecipients();
+        assertThat(recipients).hasSize(2);
+        assertThat(recipients[1].toString()).isEqualTo("hidden@example.org");
+    }
+
+    @Test
+    public void shouldSendStoredMailAgain() throws Exception {
+
+        PersistedMail mail = new PostOffice(mailStorage, javaMailSender).postMail(createMimeMessage());
+        RawMimeMessage message = new RawMimeMessage(javaMailSender.getSession(), mail);
+
+        javaMailSender.send(message);
+        javaMailSender.send(message);
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(4);
+    }
+
+    @Test
+    public void shouldAddMissingMessageIdOnce() throws Exception {
+
+        PersistedMail mail = mailStorage.create("To: to@example.com\r\nSubject: Raw\r\n\r\nHello\r\n".getBytes("US-ASCII"));
+        RawMimeMessage message = new RawMimeMessage(javaMailSender.getSession(), mail);
+
+        javaMailSender.send(message);
+        String messageId = message.getMessageID();
+        message.saveChanges();
+
+        assertThat(messageId).isNotNull();
+        assertThat(message.getMessageID()).isEqualTo(messageId);
+        assertThat(greenMail.getReceivedMessages()[0].getMessageID()).isEqualTo(messageId);
+    }
+
+    @Test
+    public void shouldKeepStoredMessageId() throws Exception {
+
+        PersistedMail mail = new PostOffice(mailStorage, javaMailSender).postMail(createMimeMessage());
+        String storedMessageId = javaMailSender.createMimeMessage(mail.openMimeMessageContent()).getMessageID();
+
+        RawMimeMessage message = new RawMimeMessage(javaMailSender.getSession(), mail);
+        message.saveChanges();
+
+        assertThat(message.getMessageID()).isNotNull().isEqualTo(storedMessageId);
+    }
+
+    private MimeMessage createMimeMessage() throws MessagingException {
+        MimeMessageHelper helper = new MimeMessageHelper(javaMailSender.createMimeMessage(), true, "UTF-8");
+        helper.setFrom("from@example.com");
+        helper.setTo("to@example.com");
+        helper.setBcc("hidden@example.org");
+        helper.setSubject("Raw");
+        helper.setText("Hello", "<p>Hello</p>");
+        return helper.getMimeMessage();
+    }
+}
@@ -0,0 +1,34 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the retry delays.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class RetryPolicyTest {
+
+    private final RetryPolicy retryPolicy = new RetryPolicy(5, Duration.ofSeconds(30), Duration.ofMinutes(2));
+
+    @Test
+    public void shouldDoubleDelayUpToMaximum() {
+
+        assertThat(retryPolicy.delay(1)).isBetween(Duration.ofSeconds(15), Duration.ofSeconds(30));
+        assertThat(retryPolicy.delay(2)).isBetween(Duration.ofSeconds(30), Duration.ofSeconds(60));
+        assertThat(retryPolicy.delay(3)).isBetween(Duration.ofSeconds(60), Duration.ofSeconds(120));
+        assertThat(retryPolicy.delay(30)).isBetween(Duration.ofSeconds(60), Duration.ofSeconds(120));
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() {
+
+        assertThat(retryPolicy.isExhausted(4)).isFalse();
+        assertThat(retryPolicy.isExhausted(5)).isTrue();
+    }
+}
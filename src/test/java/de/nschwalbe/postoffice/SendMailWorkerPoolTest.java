@@ -0,0 +1,198 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * Tests the parallel mail workers against a local smtp server.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class SendMailWorkerPoolTest {
+
+    private GreenMail greenMail;
+    private JavaMailSenderImpl javaMailSender;
+    private InMemoryMailStorage mailStorage;
+    private LeaseKeeper leaseKeeper;
+    private DeliverySignal deliverySignal;
+    private PostOffice postOffice;
+
+    @BeforeMethod
+    public void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(ServerSetupTest.SMTP.getPort());
+
+        mailStorage = new InMemoryMailStorage();
+        leaseKeeper = new LeaseKeeper(mailStorage, "test", Duration.ofMinutes(5));
+        deliverySignal = new DeliverySignal();
+        postOffice = new PostOffice(mailStorage, javaMailSender, deliverySignal, PostOfficeMetrics.NOOP);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        greenMail.stop();
+    }
+
+    @Test
+    public void shouldSendAllMailsWithSeveralWorkers() throws Exception {
+
+        for (int i = 0; i < 25; i++) {
+            postOffice.postMail("Mail " + i, MailAddress.of("from@example.com"), MailAddress.of("to" + i + "@example.com"), "Hello", false);
+        }
+
+        SendMailWorkerPool workerPool = new SendMailWorkerPool(leaseKeeper, new MailDelivery(mailStorage, leaseKeeper, javaMailSender), deliverySignal, 4, 8, 5, 1);
+        workerPool.start();
+        try {
+            assertThat(greenMail.waitForIncomingEmail(10000, 25)).isTrue();
+        } finally {
+            workerPool.stop();
+        }
+
+        assertThat(mailStorage.findAll()).extracting(PersistedMail::getState).containsOnly(MailProcessState.SENT);
+    }
+
+    @Test
+    public void shouldSendPostedMailWithoutWaitingForNextPoll() throws Exception {
+
+        SendMailWorkerPool workerPool = new SendMailWorkerPool(leaseKeeper, new MailDelivery(mailStorage, leaseKeeper, javaMailSender), deliverySignal, 1, 1, 1, 60);
+        workerPool.start();
+        try {
+            // let the claimer find the empty storage and go idle
+            Thread.sleep(200);
+            postOffice.postMail("Urgent", MailAddress.of("from@example.com"), MailAddress.of("to@example.com"), "Hello", false);
+
+            assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+        } finally {
+            workerPool.stop();
+        }
+    }
+
+    @Test
+    public void shouldKeepSendingToOtherDomainsWhileOneBacksOff() throws Exception {
+
+        DomainThrottle domainThrottle = DomainThrottle.unlimited();
+        domainThrottle.tryAcquire("slow.example.com");
+        domainThrottle.release("slow.example.com", MailDelivery.Result.DOMAIN_UNAVAILABLE);
+
+        for (int i = 0; i < 5; i++) {
+            postOffice.postMail("Slow " + i, MailAddress.of("from@example.com"), MailAddress.of("to" + i + "@slow.example.com"), "Hello", false);
+            postOffice.postMail("Fast " + i, MailAddress.of("from@example.com"), MailAddress.of("to" + i + "@example.com"), "Hello", false);
+        }
+
+        MailDelivery mailDelivery = new MailDelivery(mailStorage, leaseKeeper, javaMailSender, domainThrottle, RetryPolicy.defaults(), PostOfficeMetrics.NOOP);
+        SendMailWorkerPool workerPool = new SendMailWorkerPool(leaseKeeper, mailDelivery, deliverySignal, 2, 4, 2, 60);
+        workerPool.start();
+        try {
+            assertThat(greenMail.waitForIncomingEmail(5000, 5)).isTrue();
+        } finally {
+            workerPool.stop();
+        }
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(5);
+        assertThat(mailStorage.findAll().stream()
+            .filter(mail -> "slow.example.com".equals(mail.getRecipientDomain()))
+            .map(PersistedMail::getState)
+            .collect(Collectors.toList()))
+            .hasSize(5)
+            .containsOnly(MailProcessState.NOT_SENT);
+    }
+
+    @Test
+    public void shouldSendMailsOfThrottledDomainAtItsRate() throws Exception {
+
+        for (int i = 0; i < 12; i++) {
+            postOffice.postMail("Mail " + i, MailAddress.of("from@example.com"), MailAddress.of("to" + i + "@example.com"), "Hello", false);
+        }
+
+        // four mails per second, the poll delay alone would take a minute per bucket
+        MailDelivery mailDelivery = new MailDelivery(mailStorage, leaseKeeper, javaMailSender, new DomainThrottle(4, 0), RetryPolicy.defaults(), PostOfficeMetrics.NOOP);
+        SendMailWorkerPool workerPool = new SendMailWorkerPool(leaseKeeper, mailDelivery, deliverySignal, 2, 20, 20, 60);
+        workerPool.start();
+        try {
+            assertThat(greenMail.waitForIncomingEmail(5000, 12)).isTrue();
+        } finally {
+            workerPool.stop();
+        }
+    }
+
+    @Test
+    public void shouldGiveBackMailAfterUnexpectedError() throws Exception {
+
+        AtomicBoolean broken = new AtomicBoolean(true);
+        JavaMailSenderImpl failingOnce = new JavaMailSenderImpl() {
+            @Override
+            protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) {
+                if (broken.getAndSet(false)) {
+                    throw new IllegalStateException("Broken");
+                }
+                super.doSend(mimeMessages, originalMessages);
+            }
+        };
+        failingOnce.setHost("localhost");
+        failingOnce.setPort(ServerSetupTest.SMTP.getPort());
+
+        postOffice.postMail("Mail", MailAddress.of("from@example.com"), MailAddress.of("to@example.com"), "Hello", false);
+
+        // one mail at a time per domain, a lost send slot would block the domain for good
+        MailDelivery mailDelivery = new MailDelivery(mailStorage, leaseKeeper, failingOnce, new DomainThrottle(0, 1), RetryPolicy.defaults(), PostOfficeMetrics.NOOP);
+        SendMailWorkerPool workerPool = new SendMailWorkerPool(leaseKeeper, mailDelivery, deliverySignal, 1, 1, 1, 1);
+        workerPool.start();
+        try {
+            assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+        } finally {
+            workerPool.stop();
+        }
+
+        assertThat(mailStorage.findAll()).extracting(PersistedMail::getState).containsOnly(MailProcessState.SENT);
+    }
+
+    @Test
+    public void shouldSendTemplateMails() throws Exception {
+
+        MailTemplate template = postOffice.compileTemplate("Hallo ${name}", MailAddress.of("from@example.com"), "<p>Hallo ${name}</p>", "Hallo ${name}");
+        List<MailTemplate.Recipient> recipients = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            recipients.add(MailTemplate.Recipient.of(MailAddress.of("to" + i + "@example.com"), Collections.singletonMap("name", "Empfänger " + i)));
+        }
+        postOffice.postMails(template, recipients);
+
+        SendMailWorkerPool workerPool = new SendMailWorkerPool(leaseKeeper, new MailDelivery(mailStorage, leaseKeeper, javaMailSender), deliverySignal, 2, 4, 3, 60);
+        workerPool.start();
+        try {
+            assertThat(greenMail.waitForIncomingEmail(5000, 3)).isTrue();
+        } finally {
+            workerPool.stop();
+        }
+
+        assertThat(Arrays.stream(greenMail.getReceivedMessages()).map(message -> {
+            try {
+                return message.getSubject();
+            } catch (MessagingException e) {
+                throw new IllegalStateException(e);
+            }
+        }).collect(Collectors.toList())).containsOnly("Hallo Empfänger 0", "Hallo Empfänger 1", "Hallo Empfänger 2");
+    }
+}
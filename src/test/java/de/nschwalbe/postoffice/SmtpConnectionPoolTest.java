@@ -0,0 +1,93 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Tests the smtp connection reuse against a local smtp server.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class SmtpConnectionPoolTest {
+
+    private GreenMail greenMail;
+    private JavaMailSenderImpl javaMailSender;
+
+    @BeforeMethod
+    public void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(ServerSetupTest.SMTP.getPort());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        greenMail.stop();
+    }
+
+    @Test
+    public void shouldSendSeveralMailsOverOneConnection() throws Exception {
+
+        SmtpConnectionPool connectionPool = new SmtpConnectionPool(javaMailSender, 3, 30);
+
+        for (int i = 0; i < 7; i++) {
+            connectionPool.send(createMimeMessage(i));
+        }
+        connectionPool.close();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(7);
+        assertThat(connectionPool.getOpenedConnections()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReconnectIfConnectionIsBroken() throws Exception {
+
+        SmtpConnectionPool connectionPool = new SmtpConnectionPool(javaMailSender, 100, 30);
+        connectionPool.send(createMimeMessage(1));
+
+        greenMail.stop();
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        connectionPool.send(createMimeMessage(2));
+        connectionPool.close();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+        assertThat(connectionPool.getOpenedConnections()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldTellLostConnectionFromRejection() {
+
+        SMTPSendFailedException lost = new SMTPSendFailedException("MAIL FROM:<from@example.com>", -1, "[EOF]", null, null, null, null);
+        SMTPSendFailedException rejected = new SMTPSendFailedException("MAIL FROM:<from@example.com>", 550, "550 Rejected", null, null, null, null);
+
+        assertThat(SmtpReplies.isConnectionLost(lost)).isTrue();
+        assertThat(SmtpReplies.isConnectionLost(rejected)).isFalse();
+    }
+
+    private MimeMessage createMimeMessage(int number) throws MessagingException {
+        MimeMessageHelper helper = new MimeMessageHelper(javaMailSender.createMimeMessage(), "UTF-8");
+        helper.setFrom("from@example.com");
+        helper.setTo("to@example.com");
+        helper.setSubject("Mail " + number);
+        helper.setText("Hello");
+        return helper.getMimeMessage();
+    }
+}
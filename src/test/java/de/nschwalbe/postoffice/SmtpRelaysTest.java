@@ -0,0 +1,139 @@
+package de.nschwalbe.postoffice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+
+/**
+ * Tests sending over several relays against local smtp servers.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class SmtpRelaysTest {
+
+    private static final int FIRST_PORT = 3125;
+    private static final int SECOND_PORT = 3126;
+    // nothing listens here
+    private static final int DOWN_PORT = 3127;
+
+    private GreenMail first;
+    private GreenMail second;
+
+    @BeforeMethod
+    public void setUp() {
+        first = new GreenMail(new ServerSetup(FIRST_PORT, null, ServerSetup.PROTOCOL_SMTP));
+        first.start();
+        second = new GreenMail(new ServerSetup(SECOND_PORT, null, ServerSetup.PROTOCOL_SMTP));
+        second.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void shouldSpreadMailsByWeight() throws Exception {
+
+        SmtpRelays relays = new SmtpRelays(Arrays.asList(relay(FIRST_PORT, 3), relay(SECOND_PORT, 1)), SmtpRelays.Strategy.WEIGHTED);
+
+        for (int i = 0; i < 8; i++) {
+            relays.send(createMimeMessage(i));
+        }
+        relays.close();
+
+        assertThat(first.getReceivedMessages()).hasSize(6);
+        assertThat(second.getReceivedMessages()).hasSize(2);
+    }
+
+    @Test
+    public void shouldFailOverToNextRelay() throws Exception {
+
+        SmtpRelays.Relay down = relay(DOWN_PORT, 10);
+        SmtpRelays relays = new SmtpRelays(Arrays.asList(down, relay(FIRST_PORT, 1)), SmtpRelays.Strategy.LEAST_OUTSTANDING);
+
+        for (int i = 0; i < 4; i++) {
+            relays.send(createMimeMessage(i));
+        }
+        relays.close();
+
+        assertThat(first.getReceivedMessages()).hasSize(4);
+        assertThat(down.getBreaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void shouldFailIfNoRelayTakesTheMail() throws Exception {
+
+        SmtpRelays relays = new SmtpRelays(Arrays.asList(relay(DOWN_PORT, 1)), SmtpRelays.Strategy.WEIGHTED);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                relays.send(createMimeMessage(i));
+                fail("Mail should not have been sent.");
+            } catch (MailSendException e) {
+                // the breaker opens after the second failure, then the relay is not tried any more
+                assertThat(e.getMessage()).contains(i < 2 ? "connection failed" : "circuits of all relays are open");
+            }
+        }
+    }
+
+    @Test
+    public void shouldUseRelayAgainOnceItWorks() throws Exception {
+
+        SmtpRelays.Relay relay = new SmtpRelays.Relay("first", MailTransport.of(sender(FIRST_PORT)), 1, 0, new CircuitBreaker(1, Duration.ZERO));
+        SmtpRelays relays = new SmtpRelays(Arrays.asList(relay), SmtpRelays.Strategy.WEIGHTED);
+        first.stop();
+
+        try {
+            relays.send(createMimeMessage(1));
+            fail("Mail should not have been sent.");
+        } catch (MailSendException e) {
+            assertThat(relay.getBreaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        }
+
+        first = new GreenMail(new ServerSetup(FIRST_PORT, null, ServerSetup.PROTOCOL_SMTP));
+        first.start();
+        relays.send(createMimeMessage(2));
+
+        assertThat(relay.getBreaker().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(first.getReceivedMessages()).hasSize(1);
+    }
+
+    private static SmtpRelays.Relay relay(int port, int weight) {
+        JavaMailSenderImpl sender = sender(port);
+        return new SmtpRelays.Relay("localhost:" + port, new SmtpConnectionPool(sender, 100, 30), weight, 2, new CircuitBreaker(2, Duration.ofMinutes(1)));
+    }
+
+    private static JavaMailSenderImpl sender(int port) {
+        JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost("localhost");
+        sender.setPort(port);
+        return sender;
+    }
+
+    private static MimeMessage createMimeMessage(int number) throws MessagingException {
+        MimeMessageHelper helper = new MimeMessageHelper(new JavaMailSenderImpl().createMimeMessage(), "UTF-8");
+        helper.setFrom("from@example.com");
+        helper.setTo("to@example.com");
+        helper.setSubject("Mail " + number);
+        helper.setText("Hello");
+        return helper.getMimeMessage();
+    }
+}
@@ -0,0 +1,265 @@
+package de.nschwalbe.postoffice.file;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
+import de.nschwalbe.postoffice.MailProcessState;
+import de.nschwalbe.postoffice.PriorityShares;
+
+/**
+ * Tests the file storage, including restarts and crashes.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class FileMailStorageTest {
+
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
+    private Path directory;
+    private FileMailStorage storage;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("postoffice");
+        storage = open(1 << 20);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        storage.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldClaimAndUpdateMails() {
+
+        FileMail created = storage.create(content("Hello"));
+        List<FileMail> claimed = storage.claimBatch(10, "test", LEASE);
+
+        assertThat(claimed).extracting(FileMail::getId).containsExactly(created.getId());
+        assertThat(claimed.get(0).getState()).isEqualTo(MailProcessState.IN_PROGRESS);
+        assertThat(claimed.get(0).getMimeMessageContent()).isEqualTo(content("Hello"));
+        assertThat(storage.claimBatch(10, "test", LEASE)).isEmpty();
+
+        FileMail mail = claimed.get(0);
+        mail.setState(MailProcessState.SENT);
+        storage.update(mail);
+
+        assertThat(storage.countByState()).containsEntry(MailProcessState.SENT, 1L).doesNotContainKey(MailProcessState.IN_PROGRESS);
+    }
+
+    @Test
+    public void shouldNotTransitionMailClaimedByAnotherNode() throws InterruptedException {
+
+        storage.create(content("Hello"));
+        FileMail expired = storage.claimBatch(1, "dead node", Duration.ofMillis(1)).get(0);
+        Thread.sleep(10);
+        storage.releaseExpiredLeases();
+        FileMail reclaimed = storage.claimBatch(1, "live node", LEASE).get(0);
+
+        reclaimed.setState(MailProcessState.SENT);
+        assertThat(storage.transition(reclaimed, MailProcessState.IN_PROGRESS)).isTrue();
+
+        expired.setState(MailProcessState.NOT_SENT);
+        assertThat(storage.transition(expired, MailProcessState.IN_PROGRESS)).isFalse();
+        assertThat(storage.countByState()).containsEntry(MailProcessState.SENT, 1L).doesNotContainKey(MailProcessState.NOT_SENT);
+    }
+
+    @Test
+    public void shouldRecoverMailsAfterRestart() throws IOException {
+
+        List<FileMail> created = storage.createAll(Arrays.asList(content("sent"), content("retried"), content("claimed")));
+        List<FileMail> claimed = storage.claimBatch(3, "test", LEASE);
+
+        FileMail sent = claimed.get(0);
+        sent.setState(MailProcessState.SENT);
+        storage.update(sent);
+
+        FileMail retried = claimed.get(1);
+        retried.recordFailedAttempt(LocalDateTime.now().plusHours(1));
+        retried.setState(MailProcessState.NOT_SENT);
+        retried.setErrorMessage("Connection refused");
+        storage.update(retried);
+
+        storage.close();
+        storage = open(1 << 20);
+
+        assertThat(storage.countByState())
+            .containsEntry(MailProcessState.SENT, 1L)
+            .containsEntry(MailProcessState.NOT_SENT, 2L)
+            .doesNotContainKey(MailProcessState.IN_PROGRESS);
+
+        // the retry is not due yet, the mail in progress before the restart is
+        List<FileMail> due = storage.claimBatch(3, "test", LEASE);
+        assertThat(due).extracting(FileMail::getId).containsExactly(created.get(2).getId());
+        assertThat(due.get(0).getMimeMessageContent()).isEqualTo(content("claimed"));
+    }
+
+    @Test
+    public void shouldDiscardIncompleteRecordOfACrash() throws IOException {
+
+        storage.create(content("first"));
+        storage.create(content("second"));
+        storage.close();
+
+        // break the checksum of the last record as an interrupted write would
+        Path segment = onlySegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int position = lastRecordEnd(channel) - 1;
+            channel.write(ByteBuffer.wrap(new byte[] {'X'}), position);
+        }
+
+        storage = open(1 << 20);
+        assertThat(storage.countByState()).containsEntry(MailProcessState.NOT_SENT, 1L);
+
+        storage.create(content("third"));
+        storage.close();
+        storage = open(1 << 20);
+
+        List<FileMail> claimed = storage.claimBatch(10, "test", LEASE);
+        assertThat(claimed).extracting(mail -> new String(mail.getMimeMessageContent(), StandardCharsets.UTF_8))
+            .containsExactly("first", "third");
+    }
+
+    @Test
+    public void shouldCompactOldSegments() throws IOException {
+
+        storage.close();
+        storage = open(4096);
+
+        List<String> kept = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            FileMail mail = storage.create(new byte[500]);
+            if (i % 20 == 0) {
+                kept.add(mail.getId());
+            }
+            else {
+                storage.delete(mail.getId());
+            }
+        }
+
+        assertThat(segmentFiles().size()).isLessThan(5);
+
+        storage.close();
+        storage = open(4096);
+        List<FileMail> claimed = storage.claimBatch(100, "test", LEASE);
+        assertThat(claimed).extracting(FileMail::getId).containsExactlyElementsOf(kept);
+        assertThat(claimed.get(0).getMimeMessageContent()).hasSize(500);
+    }
+
+    @Test
+    public void shouldClaimByPriorityAndSkipExcludedDomains() {
+
+        storage.create(content("low"));
+        storage.createAll(
+            Arrays.asList(content("blocked"), content("high")),
+            Arrays.asList(MailEnvelope.of("blocked.example").withPriority(MailPriority.HIGH), MailEnvelope.of("example.com").withPriority(MailPriority.HIGH)));
+
+        List<FileMail> claimed = storage.claimBatch(10, "test", LEASE, Collections.singleton("blocked.example"));
+
+        assertThat(claimed).extracting(mail -> new String(mail.getMimeMessageContent(), StandardCharsets.UTF_8))
+            .containsExactly("high", "low");
+    }
+
+    @Test
+    public void shouldKeepMailsWrittenConcurrently() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    storage.create(content("mail " + j));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        storage.close();
+        storage = open(1 << 20);
+        assertThat(storage.countByState()).containsEntry(MailProcessState.NOT_SENT, 200L);
+    }
+
+    @Test
+    public void shouldOnlyExpireFinishedMailsOnRestart() throws Exception {
+
+        storage.createAll(Arrays.asList(content("sent"), content("waiting")));
+        FileMail sent = storage.claimBatch(1, "test", LEASE).get(0);
+        sent.setState(MailProcessState.SENT);
+        storage.update(sent);
+        Thread.sleep(10);
+
+        storage.close();
+        storage = open(1 << 20, Duration.ZERO);
+
+        assertThat(storage.countByState()).containsOnlyKeys(MailProcessState.NOT_SENT).containsEntry(MailProcessState.NOT_SENT, 1L);
+        assertThat(storage.claimBatch(10, "test", LEASE)).extracting(mail -> new String(mail.getMimeMessageContent(), StandardCharsets.UTF_8))
+            .containsExactly("waiting");
+    }
+
+    private FileMailStorage open(int segmentSize) throws IOException {
+        return open(segmentSize, Duration.ofDays(3));
+    }
+
+    private FileMailStorage open(int segmentSize, Duration retention) throws IOException {
+        Journal journal = new Journal(directory, segmentSize, SyncPolicy.GROUP, Duration.ofSeconds(1));
+        return new FileMailStorage(journal, PriorityShares.defaults(), retention, retention, 0.5);
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segmentFiles();
+        assertThat(segments).hasSize(1);
+        return segments.get(0);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".journal")).collect(Collectors.toList());
+        }
+    }
+
+    private static int lastRecordEnd(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.read(buffer, 0);
+        int position = 0;
+        while (buffer.getInt(position) != 0) {
+            position += 8 + buffer.getInt(position);
+        }
+        return position;
+    }
+
+    private static byte[] content(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
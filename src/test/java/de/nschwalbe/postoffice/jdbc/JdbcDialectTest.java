@@ -0,0 +1,83 @@
+package de.nschwalbe.postoffice.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Proxy;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests detecting the database and the sql of the jdbc storage.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class JdbcDialectTest {
+
+    @Test
+    public void shouldSkipLockedRowsOnPostgres() throws SQLException {
+
+        JdbcDialect dialect = JdbcDialect.of(metaData("PostgreSQL", 9, 6));
+
+        assertThat(dialect.isSkipLocked()).isTrue();
+        assertThat(dialect.getBlobType()).isEqualTo("BYTEA");
+        assertThat(dialect.lockingLimit("SELECT id FROM t")).isEqualTo("SELECT id FROM t LIMIT ? FOR UPDATE SKIP LOCKED");
+    }
+
+    @Test
+    public void shouldClaimOptimisticallyOnOlderVersions() throws SQLException {
+
+        assertThat(JdbcDialect.of(metaData("PostgreSQL", 9, 4)).isSkipLocked()).isFalse();
+        assertThat(JdbcDialect.of(metaData("MySQL", 5, 7)).isSkipLocked()).isFalse();
+        assertThat(JdbcDialect.of(metaData("MySQL", 8, 0)).isSkipLocked()).isTrue();
+        assertThat(JdbcDialect.of(metaData("MariaDB", 10, 5)).isSkipLocked()).isFalse();
+        assertThat(JdbcDialect.of(metaData("MariaDB", 10, 6)).isSkipLocked()).isTrue();
+    }
+
+    @Test
+    public void shouldFallBackToStandardSql() throws SQLException {
+
+        JdbcDialect dialect = JdbcDialect.of(metaData("HSQL Database Engine", 2, 4));
+
+        assertThat(dialect.isSkipLocked()).isFalse();
+        assertThat(dialect.lockingLimit("SELECT id FROM t")).isEqualTo("SELECT id FROM t FETCH FIRST ? ROWS ONLY");
+    }
+
+    @Test
+    public void shouldExcludeDomainsFromClaim() {
+
+        JdbcDialect dialect = JdbcDialect.STANDARD;
+
+        assertThat(JdbcMailStorage.dueIdsQuery(dialect, 0, false)).doesNotContain("recipient_domain");
+        assertThat(JdbcMailStorage.dueIdsQuery(dialect, 2, false)).contains("(recipient_domain IS NULL OR recipient_domain NOT IN (?, ?))");
+        assertThat(JdbcMailStorage.dueIdsQuery(dialect, 1, true)).contains(" AND recipient_domain NOT IN (?)");
+        assertThat(JdbcMailStorage.dueIdsQuery(dialect, 0, true)).contains(" AND recipient_domain IS NOT NULL");
+    }
+
+    @Test
+    public void shouldUseDialectTypesInSchema() {
+
+        List<String> schema = JdbcMailStorage.schema(new JdbcDialect("VARBINARY(MAX)", "DATETIME2", "", false));
+
+        assertThat(schema.get(0)).startsWith("CREATE TABLE postoffice_mail (").contains("next_attempt_at DATETIME2 NOT NULL");
+        assertThat(schema.get(schema.size() - 1)).startsWith("CREATE TABLE postoffice_mail_content (").contains("content VARBINARY(MAX)");
+    }
+
+    private static DatabaseMetaData metaData(String productName, int majorVersion, int minorVersion) {
+        return (DatabaseMetaData) Proxy.newProxyInstance(JdbcDialectTest.class.getClassLoader(), new Class<?>[] {DatabaseMetaData.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getDatabaseProductName":
+                    return productName;
+                case "getDatabaseMajorVersion":
+                    return majorVersion;
+                case "getDatabaseMinorVersion":
+                    return minorVersion;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
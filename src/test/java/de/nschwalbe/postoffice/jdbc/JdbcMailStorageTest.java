@@ -0,0 +1,165 @@
+package de.nschwalbe.postoffice.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
+import de.nschwalbe.postoffice.MailProcessState;
+import de.nschwalbe.postoffice.PriorityShares;
+
+/**
+ * Tests the jdbc storage against an in-memory h2 database.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class JdbcMailStorageTest {
+
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
+    private JdbcDataSource dataSource;
+    private JdbcMailStorage storage;
+
+    @BeforeMethod
+    public void setUp() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        storage = new JdbcMailStorage(dataSource);
+    }
+
+    @AfterMethod
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    @Test
+    public void shouldCreateAndClaimMails() {
+
+        JdbcMail single = storage.create(content("single"));
+        List<JdbcMail> created = storage.createAll(Arrays.asList(content("first"), content("second")));
+
+        List<JdbcMail> claimed = storage.claimBatch(10, "test", LEASE);
+
+        assertThat(claimed).extracting(JdbcMail::getId)
+            .containsExactlyInAnyOrder(single.getId(), created.get(0).getId(), created.get(1).getId());
+        assertThat(claimed).extracting(JdbcMail::getState).containsOnly(MailProcessState.IN_PROGRESS);
+        assertThat(claimed).extracting(JdbcMail::getOwner).containsOnly("test");
+        assertThat(claimed.stream().filter(mail -> mail.getId().equals(single.getId())).findFirst().get().getMimeMessageContent())
+            .isEqualTo(content("single"));
+        assertThat(storage.claimBatch(10, "test", LEASE)).isEmpty();
+        assertThat(storage.countPending()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldClaimHigherPrioritiesFirst() {
+
+        List<JdbcMail> created = storage.createAll(
+            Arrays.asList(content("low"), content("normal"), content("high")),
+            Arrays.asList(
+                MailEnvelope.of("example.com").withPriority(MailPriority.LOW),
+                MailEnvelope.of("example.com").withPriority(MailPriority.NORMAL),
+                MailEnvelope.of("example.com").withPriority(MailPriority.HIGH)));
+
+        List<JdbcMail> claimed = storage.claimBatch(3, "test", LEASE);
+
+        assertThat(claimed).extracting(JdbcMail::getId).containsExactly(created.get(2).getId(), created.get(1).getId(), created.get(0).getId());
+    }
+
+    @Test
+    public void shouldNotClaimMailsOfExcludedDomains() {
+
+        List<JdbcMail> created = storage.createAll(
+            Arrays.asList(content("blocked"), content("open"), content("unknown")),
+            Arrays.asList(MailEnvelope.of("blocked.example.com"), MailEnvelope.of("example.com"), MailEnvelope.UNKNOWN));
+
+        List<JdbcMail> claimed = storage.claimBatch(10, "test", LEASE, Collections.singleton("blocked.example.com"));
+
+        assertThat(claimed).extracting(JdbcMail::getId).containsExactlyInAnyOrder(created.get(1).getId(), created.get(2).getId());
+    }
+
+    @Test
+    public void shouldTransitionOnlyMailsInProgress() {
+
+        storage.createAll(Arrays.asList(content("first"), content("second")));
+        List<JdbcMail> claimed = storage.claimBatch(2, "test", LEASE);
+
+        // stored by someone else in between
+        JdbcMail sent = claimed.get(0);
+        sent.setState(MailProcessState.SENT);
+        storage.update(sent);
+
+        sent.setState(MailProcessState.FAILED);
+        claimed.get(1).setState(MailProcessState.SENT);
+
+        assertThat(storage.transitionAll(claimed, MailProcessState.IN_PROGRESS)).isEqualTo(1);
+        assertThat(storage.countByState()).containsEntry(MailProcessState.SENT, 2L).doesNotContainKey(MailProcessState.FAILED);
+        assertThat(storage.countPending()).isZero();
+    }
+
+    @Test
+    public void shouldReleaseOnlyExpiredLeases() throws InterruptedException {
+
+        storage.createAll(Arrays.asList(content("renewed"), content("expired"), content("other node")));
+        List<JdbcMail> claimed = storage.claimBatch(3, "test", Duration.ofMillis(1));
+
+        storage.renewLeases(Collections.singletonList(claimed.get(0).getId()), "test", LEASE);
+        // a node may only renew its own leases
+        storage.renewLeases(Collections.singletonList(claimed.get(2).getId()), "other", LEASE);
+        Thread.sleep(10);
+
+        assertThat(storage.releaseExpiredLeases()).isEqualTo(2);
+        assertThat(storage.countByState()).containsEntry(MailProcessState.IN_PROGRESS, 1L).containsEntry(MailProcessState.NOT_SENT, 2L);
+        assertThat(storage.claimBatch(3, "other", LEASE)).extracting(JdbcMail::getId)
+            .containsExactlyInAnyOrder(claimed.get(1).getId(), claimed.get(2).getId());
+    }
+
+    @Test
+    public void shouldPurgeOnlyFinishedMailsAfterRetention() throws Exception {
+
+        JdbcMailStorage expiring = new JdbcMailStorage(dataSource, MailContentCodec.DEFLATE, PriorityShares.defaults(), Duration.ZERO,
+            Duration.ZERO, true);
+        expiring.createAll(Arrays.asList(content("sent"), content("failed"), content("waiting")));
+        List<JdbcMail> claimed = expiring.claimBatch(2, "test", LEASE);
+        claimed.get(0).setState(MailProcessState.SENT);
+        claimed.get(1).setState(MailProcessState.FAILED);
+        expiring.transitionAll(claimed, MailProcessState.IN_PROGRESS);
+        Thread.sleep(10);
+
+        expiring.releaseExpiredLeases();
+
+        assertThat(expiring.countByState()).containsOnlyKeys(MailProcessState.NOT_SENT);
+        assertThat(count(JdbcMailStorage.CONTENT_TABLE)).isEqualTo(1);
+    }
+
+    private long count(String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static byte[] content(String text) {
+        return ("Subject: " + text + "\r\n\r\n" + text).getBytes(StandardCharsets.US_ASCII);
+    }
+}
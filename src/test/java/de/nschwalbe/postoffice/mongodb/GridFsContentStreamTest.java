@@ -0,0 +1,70 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.testng.annotations.Test;
+
+import com.mongodb.gridfs.GridFSDBFile;
+
+/**
+ * Tests parsing mime messages straight from a GridFS file.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class GridFsContentStreamTest {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void shouldParseMessageWithoutCopyingIt() throws Exception {
+
+        MimeMessageHelper helper = new MimeMessageHelper(new MimeMessage(session), true, "UTF-8");
+        helper.setFrom("from@example.com");
+        helper.setTo("to@example.com");
+        helper.setSubject("Report");
+        helper.setText("See attachment.");
+        helper.addAttachment("report.txt", () -> new ByteArrayInputStream(new byte[100000]));
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        helper.getMimeMessage().writeTo(serialized);
+
+        MimeMessage parsed = new MimeMessage(session, new GridFsContentStream(new InMemoryFile(serialized.toByteArray())));
+
+        assertThat(parsed.getSubject()).isEqualTo("Report");
+        MimeMultipart multipart = (MimeMultipart) parsed.getContent();
+        assertThat(multipart.getCount()).isEqualTo(2);
+        assertThat(multipart.getBodyPart(1).getFileName()).isEqualTo("report.txt");
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        parsed.writeTo(written);
+        assertThat(written.toByteArray()).isEqualTo(serialized.toByteArray());
+    }
+
+    private static class InMemoryFile extends GridFSDBFile {
+
+        private final byte[] content;
+
+        InMemoryFile(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public long getLength() {
+            return content.length;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests splitting mime messages at their boundaries.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MongoBlobStoreTest {
+
+    @Test
+    public void shouldSplitAtBoundaryLines() {
+
+        String message = "Content-Type: multipart/mixed; boundary=b\r\n\r\n--b\r\nhello\r\n--b\r\nworld\r\n--b--\r\n";
+
+        List<byte[]> segments = MongoBlobStore.split(message.getBytes(Charset.forName("UTF-8")));
+
+        assertThat(segments).extracting(segment -> new String(segment, Charset.forName("UTF-8"))).containsExactly(
+            "Content-Type: multipart/mixed; boundary=b\r\n\r\n", "--b\r\n", "hello\r\n", "--b\r\n", "world\r\n", "--b--\r\n");
+    }
+
+    @Test
+    public void shouldKeepMessagesWithoutBoundaries() {
+
+        byte[] message = "--no newline at the end".getBytes(Charset.forName("UTF-8"));
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        MongoBlobStore.split(message).forEach(segment -> joined.write(segment, 0, segment.length));
+
+        assertThat(joined.toByteArray()).isEqualTo(message);
+    }
+}
@@ -3,6 +3,12 @@ package de.nschwalbe.postoffice.mongodb;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.nio.charset.Charset;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +21,13 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
 import org.testng.annotations.Test;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import de.nschwalbe.postoffice.MailContentCodec;
+import de.nschwalbe.postoffice.MailEnvelope;
+import de.nschwalbe.postoffice.MailPriority;
 import de.nschwalbe.postoffice.PostOfficeConfiguration;
 import de.nschwalbe.postoffice.MailProcessState;
 
@@ -27,6 +40,8 @@ import de.nschwalbe.postoffice.MailProcessState;
 @SpringBootTest({"spring.mail.host=localhost", "spring.mail.port=2525"})
 public class MongoMailStorageTest extends AbstractTestNGSpringContextTests {
 
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
     @Autowired
     private MongoMailStorage mongoMailStorage;
 
@@ -51,6 +66,7 @@ public class MongoMailStorageTest extends AbstractTestNGSpringContextTests {
     }
 
     @Test(dependsOnMethods = "shouldInsertMail")
+    @SuppressWarnings("deprecation")
     public void shouldFindNotSentId() {
 
         List<String> ids = mongoMailStorage.findNotSentIds();
@@ -60,6 +76,7 @@ public class MongoMailStorageTest extends AbstractTestNGSpringContextTests {
     }
 
     @Test(dependsOnMethods = "shouldFindNotSentId")
+    @SuppressWarnings("deprecation")
     public void shouldFindAndStartProgress() {
 
         MailDocument mailDocument = mongoMailStorage.findNotSentAndStartProgress(mailId);
@@ -76,6 +93,334 @@ public class MongoMailStorageTest extends AbstractTestNGSpringContextTests {
         assertThat(exists).isFalse();
     }
 
+    @Test(dependsOnMethods = "shouldDelete")
+    public void shouldClaimOldestMailsInBatches() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        String first = mongoMailStorage.create("first".getBytes(Charset.forName("UTF-8"))).getId();
+        String second = mongoMailStorage.create("second".getBytes(Charset.forName("UTF-8"))).getId();
+        String third = mongoMailStorage.create("third".getBytes(Charset.forName("UTF-8"))).getId();
+
+        List<MailDocument> batch = mongoMailStorage.claimBatch(2, "node", LEASE);
+
+        assertThat(batch).extracting(MailDocument::getId).containsExactly(first, second);
+        assertThat(batch).extracting(MailDocument::getState).containsOnly(MailProcessState.IN_PROGRESS);
+        assertThat(batch).extracting(MailDocument::getOwner).containsOnly("node");
+
+        assertThat(mongoMailStorage.claimBatch(2, "node", LEASE)).extracting(MailDocument::getId).containsExactly(third);
+        assertThat(mongoMailStorage.claimBatch(2, "node", LEASE)).isEmpty();
+    }
+
+    @Test(dependsOnMethods = "shouldClaimOldestMailsInBatches")
+    public void shouldReleaseExpiredLeases() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        String expiring = mongoMailStorage.create("expiring".getBytes(Charset.forName("UTF-8"))).getId();
+        mongoMailStorage.claimBatch(1, "dead node", Duration.ofMillis(1));
+        String renewed = mongoMailStorage.create("renewed".getBytes(Charset.forName("UTF-8"))).getId();
+        mongoMailStorage.claimBatch(1, "live node", Duration.ofMillis(1));
+        mongoMailStorage.renewLeases(Collections.singletonList(renewed), "live node", LEASE);
+
+        assertThat(mongoMailStorage.releaseExpiredLeases()).isEqualTo(1);
+
+        MailDocument released = mongoOperations.findById(expiring, MailDocument.class);
+        assertThat(released.getState()).isEqualTo(MailProcessState.NOT_SENT);
+        assertThat(released.getOwner()).isNull();
+        assertThat(mongoOperations.findById(renewed, MailDocument.class).getState()).isEqualTo(MailProcessState.IN_PROGRESS);
+    }
+
+    @Test(dependsOnMethods = "shouldReleaseExpiredLeases")
+    public void shouldInsertManyMails() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        List<byte[]> contents = Arrays.asList("first".getBytes(Charset.forName("UTF-8")), "second".getBytes(Charset.forName("UTF-8")));
+
+        List<MailDocument> mailDocuments = mongoMailStorage.createAll(contents);
+
+        assertThat(mailDocuments).hasSize(2);
+        assertThat(mailDocuments).extracting(MailDocument::getState).containsOnly(MailProcessState.NOT_SENT);
+        MailDocument stored = mongoOperations.findById(mailDocuments.get(1).getId(), MailDocument.class);
+        assertThat(stored.getMimeMessageContent()).isEqualTo(contents.get(1));
+        assertThat(stored.getCreatedDate()).isNotNull();
+    }
+
+    @Test(dependsOnMethods = "shouldInsertManyMails")
+    public void shouldStoreCompressedContent() {
+
+        MongoMailStorage compressingStorage = MongoMailStorage.builder(mongoOperations).contentCodec(MailContentCodec.DEFLATE).build();
+        byte[] content = String.join("", Collections.nCopies(100, "<p>Newsletter</p>")).getBytes(Charset.forName("UTF-8"));
+
+        String mailId = compressingStorage.create(content).getId();
+
+        // readable with any storage because the codec is stored with the mail
+        MailDocument stored = mongoOperations.findById(mailId, MailDocument.class);
+        assertThat(stored.getContentCodec()).isEqualTo(MailContentCodec.DEFLATE);
+        assertThat(stored.getMimeMessageContent()).isEqualTo(content);
+    }
+
+    @Test(dependsOnMethods = "shouldStoreCompressedContent")
+    public void shouldStoreSharedPartsOnce() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        MongoMailStorage deduplicatingStorage = MongoMailStorage.builder(mongoOperations)
+            .blobStore(new MongoBlobStore(mongoOperations, MailContentCodec.NONE, 100))
+            .build();
+        String attachment = String.join("", Collections.nCopies(100, "QUJDREVGR0hJSktMTU5PUA==\r\n"));
+        byte[] first = ("To: a@example.com\r\n\r\n--b\r\n" + attachment + "--b--\r\n").getBytes(Charset.forName("UTF-8"));
+        byte[] second = ("To: b@example.com\r\n\r\n--b\r\n" + attachment + "--b--\r\n").getBytes(Charset.forName("UTF-8"));
+
+        List<MailDocument> mailDocuments = deduplicatingStorage.createAll(Arrays.asList(first, second));
+
+        assertThat(mongoOperations.getCollection(MongoBlobStore.COLLECTION).count()).isEqualTo(1);
+        List<MailDocument> claimed = deduplicatingStorage.claimBatch(10, "test", LEASE);
+        assertThat(claimed).extracting(MailDocument::getMimeMessageContent).containsExactly(first, second);
+
+        deduplicatingStorage.delete(mailDocuments.get(0).getId());
+        assertThat(mongoOperations.getCollection(MongoBlobStore.COLLECTION).count()).isEqualTo(1);
+        deduplicatingStorage.delete(mailDocuments.get(1).getId());
+        assertThat(mongoOperations.getCollection(MongoBlobStore.COLLECTION).count()).isEqualTo(0);
+    }
+
+    @Test(dependsOnMethods = "shouldStoreSharedPartsOnce")
+    public void shouldStreamLargeMailsThroughGridFs() throws Exception {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        MongoMailStorage streamingStorage = MongoMailStorage.builder(mongoOperations)
+            .fileStore(new MongoFileStore(mongoOperations, 1024))
+            .build();
+        byte[] small = "small".getBytes(Charset.forName("UTF-8"));
+        byte[] large = String.join("", Collections.nCopies(1000, "large content\r\n")).getBytes(Charset.forName("UTF-8"));
+
+        MailDocument smallMail = streamingStorage.create(out -> out.write(small));
+        MailDocument largeMail = streamingStorage.create(out -> out.write(large));
+
+        assertThat(smallMail.getContentFileId()).isNull();
+        assertThat(largeMail.getContentFileId()).isNotNull();
+        List<MailDocument> claimed = streamingStorage.claimBatch(10, "test", LEASE);
+        assertThat(claimed).extracting(MailDocument::getMimeMessageContent).containsExactly(small, large);
+
+        streamingStorage.delete(largeMail.getId());
+        assertThat(mongoOperations.getCollection(MongoFileStore.BUCKET + ".files").count()).isEqualTo(0);
+    }
+
+    @Test(dependsOnMethods = "shouldStreamLargeMailsThroughGridFs")
+    public void shouldNotClaimMailsOfExcludedDomains() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        byte[] content = "content".getBytes(Charset.forName("UTF-8"));
+        mongoMailStorage.createAll(Arrays.asList(content, content, content),
+            Arrays.asList(MailEnvelope.of("slow.example.com"), MailEnvelope.of("example.com"), MailEnvelope.UNKNOWN));
+
+        List<MailDocument> claimed = mongoMailStorage.claimBatch(10, "test", LEASE, Arrays.asList("slow.example.com", null));
+
+        assertThat(claimed).extracting(MailDocument::getRecipientDomain).containsExactly("example.com");
+    }
+
+    @Test(dependsOnMethods = "shouldNotClaimMailsOfExcludedDomains")
+    public void shouldNotClaimMailsBeforeTheirRetryIsDue() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        MailDocument mailDocument = mongoMailStorage.create("content".getBytes(Charset.forName("UTF-8")));
+        mailDocument.recordFailedAttempt(LocalDateTime.now().plusMinutes(5));
+        mongoMailStorage.update(mailDocument);
+
+        assertThat(mongoMailStorage.claimBatch(10, "test", LEASE)).isEmpty();
+
+        mailDocument.recordFailedAttempt(LocalDateTime.now().minusSeconds(1));
+        mongoMailStorage.update(mailDocument);
+
+        List<MailDocument> claimed = mongoMailStorage.claimBatch(10, "test", LEASE);
+        assertThat(claimed).extracting(MailDocument::getAttempts).containsExactly(2);
+    }
+
+    @Test(dependsOnMethods = "shouldNotClaimMailsBeforeTheirRetryIsDue")
+    public void shouldClaimHighPriorityMailsFirst() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        byte[] content = "content".getBytes(Charset.forName("UTF-8"));
+        mongoMailStorage.createAll(Arrays.asList(content, content, content, content), Arrays.asList(
+            MailEnvelope.UNKNOWN.withPriority(MailPriority.LOW),
+            MailEnvelope.UNKNOWN.withPriority(MailPriority.LOW),
+            MailEnvelope.UNKNOWN.withPriority(MailPriority.LOW),
+            MailEnvelope.UNKNOWN.withPriority(MailPriority.HIGH)));
+
+        List<MailDocument> claimed = mongoMailStorage.claimBatch(2, "test", LEASE);
+
+        assertThat(claimed).extracting(MailDocument::getPriority).containsExactly(MailPriority.HIGH, MailPriority.LOW);
+    }
+
+    @Test(dependsOnMethods = "shouldClaimHighPriorityMailsFirst")
+    public void shouldOnlyTransitionMailsInExpectedState() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        byte[] content = "content".getBytes(Charset.forName("UTF-8"));
+        mongoMailStorage.create(content);
+        MailDocument claimed = mongoMailStorage.claimBatch(1, "test", LEASE).get(0);
+
+        claimed.setState(MailProcessState.SENT);
+        assertThat(mongoMailStorage.transition(claimed, MailProcessState.IN_PROGRESS)).isTrue();
+        assertThat(mongoMailStorage.transition(claimed, MailProcessState.IN_PROGRESS)).isFalse();
+
+        MailDocument stored = mongoOperations.findById(claimed.getId(), MailDocument.class);
+        assertThat(stored.getState()).isEqualTo(MailProcessState.SENT);
+        assertThat(stored.getOwner()).isNull();
+        // the content of sent mails is stripped by default
+        assertThat(stored.getMimeMessageContent()).isNull();
+        assertThat(stored.getExpireAt()).isGreaterThan(LocalDateTime.now());
+    }
+
+    @Test(dependsOnMethods = "shouldOnlyTransitionMailsInExpectedState")
+    public void shouldArchiveContentOfSentMails() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        RetentionPolicy retentionPolicy = new RetentionPolicy(Duration.ofDays(1), Duration.ofDays(7),
+            RetentionPolicy.SentContent.ARCHIVE, Duration.ofDays(30));
+        MongoMailStorage archivingStorage = MongoMailStorage.builder(mongoOperations)
+            .blobStore(new MongoBlobStore(mongoOperations, MailContentCodec.NONE, 100))
+            .retentionPolicy(retentionPolicy)
+            .build();
+        String attachment = String.join("", Collections.nCopies(100, "QUJDREVGR0hJSktMTU5PUA==\r\n"));
+        byte[] content = ("To: a@example.com\r\n\r\n--b\r\n" + attachment + "--b--\r\n").getBytes(Charset.forName("UTF-8"));
+        archivingStorage.createAll(Arrays.asList(content, content));
+
+        List<MailDocument> claimed = archivingStorage.claimBatch(10, "test", LEASE);
+        claimed.get(0).setState(MailProcessState.SENT);
+        claimed.get(1).setState(MailProcessState.FAILED);
+        assertThat(archivingStorage.transitionAll(claimed, MailProcessState.IN_PROGRESS)).isEqualTo(2);
+
+        MailDocument sent = mongoOperations.findById(claimed.get(0).getId(), MailDocument.class);
+        assertThat(sent.getMimeMessageContent()).isNull();
+        assertThat(sent.getBlobIds()).isEmpty();
+        DBObject archived = mongoOperations.getCollection(MongoMailStorage.ARCHIVE_COLLECTION).findOne(sent.getId());
+        assertThat((byte[]) archived.get("content")).isEqualTo(content);
+        // the failed mail keeps its content and its reference to the shared blob
+        MailDocument failed = mongoOperations.findById(claimed.get(1).getId(), MailDocument.class);
+        assertThat(failed.getExpireAt()).isGreaterThan(sent.getExpireAt());
+        assertThat(failed.getBlobIds()).hasSize(1);
+        assertThat(mongoOperations.getCollection(MongoBlobStore.COLLECTION).count()).isEqualTo(1);
+    }
+
+    @Test(dependsOnMethods = "shouldArchiveContentOfSentMails")
+    public void shouldOnlyClaimMailsOfOwnedPartitions() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        mongoOperations.getCollection(PartitionAssignment.COLLECTION).drop();
+        PartitionAssignment firstAssignment = new PartitionAssignment(mongoOperations, Duration.ZERO, Duration.ofMinutes(1));
+        PartitionAssignment secondAssignment = new PartitionAssignment(mongoOperations, Duration.ZERO, Duration.ofMinutes(1));
+        MongoMailStorage first = MongoMailStorage.builder(mongoOperations).partitionAssignment(firstAssignment).build();
+        MongoMailStorage second = MongoMailStorage.builder(mongoOperations).partitionAssignment(secondAssignment).build();
+        byte[] content = "content".getBytes(Charset.forName("UTF-8"));
+        first.createAll(Collections.nCopies(50, content));
+        firstAssignment.owned("first");
+        secondAssignment.owned("second");
+
+        List<MailDocument> claimedByFirst = first.claimBatch(100, "first", LEASE);
+        List<MailDocument> claimedBySecond = second.claimBatch(100, "second", LEASE);
+
+        List<String> nodes = Arrays.asList("first", "second");
+        assertThat(claimedByFirst).extracting(MailDocument::getPartition).isSubsetOf(PartitionAssignment.assign("first", nodes));
+        assertThat(claimedBySecond).extracting(MailDocument::getPartition).isSubsetOf(PartitionAssignment.assign("second", nodes));
+        assertThat(claimedByFirst.size() + claimedBySecond.size()).isEqualTo(50);
+    }
+
+    @Test(dependsOnMethods = "shouldOnlyClaimMailsOfOwnedPartitions")
+    public void shouldKeepBlobsOfMailsWaitingForDays() {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        mongoOperations.getCollection(MongoBlobStore.COLLECTION).drop();
+        MongoBlobStore blobStore = new MongoBlobStore(mongoOperations, MailContentCodec.NONE, 100);
+        MongoMailStorage deduplicatingStorage = MongoMailStorage.builder(mongoOperations).blobStore(blobStore).build();
+        byte[] waiting = ("To: a@example.com\r\n\r\n--b\r\n" + String.join("", Collections.nCopies(100, "QUJDREVGR0hJSktMTU5PUA==\r\n")) + "--b--\r\n")
+            .getBytes(Charset.forName("UTF-8"));
+        byte[] removed = ("To: b@example.com\r\n\r\n--b\r\n" + String.join("", Collections.nCopies(100, "UVJTVFVWV1hZWmFiY2RlZg==\r\n")) + "--b--\r\n")
+            .getBytes(Charset.forName("UTF-8"));
+        deduplicatingStorage.createAll(Collections.singletonList(waiting));
+        // like a mail removed by the TTL index, the reference count stays
+        blobStore.store(Collections.singletonList(removed));
+
+        Date fiveDaysAgo = Date.from(Instant.now().minus(Duration.ofDays(5)));
+        mongoOperations.getCollection(MongoBlobStore.COLLECTION)
+            .updateMulti(new BasicDBObject(), new BasicDBObject("$set", new BasicDBObject("lastReferenced", fiveDaysAgo)));
+        deduplicatingStorage.releaseExpiredLeases();
+
+        assertThat(mongoOperations.getCollection(MongoBlobStore.COLLECTION).count()).isEqualTo(1);
+        assertThat(mongoOperations.getCollection(MongoBlobStore.COLLECTION).getIndexInfo().stream()
+            .noneMatch(index -> index.containsField("expireAfterSeconds"))).isTrue();
+        assertThat(deduplicatingStorage.claimBatch(10, "test", LEASE)).extracting(MailDocument::getMimeMessageContent).containsExactly(waiting);
+    }
+
+    @Test(dependsOnMethods = "shouldKeepBlobsOfMailsWaitingForDays")
+    public void shouldRemoveGridFsFilesOfExpiredMails() throws Exception {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        MongoMailStorage streamingStorage = MongoMailStorage.builder(mongoOperations)
+            .fileStore(new MongoFileStore(mongoOperations, 1024))
+            .build();
+        byte[] large = String.join("", Collections.nCopies(1000, "large content\r\n")).getBytes(Charset.forName("UTF-8"));
+        MailDocument expired = streamingStorage.create(out -> out.write(large));
+        MailDocument waiting = streamingStorage.create(out -> out.write(large));
+        // like the TTL index does, the file stays
+        mongoOperations.remove(Query.query(Criteria.where("_id").is(expired.getId())), MailDocument.class);
+
+        Date fiveDaysAgo = Date.from(Instant.now().minus(Duration.ofDays(5)));
+        mongoOperations.getCollection(MongoFileStore.BUCKET + ".files")
+            .updateMulti(new BasicDBObject(), new BasicDBObject("$set", new BasicDBObject("lastReferenced", fiveDaysAgo)));
+        streamingStorage.releaseExpiredLeases();
+
+        assertThat(mongoOperations.getCollection(MongoFileStore.BUCKET + ".files").count()).isEqualTo(1);
+        assertThat(mongoOperations.getCollection(MongoFileStore.BUCKET + ".chunks").count(new BasicDBObject("files_id", expired.getContentFileId())))
+            .isZero();
+        assertThat(streamingStorage.claimBatch(10, "test", LEASE)).extracting(MailDocument::getId).containsExactly(waiting.getId());
+    }
+
+    @Test(dependsOnMethods = "shouldRemoveGridFsFilesOfExpiredMails")
+    public void shouldArchiveOnlyMailsMovedOn() throws Exception {
+
+        mongoOperations.remove(new Query(), MailDocument.class);
+        mongoOperations.getCollection(MongoMailStorage.ARCHIVE_COLLECTION).drop();
+        RetentionPolicy retentionPolicy = new RetentionPolicy(Duration.ofDays(1), Duration.ofDays(7),
+            RetentionPolicy.SentContent.ARCHIVE, Duration.ofDays(30));
+        MongoMailStorage archivingStorage = MongoMailStorage.builder(mongoOperations)
+            .fileStore(new MongoFileStore(mongoOperations, 1024))
+            .retentionPolicy(retentionPolicy)
+            .build();
+        byte[] small = "small".getBytes(Charset.forName("UTF-8"));
+        byte[] large = String.join("", Collections.nCopies(1000, "large content\r\n")).getBytes(Charset.forName("UTF-8"));
+        MailDocument smallMail = archivingStorage.create(out -> out.write(small));
+        MailDocument largeMail = archivingStorage.create(out -> out.write(large));
+
+        List<MailDocument> claimed = archivingStorage.claimBatch(10, "test", LEASE);
+        claimed.forEach(mailDocument -> mailDocument.setState(MailProcessState.SENT));
+
+        // the state guard fails, nothing may be archived
+        assertThat(archivingStorage.transitionAll(claimed, MailProcessState.NOT_SENT)).isZero();
+        assertThat(mongoOperations.getCollection(MongoMailStorage.ARCHIVE_COLLECTION).count()).isZero();
+
+        assertThat(archivingStorage.transitionAll(claimed, MailProcessState.IN_PROGRESS)).isEqualTo(2);
+        DBObject archivedSmall = mongoOperations.getCollection(MongoMailStorage.ARCHIVE_COLLECTION).findOne(smallMail.getId());
+        assertThat((byte[]) archivedSmall.get("content")).isEqualTo(small);
+        // the large mail keeps its file as long as the archive references it
+        DBObject archivedLarge = mongoOperations.getCollection(MongoMailStorage.ARCHIVE_COLLECTION).findOne(largeMail.getId());
+        assertThat(archivedLarge.get("contentFileId")).isEqualTo(largeMail.getContentFileId());
+        assertThat(mongoOperations.getCollection(MongoFileStore.BUCKET + ".files").count(new BasicDBObject("_id", largeMail.getContentFileId())))
+            .isEqualTo(1);
+        assertThat(mongoOperations.findById(largeMail.getId(), MailDocument.class).getContentFileId()).isNull();
+    }
+
+    @Test(dependsOnMethods = "shouldArchiveOnlyMailsMovedOn")
+    public void shouldDropOutdatedClaimIndexes() {
+
+        DBCollection mails = mongoOperations.getCollection("mails");
+        mails.createIndex(new BasicDBObject("state", 1).append("createdDate", 1).append("_id", 1), "state_createdDate");
+        mails.createIndex(new BasicDBObject("state", 1).append("nextAttemptAt", 1).append("_id", 1), "state_nextAttemptAt");
+
+        new MongoMailStorage(mongoOperations);
+
+        assertThat(mails.getIndexInfo()).extracting(index -> index.get("name"))
+            .doesNotContain("state_createdDate", "state_nextAttemptAt")
+            .contains("state_priority_nextAttemptAt");
+    }
+
     @SpringBootApplication
     @Import({ PostOfficeConfiguration.class})
     static class TestConfiguration {
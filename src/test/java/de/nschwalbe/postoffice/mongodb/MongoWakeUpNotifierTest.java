@@ -0,0 +1,110 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.nschwalbe.postoffice.DeliverySignal;
+
+/**
+ * Tests throttling the wake-up signals sent to other nodes.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class MongoWakeUpNotifierTest {
+
+    private final AtomicInteger signals = new AtomicInteger();
+
+    private MongoWakeUpNotifier notifier;
+
+    @BeforeMethod
+    public void setUp() {
+        signals.set(0);
+        notifier = new MongoWakeUpNotifier(mongoOperations(), new DeliverySignal()) {
+            @Override
+            void insertSignal() {
+                signals.incrementAndGet();
+            }
+        };
+        notifier.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        notifier.stop();
+    }
+
+    @Test
+    public void shouldSendOneTrailingSignalForBurst() throws InterruptedException {
+
+        for (int i = 0; i < 10; i++) {
+            notifier.notifyNodes();
+        }
+        Thread.sleep(50);
+        assertThat(signals.get()).isEqualTo(1);
+
+        Thread.sleep(300);
+
+        assertThat(signals.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotSendTrailingSignalForSingleMail() throws InterruptedException {
+
+        notifier.notifyNodes();
+
+        Thread.sleep(300);
+
+        assertThat(signals.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotWaitForSlowInsert() throws InterruptedException {
+
+        CountDownLatch inserted = new CountDownLatch(1);
+        MongoWakeUpNotifier slowNotifier = new MongoWakeUpNotifier(mongoOperations(), new DeliverySignal()) {
+            @Override
+            void insertSignal() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inserted.countDown();
+            }
+        };
+        slowNotifier.start();
+        try {
+            long start = System.nanoTime();
+            slowNotifier.notifyNodes();
+
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(100);
+            assertThat(inserted.await(2, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            slowNotifier.stop();
+        }
+    }
+
+    private static MongoOperations mongoOperations() {
+        return (MongoOperations) Proxy.newProxyInstance(MongoWakeUpNotifierTest.class.getClassLoader(), new Class<?>[] {MongoOperations.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "collectionExists":
+                    return true;
+                case "getCollection":
+                    // the listener keeps reopening its cursor until stopped
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package de.nschwalbe.postoffice.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests sharing the partitions between nodes.
+ *
+ * @author Nathanael Schwalbe
+ * @since 18.10.2026
+ */
+public class PartitionAssignmentTest {
+
+    @Test
+    public void shouldAssignAllPartitionsToSingleNode() {
+
+        assertThat(PartitionAssignment.assign("node-1", Collections.singletonList("node-1"))).hasSize(PartitionAssignment.PARTITIONS);
+    }
+
+    @Test
+    public void shouldAssignEveryPartitionToExactlyOneNode() {
+
+        List<String> nodes = Arrays.asList("node-1", "node-2", "node-3");
+
+        List<Integer> all = new ArrayList<>();
+        for (String node : nodes) {
+            List<Integer> owned = PartitionAssignment.assign(node, nodes);
+            assertThat(owned.size()).isGreaterThan(PartitionAssignment.PARTITIONS / 6);
+            all.addAll(owned);
+        }
+
+        Collections.sort(all);
+        assertThat(all).hasSize(PartitionAssignment.PARTITIONS).doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void shouldOnlyMovePartitionsOfLeavingNode() {
+
+        List<Integer> before = PartitionAssignment.assign("node-1", Arrays.asList("node-1", "node-2", "node-3"));
+        List<Integer> after = PartitionAssignment.assign("node-1", Arrays.asList("node-1", "node-2"));
+
+        assertThat(after).containsAll(before);
+        assertThat(after.size()).isGreaterThan(before.size());
+    }
+}